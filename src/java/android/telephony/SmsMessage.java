@@ -350,9 +350,23 @@ public class SmsMessage {
      */
     public static ArrayList<String> fragmentText(String text) {
         // This function is for MO SMS
-        TextEncodingDetails ted = (useCdmaFormatForMoSms()) ?
-            com.android.internal.telephony.cdma.SmsMessage.calculateLength(text, false, true) :
-            com.android.internal.telephony.gsm.SmsMessage.calculateLength(text, false);
+        boolean isCdmaFormat = useCdmaFormatForMoSms();
+
+        // Translate once up front, so that the length is calculated and the text split
+        // on the same string. calculateLength() finds nothing left to translate.
+        String newMsgBody = null;
+        Resources r = Resources.getSystem();
+        if (r.getBoolean(com.android.internal.R.bool.config_sms_force_7bit_encoding)) {
+            newMsgBody = Sms7BitEncodingTranslator.translate(text, isCdmaFormat);
+        }
+        if (TextUtils.isEmpty(newMsgBody)) {
+            newMsgBody = text;
+        }
+
+        TextEncodingDetails ted = isCdmaFormat ?
+            com.android.internal.telephony.cdma.SmsMessage.calculateLength(newMsgBody, false,
+                    true) :
+            com.android.internal.telephony.gsm.SmsMessage.calculateLength(newMsgBody, false);
 
         // TODO(cleanup): The code here could be rolled into the logic
         // below cleanly if these MAX_* constants were defined more
@@ -395,25 +409,19 @@ public class SmsMessage {
             }
         }
 
-        String newMsgBody = null;
-        Resources r = Resources.getSystem();
-        if (r.getBoolean(com.android.internal.R.bool.config_sms_force_7bit_encoding)) {
-            newMsgBody  = Sms7BitEncodingTranslator.translate(text);
-        }
-        if (TextUtils.isEmpty(newMsgBody)) {
-            newMsgBody = text;
-        }
         int pos = 0;  // Index in code units.
         int textLen = newMsgBody.length();
         ArrayList<String> result = new ArrayList<String>(ted.msgCount);
         while (pos < textLen) {
             int nextPos = 0;  // Counts code units.
             if (ted.codeUnitSize == SmsConstants.ENCODING_7BIT) {
-                if (useCdmaFormatForMoSms() && ted.msgCount == 1) {
+                if (isCdmaFormat && ted.msgCount == 1) {
                     // For a singleton CDMA message, the encoding must be ASCII...
                     nextPos = pos + Math.min(limit, textLen - pos);
                 } else {
                     // For multi-segment messages, CDMA 7bit equals GSM 7bit encoding (EMS mode).
+                    // Each search starts where the previous segment ended, so every
+                    // character is only looked at once.
                     nextPos = GsmAlphabet.findGsmSeptetLimitIndex(newMsgBody, pos, limit,
                             ted.languageTable, ted.languageShiftTable);
                 }
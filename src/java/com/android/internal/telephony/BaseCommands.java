@@ -36,6 +36,9 @@ public abstract class BaseCommands implements CommandsInterface {
     protected Context mContext;
     protected RadioState mState = RadioState.RADIO_UNAVAILABLE;
     protected Object mStateMonitor = new Object();
+    // Binary record of RIL traffic and radio state changes, formatted only by
+    // dump(). Only set by implementations that talk to a real modem.
+    protected RILEventLog mEventLog;
 
     protected RegistrantList mRadioStateChangedRegistrants = new RegistrantList();
     protected RegistrantList mOnRegistrants = new RegistrantList();
@@ -76,7 +79,8 @@ public abstract class BaseCommands implements CommandsInterface {
 
     protected Registrant mGsmSmsRegistrant;
     protected Registrant mCdmaSmsRegistrant;
-    protected Registrant mNITZTimeRegistrant;
+    // Volatile as RIL may notify it from its sender thread
+    protected volatile Registrant mNITZTimeRegistrant;
     protected Registrant mSignalStrengthRegistrant;
     protected Registrant mUSSDRegistrant;
     protected Registrant mSmsOnSimRegistrant;
@@ -789,6 +793,11 @@ public abstract class BaseCommands implements CommandsInterface {
                 return;
             }
 
+            if (mEventLog != null) {
+                mEventLog.log(RILEventLog.TYPE_RADIO_STATE, mState.ordinal(), 0,
+                        oldState.ordinal());
+            }
+
             mRadioStateChangedRegistrants.notifyRegistrants();
 
             if (mState.isAvailable() && !oldState.isAvailable()) {
@@ -945,4 +954,12 @@ public abstract class BaseCommands implements CommandsInterface {
         return TelephonyManager.getLteOnGsmModeStatic();
     }
 
+    @Override
+    public void setRequestTimeout(int rilRequest, int timeoutMillis) {
+    }
+
+    @Override
+    public void cancelRequest(Message result) {
+    }
+
 }
@@ -55,6 +55,8 @@ public class CommandException extends RuntimeException {
         SS_MODIFIED_TO_DIAL,
         SS_MODIFIED_TO_USSD,
         SS_MODIFIED_TO_SS,
+        // Generated locally when the modem does not answer a request in time
+        REQUEST_TIMEOUT,
     }
 
     public CommandException(Error e) {
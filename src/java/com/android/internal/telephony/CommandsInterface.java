@@ -2068,4 +2068,23 @@ public interface CommandsInterface {
      * @hide
      */
     void unSetOnCatSendSmsResult(Handler h);
+
+    /**
+     * Sets how long requests of one type may stay unanswered by the modem.
+     * When the timeout elapses the request is completed with a
+     * {@link CommandException.Error#REQUEST_TIMEOUT} exception. A response that
+     * arrives afterwards is dropped.
+     *
+     * @param rilRequest RIL_REQUEST_* the timeout applies to
+     * @param timeoutMillis timeout in milliseconds, or 0 to wait forever
+     */
+    void setRequestTimeout(int rilRequest, int timeoutMillis);
+
+    /**
+     * Cancels a request that has not been answered yet. The request is
+     * forgotten and its result message is never sent.
+     *
+     * @param result the Message the request was issued with
+     */
+    void cancelRequest(Message result);
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.ArrayList;
+
+/**
+ * Result of an asynchronous SIM SMS operation of {@link IccSmsInterfaceManager}.
+ *
+ * The result is set once, from the handler that receives the reply of the radio.
+ * Callers either block in {@link #get} or register a {@link Listener}.
+ *
+ * {@hide}
+ */
+public class IccSmsFuture<T> {
+    public interface Listener<T> {
+        /** Called once with the result, on the thread that completed the operation. */
+        void onComplete(T result);
+    }
+
+    private boolean mDone;
+    private T mResult;
+    private ArrayList<Listener<T>> mListeners;
+
+    /**
+     * Set the result and wake up all waiting callers. Only the first call has an effect.
+     */
+    void complete(T result) {
+        ArrayList<Listener<T>> listeners;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mResult = result;
+            listeners = mListeners;
+            mListeners = null;
+            notifyAll();
+        }
+        if (listeners != null) {
+            for (Listener<T> listener : listeners) {
+                listener.onComplete(result);
+            }
+        }
+    }
+
+    /**
+     * Call the listener with the result, right away if the operation already completed.
+     */
+    public void addListener(Listener<T> listener) {
+        T result;
+        synchronized (this) {
+            if (!mDone) {
+                if (mListeners == null) {
+                    mListeners = new ArrayList<Listener<T>>();
+                }
+                mListeners.add(listener);
+                return;
+            }
+            result = mResult;
+        }
+        listener.onComplete(result);
+    }
+
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Block until the operation completes.
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized T get() throws InterruptedException {
+        while (!mDone) {
+            wait();
+        }
+        return mResult;
+    }
+}
@@ -34,6 +34,7 @@ import android.telephony.Rlog;
 import android.telephony.SmsManager;
 import android.telephony.SmsMessage;
 import android.util.Log;
+import android.util.Pair;
 
 import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
 import com.android.internal.telephony.cdma.CdmaSmsBroadcastConfigInfo;
@@ -44,6 +45,8 @@ import com.android.internal.telephony.SmsNumberUtils;
 import com.android.internal.telephony.uicc.IccRecords;
 import com.android.internal.util.HexDump;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -62,9 +65,22 @@ public class IccSmsInterfaceManager {
     static final String LOG_TAG = "IccSmsInterfaceManager";
     static final boolean DBG = true;
 
+    /**
+     * @deprecated No longer used; operations complete through an {@link IccSmsFuture}.
+     *             Kept for subclasses.
+     */
+    @Deprecated
     protected final Object mLock = new Object();
+    /**
+     * @deprecated No longer used; operations complete through an {@link IccSmsFuture}.
+     *             Kept for subclasses.
+     */
+    @Deprecated
     protected boolean mSuccess;
-    private List<SmsRawData> mSms;
+
+    /** Load of all messages on the Icc in progress, shared by all callers asking meanwhile. */
+    private IccSmsLoadOperation mPendingLoad;
+    private final Object mPendingLoadLock = new Object();
 
     private CellBroadcastRangeManager mCellBroadcastRangeManager =
             new CellBroadcastRangeManager();
@@ -75,6 +91,8 @@ public class IccSmsInterfaceManager {
     private static final int EVENT_UPDATE_DONE = 2;
     protected static final int EVENT_SET_BROADCAST_ACTIVATION_DONE = 3;
     protected static final int EVENT_SET_BROADCAST_CONFIG_DONE = 4;
+    private static final int EVENT_LOAD_RECORD = 5;
+    private static final int EVENT_JOIN_LOAD = 6;
     private static final int SMS_CB_CODE_SCHEME_MIN = 0;
     private static final int SMS_CB_CODE_SCHEME_MAX = 255;
 
@@ -84,6 +102,19 @@ public class IccSmsInterfaceManager {
     final private UserManager mUserManager;
     protected SMSDispatcher mDispatcher;
 
+    /**
+     * Receives the messages stored on the Icc one at a time, as they are read.
+     */
+    public interface IccSmsRecordListener {
+        /**
+         * Called for every record, in order, on the handler thread. Records read before
+         * the listener was added are replayed first.
+         * @param index the 1-based record index
+         * @param record the message, or null if the record is free
+         */
+        void onRecord(int index, SmsRawData record);
+    }
+
     protected Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
@@ -91,36 +122,24 @@ public class IccSmsInterfaceManager {
 
             switch (msg.what) {
                 case EVENT_UPDATE_DONE:
+                case EVENT_SET_BROADCAST_ACTIVATION_DONE:
+                case EVENT_SET_BROADCAST_CONFIG_DONE:
                     ar = (AsyncResult) msg.obj;
-                    synchronized (mLock) {
-                        mSuccess = (ar.exception == null);
-                        mLock.notifyAll();
-                    }
+                    ((IccSmsFuture<Boolean>) ar.userObj).complete(ar.exception == null);
                     break;
-                case EVENT_LOAD_DONE:
-                    ar = (AsyncResult)msg.obj;
-                    synchronized (mLock) {
-                        if (ar.exception == null) {
-                            mSms = buildValidRawData((ArrayList<byte[]>) ar.result);
-                            //Mark SMS as read after importing it from card.
-                            markMessagesAsRead((ArrayList<byte[]>) ar.result);
-                        } else {
-                            if (Rlog.isLoggable("SMS", Log.DEBUG)) {
-                                log("Cannot load Sms records");
-                            }
-                            if (mSms != null)
-                                mSms.clear();
-                        }
-                        mLock.notifyAll();
-                    }
+                case EVENT_LOAD_RECORD:
+                    ar = (AsyncResult) msg.obj;
+                    onRecordLoaded((IccSmsLoadOperation) ar.userObj, msg.arg1,
+                            (byte[]) ar.result);
                     break;
-                case EVENT_SET_BROADCAST_ACTIVATION_DONE:
-                case EVENT_SET_BROADCAST_CONFIG_DONE:
+                case EVENT_LOAD_DONE:
                     ar = (AsyncResult) msg.obj;
-                    synchronized (mLock) {
-                        mSuccess = (ar.exception == null);
-                        mLock.notifyAll();
-                    }
+                    onLoadDone((IccSmsLoadOperation) ar.userObj, ar);
+                    break;
+                case EVENT_JOIN_LOAD:
+                    Pair<IccSmsLoadOperation, IccSmsRecordListener> join =
+                            (Pair<IccSmsLoadOperation, IccSmsRecordListener>) msg.obj;
+                    join.first.join(join.second);
                     break;
             }
         }
@@ -202,39 +221,45 @@ public class IccSmsInterfaceManager {
                 callingPackage) != AppOpsManager.MODE_ALLOWED) {
             return false;
         }
-        synchronized(mLock) {
-            mSuccess = false;
-            Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE);
-
-            if (status == STATUS_ON_ICC_FREE) {
-                // RIL_REQUEST_DELETE_SMS_ON_SIM vs RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM
-                // Special case FREE: call deleteSmsOnSim/Ruim instead of
-                // manipulating the record
-                // Will eventually fail if icc card is not present.
-                if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
-                    mPhone.mCi.deleteSmsOnSim(index, response);
-                } else {
-                    mPhone.mCi.deleteSmsOnRuim(index, response);
-                }
+        return waitForResult(updateMessageOnIccEfAsync(index, status, pdu), false,
+                "update by index");
+    }
+
+    /**
+     * Update the specified message on the Icc without waiting for the result.
+     * The caller is responsible for the permission checks.
+     *
+     * @see #updateMessageOnIccEf
+     * @return the success of the update, once it completed
+     */
+    public IccSmsFuture<Boolean> updateMessageOnIccEfAsync(int index, int status, byte[] pdu) {
+        IccSmsFuture<Boolean> future = new IccSmsFuture<Boolean>();
+        Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE, future);
+
+        if (status == STATUS_ON_ICC_FREE) {
+            // RIL_REQUEST_DELETE_SMS_ON_SIM vs RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM
+            // Special case FREE: call deleteSmsOnSim/Ruim instead of
+            // manipulating the record
+            // Will eventually fail if icc card is not present.
+            if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
+                mPhone.mCi.deleteSmsOnSim(index, response);
             } else {
-                //IccFilehandler can be null if ICC card is not present.
-                IccFileHandler fh = mPhone.getIccFileHandler();
-                if (fh == null) {
-                    response.recycle();
-                    return mSuccess; /* is false */
-                }
-                byte[] record = makeSmsRecordData(status, pdu);
-                fh.updateEFLinearFixed(
-                        IccConstants.EF_SMS,
-                        index, record, null, response);
+                mPhone.mCi.deleteSmsOnRuim(index, response);
             }
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to update by index");
+        } else {
+            //IccFilehandler can be null if ICC card is not present.
+            IccFileHandler fh = mPhone.getIccFileHandler();
+            if (fh == null) {
+                response.recycle();
+                future.complete(false);
+                return future;
             }
+            byte[] record = makeSmsRecordData(status, pdu);
+            fh.updateEFLinearFixed(
+                    IccConstants.EF_SMS,
+                    index, record, null, response);
         }
-        return mSuccess;
+        return future;
     }
 
     /**
@@ -256,26 +281,30 @@ public class IccSmsInterfaceManager {
                 callingPackage) != AppOpsManager.MODE_ALLOWED) {
             return false;
         }
-        synchronized(mLock) {
-            mSuccess = false;
-            Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE);
+        return waitForResult(copyMessageToIccEfAsync(status, pdu, smsc), false,
+                "copy to the Icc");
+    }
 
-            //RIL_REQUEST_WRITE_SMS_TO_SIM vs RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM
-            if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
-                mPhone.mCi.writeSmsToSim(status, IccUtils.bytesToHexString(smsc),
-                        IccUtils.bytesToHexString(pdu), response);
-            } else {
-                mPhone.mCi.writeSmsToRuim(status, IccUtils.bytesToHexString(pdu),
-                        response);
-            }
+    /**
+     * Copy a raw SMS PDU to the Icc without waiting for the result.
+     * The caller is responsible for the permission checks.
+     *
+     * @see #copyMessageToIccEf
+     * @return the success of the copy, once it completed
+     */
+    public IccSmsFuture<Boolean> copyMessageToIccEfAsync(int status, byte[] pdu, byte[] smsc) {
+        IccSmsFuture<Boolean> future = new IccSmsFuture<Boolean>();
+        Message response = mHandler.obtainMessage(EVENT_UPDATE_DONE, future);
 
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to update by index");
-            }
+        //RIL_REQUEST_WRITE_SMS_TO_SIM vs RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM
+        if (PhoneConstants.PHONE_TYPE_GSM == mPhone.getPhoneType()) {
+            mPhone.mCi.writeSmsToSim(status, IccUtils.bytesToHexString(smsc),
+                    IccUtils.bytesToHexString(pdu), response);
+        } else {
+            mPhone.mCi.writeSmsToRuim(status, IccUtils.bytesToHexString(pdu),
+                    response);
         }
-        return mSuccess;
+        return future;
     }
 
     /**
@@ -294,27 +323,93 @@ public class IccSmsInterfaceManager {
                 callingPackage) != AppOpsManager.MODE_ALLOWED) {
             return new ArrayList<SmsRawData>();
         }
-        synchronized(mLock) {
+        return waitForResult(getAllMessagesFromIccEfAsync(null), null, "load from the Icc");
+    }
 
-            IccFileHandler fh = mPhone.getIccFileHandler();
-            if (fh == null) {
-                Rlog.e(LOG_TAG, "Cannot load Sms records. No icc card?");
-                if (mSms != null) {
-                    mSms.clear();
-                    return mSms;
+    /**
+     * Retrieve all messages currently stored on the Icc without waiting for the result.
+     * If a load is already in progress, the caller shares it instead of reading the Icc
+     * again; the listener first receives the records read so far.
+     * The caller is responsible for the permission checks.
+     *
+     * @param listener receives each record as it is read, or null
+     * @return the list of SmsRawData of all records on the Icc once all were read, with
+     *  null for free records; an empty list if the Icc could not be read
+     */
+    public IccSmsFuture<List<SmsRawData>> getAllMessagesFromIccEfAsync(
+            IccSmsRecordListener listener) {
+        IccSmsLoadOperation op;
+        IccFileHandler fh;
+        synchronized (mPendingLoadLock) {
+            op = mPendingLoad;
+            if (op != null) {
+                if (listener != null) {
+                    // Joined on the handler thread, which also streams the records, so
+                    // the replay can't overtake or miss any of them.
+                    mHandler.obtainMessage(EVENT_JOIN_LOAD,
+                            Pair.create(op, listener)).sendToTarget();
                 }
+                return op.mFuture;
             }
 
-            Message response = mHandler.obtainMessage(EVENT_LOAD_DONE);
-            fh.loadEFLinearFixedAll(IccConstants.EF_SMS, response);
+            fh = mPhone.getIccFileHandler();
+            op = new IccSmsLoadOperation();
+            if (fh != null) {
+                mPendingLoad = op;
+            }
+        }
 
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to load from the Icc");
+        if (fh == null) {
+            Rlog.e(LOG_TAG, "Cannot load Sms records. No icc card?");
+            op.mFuture.complete(new ArrayList<SmsRawData>());
+            return op.mFuture;
+        }
+        if (listener != null) {
+            // Nothing has been read yet, so there is nothing to replay.
+            op.join(listener);
+        }
+        fh.loadEFLinearFixedAll(IccConstants.EF_SMS,
+                mHandler.obtainMessage(EVENT_LOAD_RECORD, op),
+                mHandler.obtainMessage(EVENT_LOAD_DONE, op));
+        return op.mFuture;
+    }
+
+    private void onRecordLoaded(IccSmsLoadOperation op, int index, byte[] data) {
+        SmsRawData record = (data[0] == STATUS_ON_ICC_FREE) ? null : new SmsRawData(data);
+        op.addRecord(index, record);
+    }
+
+    private void onLoadDone(IccSmsLoadOperation op, AsyncResult ar) {
+        synchronized (mPendingLoadLock) {
+            if (mPendingLoad == op) {
+                mPendingLoad = null;
+            }
+        }
+        List<SmsRawData> result;
+        if (ar.exception == null) {
+            result = op.getRecords();
+            //Mark SMS as read after importing it from card.
+            markMessagesAsRead((ArrayList<byte[]>) ar.result);
+        } else {
+            if (Rlog.isLoggable("SMS", Log.DEBUG)) {
+                log("Cannot load Sms records");
             }
+            result = new ArrayList<SmsRawData>();
+        }
+        op.mFuture.complete(result);
+    }
+
+    /**
+     * Block until an operation completes, for the synchronous API.
+     * @return the result, or valueIfInterrupted if the thread was interrupted
+     */
+    private <T> T waitForResult(IccSmsFuture<T> future, T valueIfInterrupted, String what) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            log("interrupted while trying to " + what);
+            return valueIfInterrupted;
         }
-        return mSms;
     }
 
     /**
@@ -711,7 +806,10 @@ public class IccSmsInterfaceManager {
      *
      * @param messages List of message records from EF_SMS.
      * @return SmsRawData list of all in-used records
+     * @deprecated Records are now converted one at a time as they are read.
+     *             Kept for subclasses.
      */
+    @Deprecated
     protected ArrayList<SmsRawData> buildValidRawData(ArrayList<byte[]> messages) {
         int count = messages.size();
         ArrayList<SmsRawData> ret;
@@ -978,80 +1076,44 @@ public class IccSmsInterfaceManager {
         if (DBG)
             log("Calling setGsmBroadcastConfig with " + configs.length + " configurations");
 
-        synchronized (mLock) {
-            Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_CONFIG_DONE);
+        IccSmsFuture<Boolean> future = new IccSmsFuture<Boolean>();
+        Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_CONFIG_DONE, future);
+        mPhone.mCi.setGsmBroadcastConfig(configs, response);
 
-            mSuccess = false;
-            mPhone.mCi.setGsmBroadcastConfig(configs, response);
-
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to set cell broadcast config");
-            }
-        }
-
-        return mSuccess;
+        return waitForResult(future, false, "set cell broadcast config");
     }
 
     private boolean setCellBroadcastActivation(boolean activate) {
         if (DBG)
             log("Calling setCellBroadcastActivation(" + activate + ')');
 
-        synchronized (mLock) {
-            Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_ACTIVATION_DONE);
-
-            mSuccess = false;
-            mPhone.mCi.setGsmBroadcastActivation(activate, response);
+        IccSmsFuture<Boolean> future = new IccSmsFuture<Boolean>();
+        Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_ACTIVATION_DONE, future);
+        mPhone.mCi.setGsmBroadcastActivation(activate, response);
 
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to set cell broadcast activation");
-            }
-        }
-
-        return mSuccess;
+        return waitForResult(future, false, "set cell broadcast activation");
     }
 
     private boolean setCdmaBroadcastConfig(CdmaSmsBroadcastConfigInfo[] configs) {
         if (DBG)
             log("Calling setCdmaBroadcastConfig with " + configs.length + " configurations");
 
-        synchronized (mLock) {
-            Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_CONFIG_DONE);
-
-            mSuccess = false;
-            mPhone.mCi.setCdmaBroadcastConfig(configs, response);
+        IccSmsFuture<Boolean> future = new IccSmsFuture<Boolean>();
+        Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_CONFIG_DONE, future);
+        mPhone.mCi.setCdmaBroadcastConfig(configs, response);
 
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to set cdma broadcast config");
-            }
-        }
-
-        return mSuccess;
+        return waitForResult(future, false, "set cdma broadcast config");
     }
 
     private boolean setCdmaBroadcastActivation(boolean activate) {
         if (DBG)
             log("Calling setCdmaBroadcastActivation(" + activate + ")");
 
-        synchronized (mLock) {
-            Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_ACTIVATION_DONE);
-
-            mSuccess = false;
-            mPhone.mCi.setCdmaBroadcastActivation(activate, response);
+        IccSmsFuture<Boolean> future = new IccSmsFuture<Boolean>();
+        Message response = mHandler.obtainMessage(EVENT_SET_BROADCAST_ACTIVATION_DONE, future);
+        mPhone.mCi.setCdmaBroadcastActivation(activate, response);
 
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                log("interrupted while trying to set cdma broadcast activation");
-            }
-        }
-
-        return mSuccess;
+        return waitForResult(future, false, "set cdma broadcast activation");
     }
 
     protected void log(String msg) {
@@ -1275,4 +1337,9 @@ public class IccSmsInterfaceManager {
         log("getSmsCapacityOnIcc().numberOnIcc = " + numberOnIcc);
         return numberOnIcc;
     }
+
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("IccSmsInterfaceManager:");
+        mDispatcher.dump(fd, pw, args);
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import com.android.internal.telephony.IccSmsInterfaceManager.IccSmsRecordListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A load of all SMS records on the Icc, shared by every caller that asks for them while it
+ * runs. Records and listeners are guarded by the operation, but listeners are always called
+ * without holding any lock, so they are free to call back into IccSmsInterfaceManager.
+ *
+ * {@link #addRecord} is called on the handler thread of IccSmsInterfaceManager, and so is
+ * {@link #join} once the load has started; that is what keeps every listener's records
+ * in order. The caller that starts the load joins on its own thread, usually a binder
+ * thread, before the Icc is read, when there is nothing to replay yet.
+ *
+ * {@hide}
+ */
+class IccSmsLoadOperation {
+    final IccSmsFuture<List<SmsRawData>> mFuture = new IccSmsFuture<List<SmsRawData>>();
+
+    private final ArrayList<SmsRawData> mRecords = new ArrayList<SmsRawData>();
+    private final ArrayList<IccSmsRecordListener> mListeners =
+            new ArrayList<IccSmsRecordListener>();
+
+    /**
+     * Adds a listener, first replaying the records read so far to it.
+     */
+    void join(IccSmsRecordListener listener) {
+        SmsRawData[] replay;
+        synchronized (this) {
+            replay = mRecords.toArray(new SmsRawData[mRecords.size()]);
+            mListeners.add(listener);
+        }
+        for (int i = 0; i < replay.length; i++) {
+            listener.onRecord(i + 1, replay[i]);
+        }
+    }
+
+    /**
+     * Stores the next record and passes it on to the listeners.
+     *
+     * @param index the 1-based record index
+     * @param record the message, or null if the record is free
+     */
+    void addRecord(int index, SmsRawData record) {
+        IccSmsRecordListener[] listeners;
+        synchronized (this) {
+            mRecords.add(record);
+            listeners = mListeners.toArray(new IccSmsRecordListener[mListeners.size()]);
+        }
+        for (IccSmsRecordListener listener : listeners) {
+            listener.onRecord(index, record);
+        }
+    }
+
+    /**
+     * @return a copy of the records read so far
+     */
+    synchronized List<SmsRawData> getRecords() {
+        return new ArrayList<SmsRawData>(mRecords);
+    }
+}
@@ -73,7 +73,6 @@ import com.android.internal.telephony.uicc.UiccController;
 import android.text.TextUtils;
 import com.android.internal.telephony.util.BlacklistUtils;
 import com.android.internal.telephony.PhoneBase;
-import com.android.internal.util.HexDump;
 import com.android.internal.util.State;
 import com.android.internal.util.StateMachine;
 
@@ -130,8 +129,21 @@ public abstract class InboundSmsHandler extends StateMachine {
     static final int ADDRESS_COLUMN = 6;
     static final int ID_COLUMN = 7;
 
+    /** Query projection for rebuilding the multi-part reassembly index. */
+    private static final String[] PDU_REASSEMBLY_PROJECTION = {
+            "pdu",
+            "sequence",
+            "destination_port",
+            "date",
+            "reference_number",
+            "count",
+            "address",
+            "_id"
+    };
+
     static final String SELECT_BY_ID = "_id=?";
     static final String SELECT_BY_REFERENCE = "address=? AND reference_number=? AND count=?";
+    static final String SELECT_MULTI_PART = "count IS NOT NULL";
 
     /** New SMS received as an AsyncResult. */
     public static final int EVENT_NEW_SMS = 1;
@@ -166,6 +178,9 @@ public abstract class InboundSmsHandler extends StateMachine {
     /** URI for raw table of SMS provider. */
     private static final Uri sRawUri = Uri.withAppendedPath(Telephony.Sms.CONTENT_URI, "raw");
 
+    /** Store PDUs in the raw table as BLOBs instead of hex strings. Both are always read. */
+    private static final String PROPERTY_RAW_BINARY_PDU = "persist.radio.sms_raw_blob";
+
     protected final Context mContext;
     private final ContentResolver mResolver;
 
@@ -198,6 +213,15 @@ public abstract class InboundSmsHandler extends StateMachine {
 
     private final boolean mSmsReceiveDisabled;
 
+    /**
+     * Multi-part segments in the raw table, to avoid querying it for every segment. Shared
+     * with the handlers of the other phones, which write to the same table.
+     */
+    final SmsReassemblyIndex mReassemblyIndex = SmsReassemblyIndex.getInstance();
+
+    private final boolean mStoreBinaryPdu =
+            SystemProperties.getBoolean(PROPERTY_RAW_BINARY_PDU, false);
+
     protected PhoneBase mPhone;
 
     protected CellBroadcastHandler mCellBroadcastHandler;
@@ -368,6 +392,11 @@ public abstract class InboundSmsHandler extends StateMachine {
                     return HANDLED;
 
                 case EVENT_START_ACCEPTING_SMS:
+                    // SmsBroadcastUndelivered has finished cleaning the raw table, and
+                    // normally filled the index while scanning it
+                    if (!mReassemblyIndex.isReady()) {
+                        rebuildReassemblyIndex();
+                    }
                     transitionTo(mIdleState);
                     return HANDLED;
 
@@ -804,6 +833,17 @@ public abstract class InboundSmsHandler extends StateMachine {
         if (messageCount == 1) {
             // single-part message
             pdus = new byte[][]{tracker.getPdu()};
+        } else if (mReassemblyIndex.isReady()) {
+            // multi-part message, all segments are in the index if they are in the table
+            pdus = mReassemblyIndex.getCompleteSegments(tracker);
+            if (pdus == null) {
+                // Wait for the other message parts to arrive.
+                return false;
+            }
+            int port = mReassemblyIndex.getFirstDestPort(tracker);
+            if (port != -1) {
+                destPort = port;
+            }
         } else {
             // multi-part message
             Cursor cursor = null;
@@ -834,7 +874,7 @@ public abstract class InboundSmsHandler extends StateMachine {
                     // subtract offset to convert sequence to 0-based array index
                     int index = cursor.getInt(SEQUENCE_COLUMN) - tracker.getIndexOffset();
 
-                    pdus[index] = HexDump.hexStringToByteArray(cursor.getString(PDU_COLUMN));
+                    pdus[index] = InboundSmsTracker.getPdu(cursor, PDU_COLUMN);
 
                     // Read the destination port from the first segment (needed for CDMA WAP PDU).
                     // It's not a bad idea to prefer the port from the first segment in other cases.
@@ -1002,9 +1042,15 @@ public abstract class InboundSmsHandler extends StateMachine {
     }
 
     /**
-     * Helper for {@link SmsBroadcastUndelivered} to delete an old message in the raw table.
+     * Delete the rows of a delivered message from the raw table. This is done right away, not
+     * batched: until the rows are gone, a crash makes SmsBroadcastUndelivered deliver the
+     * message again.
      */
     void deleteFromRawTable(String deleteWhere, String[] deleteWhereArgs) {
+        if (SELECT_BY_REFERENCE.equals(deleteWhere)) {
+            mReassemblyIndex.remove(deleteWhereArgs[0], Integer.parseInt(deleteWhereArgs[1]),
+                    Integer.parseInt(deleteWhereArgs[2]));
+        }
         int rows = mResolver.delete(sRawUri, deleteWhere, deleteWhereArgs);
         if (rows == 0) {
             loge("No rows were deleted from raw table!");
@@ -1113,6 +1159,17 @@ public abstract class InboundSmsHandler extends StateMachine {
                 String[] deleteWhereArgs = {address, refNumber, count};
                 tracker.setDeleteWhere(SELECT_BY_REFERENCE, deleteWhereArgs);
 
+                if (mReassemblyIndex.isReady()) {
+                    byte[] oldPdu = mReassemblyIndex.getSegment(tracker);
+                    if (oldPdu != null) {
+                        loge("Discarding duplicate message segment, refNumber=" + refNumber
+                                + " seqNumber=" + seqNumber);
+                        logIfDuplicateDiffers(oldPdu, tracker.getPdu());
+                        return Intents.RESULT_SMS_DUPLICATED;   // reject message
+                    }
+                    return insertTrackerIntoRawTable(tracker);
+                }
+
                 // Check for duplicate message segments
                 cursor = mResolver.query(sRawUri, PDU_PROJECTION,
                         "address=? AND reference_number=? AND count=? AND sequence=?",
@@ -1122,13 +1179,8 @@ public abstract class InboundSmsHandler extends StateMachine {
                 if (cursor.moveToNext()) {
                     loge("Discarding duplicate message segment, refNumber=" + refNumber
                             + " seqNumber=" + seqNumber);
-                    String oldPduString = cursor.getString(PDU_COLUMN);
-                    byte[] pdu = tracker.getPdu();
-                    byte[] oldPdu = HexDump.hexStringToByteArray(oldPduString);
-                    if (!Arrays.equals(oldPdu, tracker.getPdu())) {
-                        loge("Warning: dup message segment PDU of length " + pdu.length
-                                + " is different from existing PDU of length " + oldPdu.length);
-                    }
+                    byte[] oldPdu = InboundSmsTracker.getPdu(cursor, PDU_COLUMN);
+                    logIfDuplicateDiffers(oldPdu, tracker.getPdu());
                     return Intents.RESULT_SMS_DUPLICATED;   // reject message
                 }
                 cursor.close();
@@ -1142,7 +1194,11 @@ public abstract class InboundSmsHandler extends StateMachine {
             }
         }
 
-        ContentValues values = tracker.getContentValues();
+        return insertTrackerIntoRawTable(tracker);
+    }
+
+    private int insertTrackerIntoRawTable(InboundSmsTracker tracker) {
+        ContentValues values = tracker.getContentValues(mStoreBinaryPdu);
 
         if (VDBG) log("adding content values to raw table: " + values.toString());
         Uri newUri = mResolver.insert(sRawUri, values);
@@ -1153,6 +1209,8 @@ public abstract class InboundSmsHandler extends StateMachine {
             if (tracker.getMessageCount() == 1) {
                 // set the delete selection args for single-part message
                 tracker.setDeleteWhere(SELECT_BY_ID, new String[]{Long.toString(rowId)});
+            } else {
+                mReassemblyIndex.add(tracker);
             }
             return Intents.RESULT_SMS_HANDLED;
         } catch (Exception e) {
@@ -1161,6 +1219,57 @@ public abstract class InboundSmsHandler extends StateMachine {
         }
     }
 
+    private void logIfDuplicateDiffers(byte[] oldPdu, byte[] pdu) {
+        if (!Arrays.equals(oldPdu, pdu)) {
+            loge("Warning: dup message segment PDU of length " + pdu.length
+                    + " is different from existing PDU of length " + oldPdu.length);
+        }
+    }
+
+    /**
+     * Load the multi-part segments from the raw table into {@link #mReassemblyIndex}, unless
+     * another handler is already doing so. Until the index is ready, or if the table can't be
+     * read, segments are checked with raw table queries as before.
+     */
+    private void rebuildReassemblyIndex() {
+        if (!mReassemblyIndex.beginRebuild()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        boolean success = false;
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(sRawUri, PDU_REASSEMBLY_PROJECTION, SELECT_MULTI_PART,
+                    null, null);
+            if (cursor == null) {
+                loge("error getting multi-part segment cursor");
+                return;
+            }
+            boolean isCurrentFormat3gpp2 = isCurrentFormat3gpp2();
+            while (cursor.moveToNext()) {
+                InboundSmsTracker tracker;
+                try {
+                    tracker = new InboundSmsTracker(cursor, isCurrentFormat3gpp2);
+                } catch (IllegalArgumentException e) {
+                    loge("error loading SmsTracker: " + e);
+                    continue;
+                }
+                // Like the SELECT_BY_REFERENCE queries, the index covers every format.
+                mReassemblyIndex.addFromTable(tracker);
+            }
+            success = true;
+        } catch (SQLException e) {
+            loge("Can't access multipart SMS database", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            mReassemblyIndex.finishRebuild(success);
+        }
+        if (DBG) log("rebuilt reassembly index with " + mReassemblyIndex.size()
+                + " messages in " + ((System.nanoTime() - startTime) / 1000000) + " ms");
+    }
+
     /**
      * Returns whether the default message format for the current radio technology is 3GPP2.
      * @return true if the radio technology uses 3GPP2 format by default, false for 3GPP format
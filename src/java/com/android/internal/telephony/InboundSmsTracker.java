@@ -123,7 +123,7 @@ public final class InboundSmsTracker {
      * @param cursor a Cursor pointing to the row to construct this SmsTracker for
      */
     InboundSmsTracker(Cursor cursor, boolean isCurrentFormat3gpp2) {
-        mPdu = HexDump.hexStringToByteArray(cursor.getString(InboundSmsHandler.PDU_COLUMN));
+        mPdu = getPdu(cursor, InboundSmsHandler.PDU_COLUMN);
 
         if (cursor.isNull(InboundSmsHandler.DESTINATION_PORT_COLUMN)) {
             mDestPort = -1;
@@ -174,9 +174,33 @@ public final class InboundSmsTracker {
         }
     }
 
+    /**
+     * Read a PDU from the raw table, which may be stored as a hex string or, when written
+     * with binaryPdu set, as a BLOB.
+     * @param cursor a Cursor pointing to a row of the raw table
+     * @param column index of the pdu column
+     */
+    static byte[] getPdu(Cursor cursor, int column) {
+        if (cursor.getType(column) == Cursor.FIELD_TYPE_BLOB) {
+            return cursor.getBlob(column);
+        }
+        return HexDump.hexStringToByteArray(cursor.getString(column));
+    }
+
     ContentValues getContentValues() {
+        return getContentValues(false);
+    }
+
+    /**
+     * @param binaryPdu true to store the PDU as a BLOB instead of a hex string
+     */
+    ContentValues getContentValues(boolean binaryPdu) {
         ContentValues values = new ContentValues();
-        values.put("pdu", HexDump.toHexString(mPdu));
+        if (binaryPdu) {
+            values.put("pdu", mPdu);
+        } else {
+            values.put("pdu", HexDump.toHexString(mPdu));
+        }
         values.put("date", mTimestamp);
         // Always set the destination port, since it now contains message format flags.
         // Port is a 16-bit value, or -1, so clear the upper bits before setting flags.
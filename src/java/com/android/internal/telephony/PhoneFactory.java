@@ -44,6 +44,8 @@ import com.android.internal.telephony.sip.SipPhoneFactory;
 import com.android.internal.telephony.uicc.IccCardProxy;
 import com.android.internal.telephony.uicc.UiccController;
 import com.android.internal.util.IndentingPrintWriter;
+import com.google.android.mms.pdu.PduPersister;
+import com.google.android.mms.util.PduCache;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
@@ -597,6 +599,17 @@ public class PhoneFactory {
         }
         pw.flush();
 
+        pw.println("++++++++++++++++++++++++++++++++");
+        // WAP push notifications of every phone go through the process wide PDU cache
+        // and persister.
+        try {
+            PduCache.getInstance().dump(pw);
+            PduPersister.dump(pw);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        pw.flush();
+
         pw.println("++++++++++++++++++++++++++++++++");
         synchronized (sLocalLogs) {
             final IndentingPrintWriter ipw = new IndentingPrintWriter(pw, "  ");
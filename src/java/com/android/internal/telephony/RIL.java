@@ -42,6 +42,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Registrant;
 import android.os.Parcel;
 import android.os.PowerManager;
 import android.os.BatteryManager;
@@ -61,7 +62,7 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.telephony.ModemActivityInfo;
 import android.text.TextUtils;
-import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.Display;
 
 import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
@@ -93,6 +94,8 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Random;
@@ -106,10 +109,12 @@ class RILRequest {
     //***** Class Variables
     static Random sRandom = new Random();
     static AtomicInteger sNextSerial = new AtomicInteger(0);
-    private static Object sPoolSync = new Object();
-    private static RILRequest sPool = null;
-    private static int sPoolSize = 0;
-    private static final int MAX_POOL_SIZE = 4;
+    private static final int DEFAULT_POOL_SIZE = 32;
+    // Parcels that grew beyond this are returned to the Parcel pool rather than kept
+    private static final int MAX_REUSED_PARCEL_BYTES = 2048;
+    static final RILRequestPool sPool = new RILRequestPool(
+            SystemProperties.getInt("ro.telephony.ril_request_pool", DEFAULT_POOL_SIZE),
+            Runtime.getRuntime().availableProcessors());
     private Context mContext;
 
     //***** Instance Variables
@@ -117,7 +122,15 @@ class RILRequest {
     int mRequest;
     Message mResult;
     Parcel mParcel;
+    // Parcel kept from the previous use of this request, reused by obtain()
+    Parcel mSpareParcel;
     RILRequest mNext;
+    // SystemClock.elapsedRealtimeNanos() when handed to RIL.send()
+    long mSendTimeNanos;
+    // SystemClock.elapsedRealtime() after which the request is failed, 0 for none
+    long mDeadline;
+    // Timeout requested by the caller in milliseconds, 0 to use RIL's default
+    int mTimeout;
 
     /**
      * Retrieves a new RILRequest instance from the pool.
@@ -127,16 +140,21 @@ class RILRequest {
      * @return a RILRequest instance from the pool.
      */
     static RILRequest obtain(int request, Message result) {
-        RILRequest rr = null;
-
-        synchronized(sPoolSync) {
-            if (sPool != null) {
-                rr = sPool;
-                sPool = rr.mNext;
-                rr.mNext = null;
-                sPoolSize--;
-            }
-        }
+        return obtain(request, result, 0);
+    }
+
+    /**
+     * Retrieves a new RILRequest instance from the pool.
+     *
+     * @param request RIL_REQUEST_*
+     * @param result sent when operation completes
+     * @param timeoutMillis if positive, the request is completed with a
+     * REQUEST_TIMEOUT CommandException when the modem has not answered it this
+     * many milliseconds after it was sent
+     * @return a RILRequest instance from the pool.
+     */
+    static RILRequest obtain(int request, Message result, int timeoutMillis) {
+        RILRequest rr = sPool.obtain();
 
         if (rr == null) {
             rr = new RILRequest();
@@ -146,7 +164,18 @@ class RILRequest {
 
         rr.mRequest = request;
         rr.mResult = result;
-        rr.mParcel = Parcel.obtain();
+        if (rr.mSpareParcel != null) {
+            rr.mParcel = rr.mSpareParcel;
+            rr.mSpareParcel = null;
+            rr.mParcel.setDataSize(0);
+            rr.mParcel.setDataPosition(0);
+            sPool.recordParcel(rr, true);
+        } else {
+            rr.mParcel = Parcel.obtain();
+            sPool.recordParcel(rr, false);
+        }
+        rr.mDeadline = 0;
+        rr.mTimeout = timeoutMillis;
 
         if (result != null && result.getTarget() == null) {
             throw new NullPointerException("Message target must not be null");
@@ -165,16 +194,29 @@ class RILRequest {
      * Note: This should only be called once per use.
      */
     void release() {
-        synchronized (sPoolSync) {
-            if (sPoolSize < MAX_POOL_SIZE) {
-                mNext = sPool;
-                sPool = this;
-                sPoolSize++;
-                mResult = null;
-            }
+        mResult = null;
+        if (mParcel != null) {
+            releaseParcel();
+        }
+        if (!sPool.release(this) && mSpareParcel != null) {
+            mSpareParcel.recycle();
+            mSpareParcel = null;
         }
     }
 
+    /**
+     * Detaches mParcel once its contents are no longer needed, keeping it for the
+     * next use of this request unless it grew too large.
+     */
+    void releaseParcel() {
+        if (mParcel.dataCapacity() <= MAX_REUSED_PARCEL_BYTES && mSpareParcel == null) {
+            mSpareParcel = mParcel;
+        } else {
+            mParcel.recycle();
+        }
+        mParcel = null;
+    }
+
     private RILRequest() {
     }
 
@@ -208,13 +250,16 @@ class RILRequest {
 
     void
     onError(int error, Object ret) {
-        CommandException ex;
-
-        ex = CommandException.fromRilErrno(error);
+        onError(CommandException.fromRilErrno(error), ret);
+    }
 
-        if (RIL.RILJ_LOGD) Rlog.d(LOG_TAG, serialString() + "< "
+    void
+    onError(CommandException ex, Object ret) {
+        if (RIL.RILJ_LOGD && RILEventLog.isTextLogged(mRequest)) {
+            Rlog.d(LOG_TAG, serialString() + "< "
             + RIL.requestToString(mRequest)
             + " error: " + ex + " ret=" + RIL.retToString(mRequest, ret));
+        }
 
         if (mResult != null) {
             AsyncResult.forMessage(mResult, ret, ex);
@@ -222,8 +267,7 @@ class RILRequest {
         }
 
         if (mParcel != null) {
-            mParcel.recycle();
-            mParcel = null;
+            releaseParcel();
         }
     }
 }
@@ -276,10 +320,65 @@ public class RIL extends BaseCommands implements CommandsInterface {
     // The number of wakelock requests currently active.  Don't release the lock
     // until dec'd to 0
     int mWakeLockCount;
-
-    SparseArray<RILRequest> mRequestList = new SparseArray<RILRequest>();
-
-    Object     mLastNITZTimeInfo;
+    // Wakelock usage, guarded by mWakeLock
+    long mWakeLockAcquiredAt;
+    long mWakeLockAcquisitions;
+    long mWakeLockHeldMillis;
+    long mWakeLockHeldScreenOffMillis;
+
+    // Requests sent to rild and waiting for a response, keyed by serial. This
+    // replaces the package-visible SparseArray mRequestList; subclasses should
+    // go through addRequestToList(), findRequestFromList() and
+    // findAndRemoveRequestFromList() instead of touching the table.
+    private final RILRequestTable mRequestList = new RILRequestTable();
+    // Number of requests in mRequestList that have a deadline. RILSender stops
+    // ticking its timer wheel once this drops to zero, since every deadline left
+    // in the wheel then belongs to a request that has already completed.
+    final AtomicInteger mLiveDeadlines = new AtomicInteger();
+
+    // If positive, requests without an explicit deadline are failed when rild
+    // has not answered them within this many milliseconds.
+    final int mDefaultRequestTimeout =
+            SystemProperties.getInt(PROPERTY_REQUEST_TIMEOUT, 0);
+
+    // Per RIL_REQUEST_* timeouts set through setRequestTimeout()
+    final SparseIntArray mRequestTimeouts = new SparseIntArray();
+
+    // When true, RILSender drains every queued request in one pass and writes
+    // them to the socket with a single write instead of one write per request.
+    final boolean mBatchedSend = SystemProperties.getBoolean(PROPERTY_BATCHED_SEND, false);
+    // Requests waiting to be written by RILSender when mBatchedSend is set
+    final ConcurrentLinkedQueue<RILRequest> mPendingSends =
+            new ConcurrentLinkedQueue<RILRequest>();
+    // Set while an EVENT_SEND_BATCH message is queued on RILSender
+    final AtomicBoolean mSendBatchScheduled = new AtomicBoolean(false);
+
+    // When true, RILReceiver frames responses out of one large buffer and
+    // unmarshalls them into a single reused Parcel.
+    final boolean mBufferedReceive = SystemProperties.getBoolean(PROPERTY_BUFFERED_RECEIVE, false);
+    final RILReceiverStats mReceiverStats = new RILReceiverStats();
+
+    // Send-to-response latency of every solicited request
+    final RILLatencyStats mLatencyStats = new RILLatencyStats();
+
+    // Holds back bursts of state-only unsolicited responses, see PROPERTY_UNSOL_COALESCE
+    RILUnsolCoalescer mUnsolCoalescer;
+
+    // Decoders by RIL_REQUEST_* and RIL_UNSOL_* code, see registerResponseDecoders()
+    protected final RILDecoderTable mSolicitedDecoders = new RILDecoderTable(0, 256);
+    protected final RILDecoderTable mUnsolicitedDecoders =
+            new RILDecoderTable(RIL_UNSOL_RESPONSE_BASE, 128);
+    // Runs heavy decoders off RILReceiver when PROPERTY_DECODER_THREADS is positive.
+    // Solicited and unsolicited codes do not overlap, so both share its queues.
+    RILDecoderPool mDecoderPool;
+
+    // Holds low priority unsolicited responses undecoded while the screen is off
+    final RILUnsolDeferral mUnsolDeferral = new RILUnsolDeferral(
+            SystemProperties.getBoolean(PROPERTY_SCREEN_OFF_DEFER, false));
+
+    // Written on the sender thread when a coalesced NITZ is released, and read
+    // on the caller's thread in setOnNITZTime()
+    volatile Object mLastNITZTimeInfo;
 
     // When we are testing emergency calls
     AtomicBoolean mTestingEmergencyCall = new AtomicBoolean(false);
@@ -295,6 +394,9 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     static final int EVENT_SEND                 = 1;
     static final int EVENT_WAKE_LOCK_TIMEOUT    = 2;
+    static final int EVENT_SEND_BATCH           = 3;
+    static final int EVENT_CHECK_DEADLINES      = 4;
+    static final int EVENT_CANCEL               = 5;
 
     //***** Constants
 
@@ -307,6 +409,24 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     static final int SOCKET_OPEN_RETRY_MILLIS = 4 * 1000;
 
+    static final String PROPERTY_BATCHED_SEND = "persist.radio.ril_batch_send";
+    static final String PROPERTY_BUFFERED_RECEIVE = "persist.radio.ril_buffered_recv";
+    static final String PROPERTY_REQUEST_TIMEOUT = "persist.radio.ril_req_timeout_ms";
+    // Window in milliseconds for coalescing signal strength, cell info, voice network
+    // state and NITZ indications; 0 delivers every indication as it arrives.
+    static final String PROPERTY_UNSOL_COALESCE = "persist.radio.ril_unsol_coalesce_ms";
+    // When true, signal strength, cell info and LCE indications received while the
+    // screen is off are not decoded; the latest of each is processed on screen on.
+    static final String PROPERTY_SCREEN_OFF_DEFER = "persist.radio.ril_screen_off_defer";
+    // Number of threads decoding heavy responses such as cell info and data call
+    // lists; 0 decodes everything on RILReceiver.
+    static final String PROPERTY_DECODER_THREADS = "persist.radio.ril_decoder_threads";
+
+    // Room for several maximum sized requests in one batched socket write
+    static final int RIL_BATCH_BUFFER_BYTES = 8 * RIL_MAX_COMMAND_BYTES;
+    // Room for a burst of unsolicited responses to be framed from one read
+    static final int RIL_RECEIVE_BUFFER_BYTES = 8 * RIL_MAX_COMMAND_BYTES;
+
     // The number of the required config values for broadcast SMS stored in the C struct
     // RIL_CDMA_BroadcastServiceInfo
     private static final int CDMA_BSI_NO_OF_INTS_STRUCT = 3;
@@ -360,6 +480,27 @@ public class RIL extends BaseCommands implements CommandsInterface {
         // Only allocated once
         byte[] dataLength = new byte[4];
 
+        // Deadlines of pending requests, advanced by EVENT_CHECK_DEADLINES
+        final RILTimerWheel mTimerWheel = new RILTimerWheel();
+        final RILTimerWheel.Callback mExpiryCallback = new RILTimerWheel.Callback() {
+            @Override
+            public void onExpired(int serial) {
+                failTimedOutRequest(serial);
+            }
+        };
+        // True while an EVENT_CHECK_DEADLINES message is queued
+        boolean mTimerWheelTicking;
+        long mTimedOutCount;
+        long mCancelledCount;
+
+        // Only allocated when batched sending is enabled
+        RILFrameWriter mFrameWriter;
+        // Serials of the requests written into mFrameWriter but not yet flushed.
+        // Serials rather than requests, since a request that is answered before
+        // a failed flush is recycled and may already carry another serial.
+        int[] mBatchSerials;
+        int mBatchCount;
+
         //***** Runnable implementation
         @Override
         public void
@@ -388,15 +529,12 @@ public class RIL extends BaseCommands implements CommandsInterface {
                             return;
                         }
 
-                        synchronized (mRequestList) {
-                            mRequestList.append(rr.mSerial, rr);
-                        }
+                        addPendingRequest(rr);
 
                         byte[] data;
 
                         data = rr.mParcel.marshall();
-                        rr.mParcel.recycle();
-                        rr.mParcel = null;
+                        rr.releaseParcel();
 
                         if (data.length > RIL_MAX_COMMAND_BYTES) {
                             throw new RuntimeException(
@@ -437,6 +575,11 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
                     break;
 
+                case EVENT_SEND_BATCH:
+                    mSendBatchScheduled.set(false);
+                    sendPendingBatch();
+                    break;
+
                 case EVENT_WAKE_LOCK_TIMEOUT:
                     // Haven't heard back from the last request.  Assume we're
                     // not getting a response and  release the wake lock.
@@ -449,21 +592,169 @@ public class RIL extends BaseCommands implements CommandsInterface {
                     // Note: Keep mRequestList so that delayed response
                     // can still be handled when response finally comes.
 
-                    synchronized (mRequestList) {
-                        if (clearWakeLock()) {
-                            if (RILJ_LOGD) {
-                                int count = mRequestList.size();
-                                Rlog.d(RILJ_LOG_TAG, "WAKE_LOCK_TIMEOUT " +
-                                        " mRequestList=" + count);
-                                for (int i = 0; i < count; i++) {
-                                    rr = mRequestList.valueAt(i);
-                                    Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] "
-                                            + requestToString(rr.mRequest));
-                                }
+                    if (clearWakeLock()) {
+                        if (RILJ_LOGD) {
+                            ArrayList<RILLatencyStats.InFlight> inFlight =
+                                    getInFlightRequests();
+                            int count = inFlight.size();
+                            Rlog.d(RILJ_LOG_TAG, "WAKE_LOCK_TIMEOUT " +
+                                    " mRequestList=" + count);
+                            for (int i = 0; i < count; i++) {
+                                Rlog.d(RILJ_LOG_TAG, i + ": " + inFlight.get(i));
                             }
                         }
                     }
                     break;
+
+                case EVENT_CHECK_DEADLINES:
+                    mTimerWheelTicking = false;
+                    if (mLiveDeadlines.get() == 0) {
+                        mTimerWheel.clear();
+                    } else {
+                        mTimerWheel.advance(SystemClock.elapsedRealtime(), mExpiryCallback);
+                    }
+                    scheduleTimerWheelTick();
+                    break;
+
+                case EVENT_CANCEL:
+                    cancelPendingRequest((Message) msg.obj);
+                    break;
+            }
+        }
+
+        /**
+         * Drains mPendingSends, coalescing the framed requests into mFrameWriter
+         * and flushing it to the socket whenever it fills up and once at the end.
+         */
+        private void sendPendingBatch() {
+            if (mFrameWriter == null) {
+                mFrameWriter = new RILFrameWriter(RIL_BATCH_BUFFER_BYTES);
+                mBatchSerials = new int[16];
+            }
+
+            RILRequest rr;
+            while ((rr = mPendingSends.poll()) != null) {
+                LocalSocket s = mSocket;
+
+                if (s == null) {
+                    rr.onError(RADIO_NOT_AVAILABLE, null);
+                    rr.release();
+                    decrementWakeLock();
+                    continue;
+                }
+
+                addPendingRequest(rr);
+
+                byte[] data;
+
+                try {
+                    data = rr.mParcel.marshall();
+                } catch (RuntimeException exc) {
+                    Rlog.e(RILJ_LOG_TAG, "Uncaught exception ", exc);
+                    failSentRequest(rr, GENERIC_FAILURE);
+                    continue;
+                }
+                rr.releaseParcel();
+
+                if (data.length > RIL_MAX_COMMAND_BYTES) {
+                    Rlog.e(RILJ_LOG_TAG, "Parcel larger than max bytes allowed! "
+                            + data.length);
+                    failSentRequest(rr, GENERIC_FAILURE);
+                    continue;
+                }
+
+                if (!mFrameWriter.append(data)) {
+                    flushBatch(s);
+                    mFrameWriter.append(data);
+                }
+                if (mBatchCount == mBatchSerials.length) {
+                    mBatchSerials = Arrays.copyOf(mBatchSerials, mBatchCount * 2);
+                }
+                mBatchSerials[mBatchCount++] = rr.mSerial;
+            }
+
+            flushBatch(mSocket);
+        }
+
+        private void flushBatch(LocalSocket s) {
+            if (mFrameWriter.isEmpty()) {
+                return;
+            }
+
+            try {
+                if (s == null) {
+                    throw new IOException("socket closed with "
+                            + mFrameWriter.getPendingFrames() + " frames pending");
+                }
+                mFrameWriter.flush(s.getOutputStream());
+            } catch (IOException ex) {
+                Rlog.e(RILJ_LOG_TAG, "IOException", ex);
+                mFrameWriter.reset();
+                for (int i = 0; i < mBatchCount; i++) {
+                    RILRequest rr = findAndRemoveRequestFromList(mBatchSerials[i]);
+                    if (rr != null) {
+                        rr.onError(RADIO_NOT_AVAILABLE, null);
+                        rr.release();
+                        decrementWakeLock();
+                    }
+                }
+            }
+            mBatchCount = 0;
+        }
+
+        private void addPendingRequest(RILRequest rr) {
+            addRequestToList(rr);
+            if (rr.mDeadline != 0) {
+                mTimerWheel.add(rr.mSerial, rr.mDeadline, SystemClock.elapsedRealtime());
+                scheduleTimerWheelTick();
+            }
+        }
+
+        private void scheduleTimerWheelTick() {
+            if (!mTimerWheelTicking && mTimerWheel.size() > 0) {
+                mTimerWheelTicking = true;
+                sendEmptyMessageDelayed(EVENT_CHECK_DEADLINES, mTimerWheel.getTickMillis());
+            }
+        }
+
+        /**
+         * Completes a request whose deadline has passed. Deadlines stay in the
+         * wheel after their request is answered, so most serials are already gone.
+         */
+        private void failTimedOutRequest(int serial) {
+            RILRequest rr = findAndRemoveRequestFromList(serial);
+            if (rr == null) {
+                return;
+            }
+            mTimedOutCount++;
+            mEventLog.log(RILEventLog.TYPE_TIMEOUT, rr.mRequest, serial, 0);
+            Rlog.w(RILJ_LOG_TAG, rr.serialString() + "< "
+                    + requestToString(rr.mRequest) + " timed out");
+            rr.onError(new CommandException(CommandException.Error.REQUEST_TIMEOUT), null);
+            rr.release();
+            decrementWakeLock();
+        }
+
+        private void cancelPendingRequest(Message result) {
+            RILRequest rr = mRequestList.removeByResult(result);
+            if (rr == null) {
+                return;
+            }
+            onRequestRemoved(rr);
+            mCancelledCount++;
+            if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "< "
+                    + requestToString(rr.mRequest) + " cancelled");
+            rr.release();
+            decrementWakeLock();
+        }
+
+        private void failSentRequest(RILRequest rr, int error) {
+            // make sure this request has not already been handled,
+            // eg, if RILReceiver cleared the list.
+            if (findAndRemoveRequestFromList(rr.mSerial) != null) {
+                rr.onError(error, null);
+                rr.release();
+                decrementWakeLock();
             }
         }
     }
@@ -527,11 +818,92 @@ public class RIL extends BaseCommands implements CommandsInterface {
         return messageLength;
     }
 
+    /**
+     * Returns the RIL_UNSOL_* code of a marshalled response, or -1 if it is a
+     * solicited response. Parcel ints are in native (little endian) order.
+     */
+    static int peekUnsolResponse(byte[] buffer, int offset, int length) {
+        if (length < 2 * INT_SIZE
+                || readNativeInt(buffer, offset) != RESPONSE_UNSOLICITED) {
+            return -1;
+        }
+        return readNativeInt(buffer, offset + INT_SIZE);
+    }
+
+    private static int readNativeInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff)
+                | ((buffer[offset + 1] & 0xff) << 8)
+                | ((buffer[offset + 2] & 0xff) << 16)
+                | ((buffer[offset + 3] & 0xff) << 24);
+    }
+
     protected class RILReceiver implements Runnable {
         byte[] buffer;
+        RILFrameReader mFrameReader;
 
         protected RILReceiver() {
-            buffer = new byte[RIL_MAX_COMMAND_BYTES];
+            if (mBufferedReceive) {
+                mFrameReader = new RILFrameReader(RIL_RECEIVE_BUFFER_BYTES,
+                        RIL_MAX_COMMAND_BYTES);
+            } else {
+                buffer = new byte[RIL_MAX_COMMAND_BYTES];
+            }
+        }
+
+        private void readLegacy(InputStream is) throws IOException {
+            for (;;) {
+                Parcel p;
+
+                int length = readRilMessage(is, buffer);
+
+                if (length < 0) {
+                    // End-of-stream reached
+                    break;
+                }
+
+                long start = System.nanoTime();
+                p = Parcel.obtain();
+                mReceiverStats.onParcelObtained();
+                p.unmarshall(buffer, 0, length);
+                p.setDataPosition(0);
+
+                //Rlog.v(RILJ_LOG_TAG, "Read packet: " + length + " bytes");
+
+                processResponse(p);
+                p.recycle();
+                mReceiverStats.onFrameProcessed(peekUnsolResponse(buffer, 0, length),
+                        System.nanoTime() - start);
+            }
+        }
+
+        private void readBuffered(InputStream is) throws IOException {
+            // One Parcel per connection; unmarshall() replaces its contents for
+            // every frame and processResponse() never keeps a reference to it.
+            Parcel p = Parcel.obtain();
+            mReceiverStats.onParcelObtained();
+            mFrameReader.reset();
+            try {
+                for (;;) {
+                    int length = mFrameReader.nextFrame(is);
+
+                    if (length < 0) {
+                        // End-of-stream reached
+                        break;
+                    }
+
+                    long start = System.nanoTime();
+                    byte[] frame = mFrameReader.getBuffer();
+                    int offset = mFrameReader.getFrameOffset();
+                    p.unmarshall(frame, offset, length);
+                    p.setDataPosition(0);
+
+                    processResponse(p);
+                    mReceiverStats.onFrameProcessed(peekUnsolResponse(frame, offset, length),
+                            System.nanoTime() - start);
+                }
+            } finally {
+                p.recycle();
+            }
         }
 
         @Override
@@ -607,35 +979,20 @@ public class RIL extends BaseCommands implements CommandsInterface {
                     }
                 }
 
-                int length = 0;
                 try {
                     InputStream is = mSocket.getInputStream();
 
-                    for (;;) {
-                        Parcel p;
-
-                        length = readRilMessage(is, buffer);
-
-                        if (length < 0) {
-                            // End-of-stream reached
-                            break;
-                        }
-
-                        p = Parcel.obtain();
-                        p.unmarshall(buffer, 0, length);
-                        p.setDataPosition(0);
-
-                        //Rlog.v(RILJ_LOG_TAG, "Read packet: " + length + " bytes");
-
-                        processResponse(p);
-                        p.recycle();
+                    if (mFrameReader != null) {
+                        readBuffered(is);
+                    } else {
+                        readLegacy(is);
                     }
                 } catch (java.io.IOException ex) {
                     Rlog.i(RILJ_LOG_TAG, "'" + rilSocket + "' socket closed",
                           ex);
                 } catch (Throwable tr) {
-                    Rlog.e(RILJ_LOG_TAG, "Uncaught exception read length=" + length +
-                        "Exception:" + tr.toString());
+                    Rlog.e(RILJ_LOG_TAG, "Uncaught exception reading from '" + rilSocket
+                            + "' Exception:" + tr.toString());
                 }
 
                 Rlog.i(RILJ_LOG_TAG, "(" + mInstanceId + ") Disconnected from '" + rilSocket
@@ -673,11 +1030,15 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public RIL(Context context, int preferredNetworkType,
             int cdmaSubscription, Integer instanceId) {
         super(context);
+        mEventLog = new RILEventLog();
         if (RILJ_LOGD) {
             riljLog("RIL(context, preferredNetworkType=" + preferredNetworkType +
                     " cdmaSubscription=" + cdmaSubscription + ")");
         }
 
+        RILEventLog.setTextLogCategories(SystemProperties.getInt(
+                RILEventLog.PROPERTY_TEXT_LOG_CATEGORIES, RILEventLog.CATEGORY_ALL));
+
         mContext = context;
         mCdmaSubscription  = cdmaSubscription;
         mPreferredNetworkType = preferredNetworkType;
@@ -696,6 +1057,18 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         Looper looper = mSenderThread.getLooper();
         mSender = new RILSender(looper);
+        mUnsolCoalescer = new RILUnsolCoalescer(looper, new RILUnsolCoalescer.Sink() {
+            @Override
+            public void deliverUnsolicited(int response, Object ret) {
+                notifyCoalescedUnsolicited(response, ret);
+            }
+        }, SystemProperties.getInt(PROPERTY_UNSOL_COALESCE, 0));
+
+        registerResponseDecoders();
+        int decoderThreads = SystemProperties.getInt(PROPERTY_DECODER_THREADS, 0);
+        if (decoderThreads > 0) {
+            mDecoderPool = new RILDecoderPool("RILDecoder" + mInstanceId, decoderThreads);
+        }
 
         ConnectivityManager cm = (ConnectivityManager)context.getSystemService(
                 Context.CONNECTIVITY_SERVICE);
@@ -735,7 +1108,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void getVoiceRadioTechnology(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_VOICE_RADIO_TECH, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -744,7 +1118,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void getImsRegistrationState(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_IMS_REGISTRATION_STATE, result);
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
@@ -755,10 +1129,12 @@ public class RIL extends BaseCommands implements CommandsInterface {
         super.setOnNITZTime(h, what, obj);
 
         // Send the last NITZ time if we have it
-        if (mLastNITZTimeInfo != null) {
-            mNITZTimeRegistrant
+        Object lastNITZTimeInfo = mLastNITZTimeInfo;
+        Registrant registrant = mNITZTimeRegistrant;
+        if (lastNITZTimeInfo != null && registrant != null) {
+            registrant
                 .notifyRegistrant(
-                    new AsyncResult (null, mLastNITZTimeInfo, null));
+                    new AsyncResult (null, lastNITZTimeInfo, null));
         }
     }
 
@@ -769,7 +1145,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_SIM_STATUS, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -778,7 +1155,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //Note: This RIL request is also valid for SIM and RUIM (ICC card)
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SET_UICC_SUBSCRIPTION, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " appIndex: " + appIndex + " activate: " + activate);
 
         rr.mParcel.writeInt(mInstanceId);
@@ -792,7 +1170,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     // FIXME This API should take an AID and slot ID
     public void setDataAllowed(boolean allowed, Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ALLOW_DATA, result);
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest) +
                     " allowed: " + allowed);
         }
@@ -813,7 +1191,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PIN, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         boolean oldRil = needsOldRilFeature("facilitylock");
 
@@ -837,7 +1216,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PUK, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         boolean oldRil = needsOldRilFeature("facilitylock");
 
@@ -862,7 +1242,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PIN2, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         boolean oldRil = needsOldRilFeature("facilitylock");
 
@@ -886,7 +1267,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PUK2, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         boolean oldRil = needsOldRilFeature("facilitylock");
 
@@ -911,7 +1293,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CHANGE_SIM_PIN, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         boolean oldRil = needsOldRilFeature("facilitylock");
 
@@ -936,7 +1319,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CHANGE_SIM_PIN2, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         boolean oldRil = needsOldRilFeature("facilitylock");
 
@@ -955,7 +1339,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     changeBarringPassword(String facility, String oldPwd, String newPwd, Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CHANGE_BARRING_PASSWORD, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(3);
         rr.mParcel.writeString(facility);
@@ -1000,7 +1385,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     getCurrentCalls (Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_CURRENT_CALLS, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1016,7 +1402,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     getDataCallList(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_DATA_CALL_LIST, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1044,7 +1431,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
             rr.mParcel.writeByteArray(uusInfo.getUserData());
         }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1071,7 +1459,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         if (writeAidOnly)
             rr.mParcel.writeString(aid);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() +
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() +
                               "> getIMSI: " + requestToString(rr.mRequest)
                               + " aid: " + aid);
 
@@ -1083,7 +1471,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     getIMEI(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_IMEI, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1093,7 +1482,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     getIMEISV(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_IMEISV, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1106,7 +1496,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_HANGUP, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest) + " " +
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest) + " " +
                 gsmIndex);
 
         rr.mParcel.writeInt(1);
@@ -1121,7 +1512,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND,
                                         result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1133,7 +1525,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(
                         RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND,
                                         result);
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1145,7 +1538,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(
                         RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE,
                                         result);
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1156,7 +1550,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_CONFERENCE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1186,7 +1581,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SEPARATE_CONNECTION, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                             + " " + gsmIndex);
 
         rr.mParcel.writeInt(1);
@@ -1201,7 +1597,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_ANSWER, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1212,7 +1609,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_UDUB, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1223,7 +1621,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_EXPLICIT_CALL_TRANSFER, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1234,7 +1633,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_LAST_CALL_FAIL_CAUSE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1258,7 +1658,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1269,7 +1670,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SET_MUTE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                             + " " + enableMute);
 
         rr.mParcel.writeInt(1);
@@ -1284,7 +1686,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_GET_MUTE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1295,7 +1698,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SIGNAL_STRENGTH, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1306,7 +1710,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_VOICE_REGISTRATION_STATE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1317,7 +1722,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DATA_REGISTRATION_STATE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1328,7 +1734,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_OPERATOR, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1338,7 +1745,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     getHardwareConfig (Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_HARDWARE_CONFIG, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1349,7 +1757,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DTMF, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(Character.toString(c));
 
@@ -1362,7 +1771,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DTMF_START, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(Character.toString(c));
 
@@ -1375,7 +1785,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DTMF_STOP, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1390,7 +1801,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(Integer.toString(on));
         rr.mParcel.writeString(Integer.toString(off));
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + dtmfString);
 
         send(rr);
@@ -1410,7 +1822,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         constructGsmSendSmsRilRequest(rr, smscPDU, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1423,7 +1836,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         constructGsmSendSmsRilRequest(rr, smscPDU, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1475,7 +1889,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         constructCdmaSendSmsRilRequest(rr, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1491,7 +1906,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         constructGsmSendSmsRilRequest(rr, smscPDU, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1506,7 +1922,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         constructCdmaSendSmsRilRequest(rr, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1706,7 +2123,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(authType);
         rr.mParcel.writeString(protocol);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest) + " " + radioTechnology + " "
                 + profile + " " + apn + " " + user + " "
                 + password + " " + authType + " " + protocol);
@@ -1724,7 +2141,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(Integer.toString(cid));
         rr.mParcel.writeString(Integer.toString(reason));
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " +
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "> " +
                 requestToString(rr.mRequest) + " " + cid + " " + reason);
 
         send(rr);
@@ -1738,7 +2155,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(on ? 1 : 0);
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + (on ? " on" : " off"));
         }
@@ -1750,7 +2167,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void requestShutdown(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SHUTDOWN, result);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -1765,7 +2182,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(enable ? 1 : 0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest));
 
         send(rr);
@@ -1781,7 +2198,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(success ? 1 : 0);
         rr.mParcel.writeInt(cause);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + success + " " + cause);
 
         send(rr);
@@ -1797,7 +2215,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         // cause code according to X.S004-550E
         rr.mParcel.writeInt(cause);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + success + " " + cause);
 
         send(rr);
@@ -1813,7 +2232,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(success ? "1" : "0");
         rr.mParcel.writeString(ackPdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + success + " [" + ackPdu + ']');
 
         send(rr);
@@ -1844,7 +2264,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(pin2);
         rr.mParcel.writeString(aid);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> iccIO: "
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "> iccIO: "
                 + requestToString(rr.mRequest)
                 + " 0x" + Integer.toHexString(command)
                 + " 0x" + Integer.toHexString(fileid) + " "
@@ -1861,7 +2281,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_GET_CLIR, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1877,7 +2298,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeInt(clirMode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + clirMode);
 
         send(rr);
@@ -1892,7 +2314,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(serviceClass);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + serviceClass);
 
         send(rr);
@@ -1908,7 +2331,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(enable ? 1 : 0);
         rr.mParcel.writeInt(serviceClass);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + enable + ", " + serviceClass);
 
         send(rr);
@@ -1921,7 +2345,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1933,7 +2358,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + operatorNumeric);
 
         rr.mParcel.writeString(operatorNumeric);
@@ -1948,7 +2374,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1960,7 +2387,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_QUERY_AVAILABLE_NETWORKS,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1979,7 +2407,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(number);
         rr.mParcel.writeInt (timeSeconds);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + action + " " + cfReason + " " + serviceClass
                     + timeSeconds);
 
@@ -2000,7 +2429,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(number);
         rr.mParcel.writeInt (0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + cfReason + " " + serviceClass);
 
         send(rr);
@@ -2012,7 +2442,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
             = RILRequest.obtain(RIL_REQUEST_QUERY_CLIP, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2024,7 +2455,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_BASEBAND_VERSION, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2042,7 +2474,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                             Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_QUERY_FACILITY_LOCK, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         boolean oldRil = needsOldRilFeature("facilitylock");
 
@@ -2075,7 +2508,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
          RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SET_FACILITY_LOCK, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                                                         + " [" + facility + " " + lockState
                                                         + " " + serviceClass + " " + appId + "]");
 
@@ -2121,7 +2555,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_CANCEL_USSD, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString()
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString()
                 + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -2133,7 +2567,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_RESET_RADIO, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2175,7 +2610,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_OEM_HOOK_RAW, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                + "[" + IccUtils.bytesToHexString(data) + "]");
 
         rr.mParcel.writeByteArray(data);
@@ -2189,7 +2625,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_OEM_HOOK_STRINGS, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeStringArray(strings);
 
@@ -2210,7 +2647,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(bandMode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                  + " " + bandMode);
 
         send(rr);
@@ -2230,7 +2668,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE,
                 response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2243,7 +2682,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(contents);
         send(rr);
@@ -2257,7 +2697,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(contents);
         send(rr);
@@ -2271,7 +2712,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + '[' + contents + ']');
 
         rr.mParcel.writeString(contents);
@@ -2289,7 +2731,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
             RILConstants.RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM,
             response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         int[] param = new int[1];
         param[0] = accept ? 1 : 0;
@@ -2310,7 +2753,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         mPreferredNetworkType = networkType;
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + networkType);
 
         send(rr);
@@ -2324,7 +2768,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2337,7 +2782,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_GET_NEIGHBORING_CELL_IDS, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2351,7 +2797,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(enable ? 1 : 0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest) + ": " + enable);
 
         send(rr);
@@ -2364,7 +2810,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void getSmscAddress(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_SMSC_ADDRESS, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2378,7 +2825,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeString(address);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + address);
 
         send(rr);
@@ -2393,7 +2841,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(available ? 1 : 0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest) + ": " + available);
 
         send(rr);
@@ -2406,7 +2854,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void reportStkServiceIsRunning(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2418,7 +2867,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void getGsmBroadcastConfig(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GSM_GET_BROADCAST_CONFIG, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2441,7 +2891,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
             rr.mParcel.writeInt(config[i].isSelected() ? 1 : 0);
         }
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " with " + numOfConfig + " configs : ");
             for (int i = 0; i < numOfConfig; i++) {
@@ -2462,7 +2912,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(activate ? 0 : 1);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2489,6 +2940,25 @@ public class RIL extends BaseCommands implements CommandsInterface {
                         + ", isDevicePlugged: " + mIsDevicePlugged);
             }
             sendScreenState(mRadioScreenState == RADIO_SCREEN_ON);
+            updateUnsolDeferral();
+        }
+    }
+
+    private void updateUnsolDeferral() {
+        // Replays on RILSender, which also takes the responses handed off while
+        // the replay is pending.
+        if (mUnsolDeferral.setScreenOff(mRadioScreenState == RADIO_SCREEN_OFF)) {
+            mSender.post(new Runnable() {
+                @Override
+                public void run() {
+                    mUnsolDeferral.replay(new RILUnsolDeferral.Replayer() {
+                        @Override
+                        public void replayUnsolicited(int response, Parcel p) {
+                            processUnsolicitedResponse(response, p);
+                        }
+                    });
+                }
+            });
         }
     }
 
@@ -2497,7 +2967,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(on ? 1 : 0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString()
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString()
                 + "> " + requestToString(rr.mRequest) + ": " + on);
 
         send(rr);
@@ -2551,6 +3021,10 @@ public class RIL extends BaseCommands implements CommandsInterface {
     private void
     acquireWakeLock() {
         synchronized (mWakeLock) {
+            if (!mWakeLock.isHeld()) {
+                mWakeLockAcquiredAt = SystemClock.elapsedRealtime();
+                mWakeLockAcquisitions++;
+            }
             mWakeLock.acquire();
             mWakeLockCount++;
 
@@ -2567,6 +3041,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 mWakeLockCount--;
             } else {
                 mWakeLockCount = 0;
+                accountWakeLockRelease();
                 mWakeLock.release();
                 mSender.removeMessages(EVENT_WAKE_LOCK_TIMEOUT);
             }
@@ -2580,37 +3055,512 @@ public class RIL extends BaseCommands implements CommandsInterface {
             if (mWakeLockCount == 0 && mWakeLock.isHeld() == false) return false;
             Rlog.d(RILJ_LOG_TAG, "NOTE: mWakeLockCount is " + mWakeLockCount + "at time of clearing");
             mWakeLockCount = 0;
+            accountWakeLockRelease();
             mWakeLock.release();
             mSender.removeMessages(EVENT_WAKE_LOCK_TIMEOUT);
             return true;
         }
     }
 
-    protected void
-    send(RILRequest rr) {
-        Message msg;
+    // Must be called with mWakeLock locked, just before releasing it
+    private void accountWakeLockRelease() {
+        if (!mWakeLock.isHeld()) return;
+        long held = SystemClock.elapsedRealtime() - mWakeLockAcquiredAt;
+        mWakeLockHeldMillis += held;
+        if (mRadioScreenState == RADIO_SCREEN_OFF) {
+            mWakeLockHeldScreenOffMillis += held;
+        }
+    }
 
-        if (mSocket == null) {
-            rr.onError(RADIO_NOT_AVAILABLE, null);
-            rr.release();
-            return;
+    //***** Response decoders
+
+    protected final RILResponseDecoder mIccCardStatusDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseIccCardStatus(p);
         }
+    };
 
-        msg = mSender.obtainMessage(EVENT_SEND, rr);
+    protected final RILResponseDecoder mIntsDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseInts(p);
+        }
+    };
 
-        acquireWakeLock();
+    protected final RILResponseDecoder mCallListDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCallList(p);
+        }
+    };
 
-        msg.sendToTarget();
-    }
+    protected final RILResponseDecoder mVoidDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseVoid(p);
+        }
+    };
 
-    protected void
-    processResponse (Parcel p) {
-        int type;
+    protected final RILResponseDecoder mStringDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseString(p);
+        }
+    };
 
-        type = p.readInt();
+    protected final RILResponseDecoder mFailCauseDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseFailCause(p);
+        }
+    };
 
-        if (type == RESPONSE_UNSOLICITED) {
-            processUnsolicited (p);
+    protected final RILResponseDecoder mSignalStrengthDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSignalStrength(p);
+        }
+    };
+
+    protected final RILResponseDecoder mStringsDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseStrings(p);
+        }
+    };
+
+    protected final RILResponseDecoder mSmsDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSMS(p);
+        }
+    };
+
+    protected final RILResponseDecoder mSetupDataCallDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSetupDataCall(p);
+        }
+    };
+
+    protected final RILResponseDecoder mIccIoDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseICC_IO(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCallForwardDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCallForward(p);
+        }
+    };
+
+    protected final RILResponseDecoder mOperatorInfosDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseOperatorInfos(p);
+        }
+    };
+
+    protected final RILResponseDecoder mDataCallListDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseDataCallList(p);
+        }
+    };
+
+    protected final RILResponseDecoder mRawDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseRaw(p);
+        }
+    };
+
+    protected final RILResponseDecoder mGetPreferredNetworkTypeDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseGetPreferredNetworkType(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCellListDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCellList(p);
+        }
+    };
+
+    protected final RILResponseDecoder mGmsBroadcastConfigDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseGmsBroadcastConfig(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCdmaBroadcastConfigDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaBroadcastConfig(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCellInfoListDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCellInfoList(p);
+        }
+    };
+
+    protected final RILResponseDecoder mHardwareConfigDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseHardwareConfig(p);
+        }
+    };
+
+    protected final RILResponseDecoder mIccIoBase64Decoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseICC_IOBase64(p);
+        }
+    };
+
+    protected final RILResponseDecoder mRadioCapabilityDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseRadioCapability(p);
+        }
+    };
+
+    protected final RILResponseDecoder mLceStatusDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseLceStatus(p);
+        }
+    };
+
+    protected final RILResponseDecoder mLceDataDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseLceData(p);
+        }
+    };
+
+    protected final RILResponseDecoder mActivityDataDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseActivityData(p);
+        }
+    };
+
+    protected final RILResponseDecoder mSuppServiceNotificationDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSuppServiceNotification(p);
+        }
+    };
+
+    protected final RILResponseDecoder mSimRefreshDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSimRefresh(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCallRingDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCallRing(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCdmaSmsDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaSms(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCdmaCallWaitingDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaCallWaiting(p);
+        }
+    };
+
+    protected final RILResponseDecoder mCdmaInformationRecordDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaInformationRecord(p);
+        }
+    };
+
+    protected final RILResponseDecoder mSsDataDecoder = new RILResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSsData(p);
+        }
+    };
+
+    /**
+     * Fills mSolicitedDecoders and mUnsolicitedDecoders. Called once from the
+     * constructor, before RILReceiver starts. Subclasses add or replace decoders
+     * for their own codes by overriding this and calling through to super; since
+     * their fields are not initialized yet, they should create the decoders here.
+     */
+    protected void registerResponseDecoders() {
+        mSolicitedDecoders.register(RIL_REQUEST_GET_SIM_STATUS, mIccCardStatusDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PIN, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PUK, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PIN2, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PUK2, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CHANGE_SIM_PIN, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CHANGE_SIM_PIN2, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_CURRENT_CALLS, mCallListDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DIAL, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_IMSI, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_HANGUP, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND,
+                new RILResponseDecoder() {
+            @Override
+            public Object decode(Parcel p) {
+                if (mTestingEmergencyCall.getAndSet(false)) {
+                    if (mEmergencyCallbackModeRegistrant != null) {
+                        riljLog("testing emergency call, notify ECM Registrants");
+                        mEmergencyCallbackModeRegistrant.notifyRegistrant();
+                    }
+                }
+                return responseVoid(p);
+            }
+        });
+        mSolicitedDecoders.register(RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CONFERENCE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_UDUB, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_LAST_CALL_FAIL_CAUSE, mFailCauseDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIGNAL_STRENGTH, mSignalStrengthDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_VOICE_REGISTRATION_STATE, mStringsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DATA_REGISTRATION_STATE, mStringsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_OPERATOR, mStringsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_RADIO_POWER, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DTMF, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SEND_SMS, mSmsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SEND_SMS_EXPECT_MORE, mSmsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SETUP_DATA_CALL, mSetupDataCallDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIM_IO, mIccIoDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SEND_USSD, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CANCEL_USSD, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_CLIR, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_CLIR, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_CALL_FORWARD_STATUS, mCallForwardDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_CALL_FORWARD, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_CALL_WAITING, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_CALL_WAITING, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SMS_ACKNOWLEDGE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_IMEI, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_IMEISV, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ANSWER, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DEACTIVATE_DATA_CALL, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_FACILITY_LOCK, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_FACILITY_LOCK, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CHANGE_BARRING_PASSWORD, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_AVAILABLE_NETWORKS,
+                mOperatorInfosDecoder, true);
+        mSolicitedDecoders.register(RIL_REQUEST_DTMF_START, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DTMF_STOP, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_BASEBAND_VERSION, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SEPARATE_CONNECTION, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_MUTE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_MUTE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_CLIP, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DATA_CALL_LIST, mDataCallListDecoder, true);
+        mSolicitedDecoders.register(RIL_REQUEST_RESET_RADIO, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_OEM_HOOK_RAW, mRawDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_OEM_HOOK_STRINGS, mStringsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SCREEN_STATE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_WRITE_SMS_TO_SIM, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DELETE_SMS_ON_SIM, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_BAND_MODE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_STK_GET_PROFILE, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_STK_SET_PROFILE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM,
+                mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_EXPLICIT_CALL_TRANSFER, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE,
+                mGetPreferredNetworkTypeDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_NEIGHBORING_CELL_IDS, mCellListDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_LOCATION_UPDATES, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_TTY_MODE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_QUERY_TTY_MODE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE,
+                mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE,
+                mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_FLASH, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_BURST_DTMF, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_SEND_SMS, mSmsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GSM_GET_BROADCAST_CONFIG,
+                mGmsBroadcastConfigDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GSM_SET_BROADCAST_CONFIG, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GSM_BROADCAST_ACTIVATION, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG,
+                mCdmaBroadcastConfigDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_BROADCAST_ACTIVATION, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_SUBSCRIPTION, mStringsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_DEVICE_IDENTITY, mStringsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_SMSC_ADDRESS, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_SMSC_ADDRESS, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_REPORT_SMS_MEMORY_STATUS, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ISIM_AUTHENTICATION, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU,
+                mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS, mIccIoDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_VOICE_RADIO_TECH, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_CELL_INFO_LIST, mCellInfoListDecoder, true);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_INITIAL_ATTACH_APN, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_DATA_PROFILE, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_IMS_REGISTRATION_STATE, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_IMS_SEND_SMS, mSmsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC, mIccIoDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIM_OPEN_CHANNEL, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_CAF_SIM_OPEN_CHANNEL_WITH_P2, mIntsDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIM_CLOSE_CHANNEL, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL, mIccIoDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIM_GET_ATR, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_NV_READ_ITEM, mStringDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_NV_WRITE_ITEM, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_NV_WRITE_CDMA_PRL, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_NV_RESET_CONFIG, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_UICC_SUBSCRIPTION, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_ALLOW_DATA, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_HARDWARE_CONFIG, mHardwareConfigDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SIM_AUTHENTICATION, mIccIoBase64Decoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SHUTDOWN, mVoidDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_RADIO_CAPABILITY, mRadioCapabilityDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_RADIO_CAPABILITY, mRadioCapabilityDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_START_LCE, mLceStatusDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_STOP_LCE, mLceStatusDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_PULL_LCEDATA, mLceDataDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_GET_ACTIVITY_INFO, mActivityDataDecoder);
+        mSolicitedDecoders.register(RIL_REQUEST_SET_MAX_TRANSMIT_POWER, mVoidDecoder);
+
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_NEW_SMS, mStringDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT, mStringDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_ON_USSD, mStringsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_NITZ_TIME_RECEIVED, mStringDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_SIGNAL_STRENGTH, mSignalStrengthDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_DATA_CALL_LIST_CHANGED, mDataCallListDecoder, true);
+        mUnsolicitedDecoders.register(RIL_UNSOL_SUPP_SVC_NOTIFICATION,
+                mSuppServiceNotificationDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_STK_SESSION_END, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_STK_PROACTIVE_COMMAND, mStringDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_STK_EVENT_NOTIFY, mStringDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_STK_CALL_SETUP, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_SIM_SMS_STORAGE_FULL, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_SIM_REFRESH, mSimRefreshDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_CALL_RING, mCallRingDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESTRICTED_STATE_CHANGED, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_CDMA_NEW_SMS, mCdmaSmsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS, mRawDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_CDMA_CALL_WAITING, mCdmaCallWaitingDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_CDMA_OTA_PROVISION_STATUS, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_CDMA_INFO_REC, mCdmaInformationRecordDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_OEM_HOOK_RAW, mRawDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RINGBACK_TONE, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESEND_INCALL_MUTE, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOl_CDMA_PRL_CHANGED, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RIL_CONNECTED, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_VOICE_RADIO_TECH_CHANGED, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_CELL_INFO_LIST, mCellInfoListDecoder, true);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED, mVoidDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_SRVCC_STATE_NOTIFY, mIntsDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_HARDWARE_CONFIG_CHANGED, mHardwareConfigDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_RADIO_CAPABILITY, mRadioCapabilityDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_ON_SS, mSsDataDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_STK_CC_ALPHA_NOTIFY, mStringDecoder);
+        mUnsolicitedDecoders.register(RIL_UNSOL_LCEDATA_RECV, mLceDataDecoder);
+    }
+
+    protected void
+    send(RILRequest rr) {
+        Message msg;
+
+        if (mSocket == null) {
+            rr.onError(RADIO_NOT_AVAILABLE, null);
+            rr.release();
+            return;
+        }
+
+        rr.mSendTimeNanos = SystemClock.elapsedRealtimeNanos();
+        int timeout = rr.mTimeout;
+        if (timeout <= 0) {
+            synchronized (mRequestTimeouts) {
+                timeout = mRequestTimeouts.get(rr.mRequest, mDefaultRequestTimeout);
+            }
+        }
+        if (timeout > 0) {
+            rr.mDeadline = SystemClock.elapsedRealtime() + timeout;
+        }
+        mEventLog.log(RILEventLog.TYPE_REQUEST, rr.mRequest, rr.mSerial, 0);
+
+        acquireWakeLock();
+
+        if (mBatchedSend) {
+            mPendingSends.add(rr);
+            if (mSendBatchScheduled.compareAndSet(false, true)) {
+                mSender.sendEmptyMessage(EVENT_SEND_BATCH);
+            }
+            return;
+        }
+
+        msg = mSender.obtainMessage(EVENT_SEND, rr);
+
+        msg.sendToTarget();
+    }
+
+    protected void
+    processResponse (Parcel p) {
+        int type;
+
+        type = p.readInt();
+
+        if (type == RESPONSE_UNSOLICITED) {
+            processUnsolicited (p);
         } else if (type == RESPONSE_SOLICITED) {
             RILRequest rr = processSolicited (p);
             if (rr != null) {
@@ -2627,38 +3577,85 @@ public class RIL extends BaseCommands implements CommandsInterface {
      */
     protected void clearRequestList(int error, boolean loggable) {
         RILRequest rr;
-        synchronized (mRequestList) {
-            int count = mRequestList.size();
+        ArrayList<RILRequest> requests = new ArrayList<RILRequest>();
+        mRequestList.removeAll(requests);
+        for (int i = 0, count = requests.size(); i < count; i++) {
+            onRequestRemoved(requests.get(i));
+        }
+
+        int count = requests.size();
+        if (RILJ_LOGD && loggable) {
+            Rlog.d(RILJ_LOG_TAG, "clearRequestList " +
+                    " mWakeLockCount=" + mWakeLockCount +
+                    " mRequestList=" + count);
+        }
+
+        for (int i = 0; i < count ; i++) {
+            rr = requests.get(i);
             if (RILJ_LOGD && loggable) {
-                Rlog.d(RILJ_LOG_TAG, "clearRequestList " +
-                        " mWakeLockCount=" + mWakeLockCount +
-                        " mRequestList=" + count);
+                Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] " +
+                        requestToString(rr.mRequest));
             }
+            rr.onError(error, null);
+            rr.release();
+            decrementWakeLock();
+        }
+    }
 
-            for (int i = 0; i < count ; i++) {
-                rr = mRequestList.valueAt(i);
-                if (RILJ_LOGD && loggable) {
-                    Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] " +
-                            requestToString(rr.mRequest));
-                }
-                rr.onError(error, null);
-                rr.release();
-                decrementWakeLock();
-            }
-            mRequestList.clear();
+    /**
+     * Adds a request that has been sent to rild and is waiting for a response.
+     */
+    protected void addRequestToList(RILRequest rr) {
+        if (rr.mDeadline != 0) {
+            mLiveDeadlines.incrementAndGet();
         }
+        mRequestList.put(rr);
+    }
+
+    /**
+     * Returns the pending request with the given serial, or null.
+     */
+    protected RILRequest findRequestFromList(int serial) {
+        return mRequestList.get(serial);
     }
 
     protected RILRequest findAndRemoveRequestFromList(int serial) {
-        RILRequest rr = null;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-            if (rr != null) {
-                mRequestList.remove(serial);
+        RILRequest rr = mRequestList.remove(serial);
+        if (rr != null) {
+            onRequestRemoved(rr);
+        }
+        return rr;
+    }
+
+    /**
+     * Must be called for every request taken out of mRequestList, before it is
+     * released.
+     */
+    private void onRequestRemoved(RILRequest rr) {
+        if (rr.mDeadline != 0) {
+            mLiveDeadlines.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void setRequestTimeout(int rilRequest, int timeoutMillis) {
+        synchronized (mRequestTimeouts) {
+            if (timeoutMillis > 0) {
+                mRequestTimeouts.put(rilRequest, timeoutMillis);
+            } else {
+                mRequestTimeouts.delete(rilRequest);
             }
         }
+    }
 
-        return rr;
+    @Override
+    public void cancelRequest(Message result) {
+        if (result == null) {
+            return;
+        }
+        // Runs on RILSender after any EVENT_SEND already queued for this
+        // request, so the request is in mRequestList by then.
+        mSender.obtainMessage(EVENT_CANCEL, result).sendToTarget();
     }
 
     protected RILRequest
@@ -2679,180 +3676,89 @@ public class RIL extends BaseCommands implements CommandsInterface {
             return null;
         }
 
+        mLatencyStats.record(rr.mRequest, SystemClock.elapsedRealtimeNanos() - rr.mSendTimeNanos);
+        mEventLog.log(RILEventLog.TYPE_RESPONSE, rr.mRequest, serial, error);
+
         Object ret = null;
 
         if (error == 0 || p.dataAvail() > 0) {
             // either command succeeds or command fails but with data payload
-            try {switch (rr.mRequest) {
-            /*
- cat libs/telephony/ril_commands.h \
- | egrep "^ *{RIL_" \
- | sed -re 's/\{([^,]+),[^,]+,([^}]+).+/case \1: ret = \2(p); break;/'
-             */
-            case RIL_REQUEST_GET_SIM_STATUS: ret =  responseIccCardStatus(p); break;
-            case RIL_REQUEST_ENTER_SIM_PIN: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PUK: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PIN2: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PUK2: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_SIM_PIN: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_SIM_PIN2: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION: ret =  responseInts(p); break;
-            case RIL_REQUEST_GET_CURRENT_CALLS: ret =  responseCallList(p); break;
-            case RIL_REQUEST_DIAL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_IMSI: ret =  responseString(p); break;
-            case RIL_REQUEST_HANGUP: ret =  responseVoid(p); break;
-            case RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND: ret =  responseVoid(p); break;
-            case RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND: {
-                if (mTestingEmergencyCall.getAndSet(false)) {
-                    if (mEmergencyCallbackModeRegistrant != null) {
-                        riljLog("testing emergency call, notify ECM Registrants");
-                        mEmergencyCallbackModeRegistrant.notifyRegistrant();
-                    }
-                }
-                ret =  responseVoid(p);
-                break;
+            if (mDecoderPool != null && mSolicitedDecoders.isHeavy(rr.mRequest)) {
+                // The worker completes and releases the request.
+                decodeSolicitedLater(rr, error, p);
+                return null;
+            }
+            try {
+                ret = decodeSolicited(rr, p);
+            } catch (Throwable tr) {
+                onSolicitedDecodeError(rr, tr);
+                return rr;
             }
-            case RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CONFERENCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_UDUB: ret =  responseVoid(p); break;
-            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE: ret =  responseFailCause(p); break;
-            case RIL_REQUEST_SIGNAL_STRENGTH: ret =  responseSignalStrength(p); break;
-            case RIL_REQUEST_VOICE_REGISTRATION_STATE: ret =  responseStrings(p); break;
-            case RIL_REQUEST_DATA_REGISTRATION_STATE: ret =  responseStrings(p); break;
-            case RIL_REQUEST_OPERATOR: ret =  responseStrings(p); break;
-            case RIL_REQUEST_RADIO_POWER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DTMF: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SEND_SMS_EXPECT_MORE: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SETUP_DATA_CALL: ret =  responseSetupDataCall(p); break;
-            case RIL_REQUEST_SIM_IO: ret =  responseICC_IO(p); break;
-            case RIL_REQUEST_SEND_USSD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CANCEL_USSD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_CLIR: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_CLIR: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_CALL_FORWARD_STATUS: ret =  responseCallForward(p); break;
-            case RIL_REQUEST_SET_CALL_FORWARD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_CALL_WAITING: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_CALL_WAITING: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SMS_ACKNOWLEDGE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_IMEI: ret =  responseString(p); break;
-            case RIL_REQUEST_GET_IMEISV: ret =  responseString(p); break;
-            case RIL_REQUEST_ANSWER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DEACTIVATE_DATA_CALL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_FACILITY_LOCK: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_FACILITY_LOCK: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_BARRING_PASSWORD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_AVAILABLE_NETWORKS : ret =  responseOperatorInfos(p); break;
-            case RIL_REQUEST_DTMF_START: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DTMF_STOP: ret =  responseVoid(p); break;
-            case RIL_REQUEST_BASEBAND_VERSION: ret =  responseString(p); break;
-            case RIL_REQUEST_SEPARATE_CONNECTION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_MUTE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_MUTE: ret =  responseInts(p); break;
-            case RIL_REQUEST_QUERY_CLIP: ret =  responseInts(p); break;
-            case RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE: ret =  responseInts(p); break;
-            case RIL_REQUEST_DATA_CALL_LIST: ret =  responseDataCallList(p); break;
-            case RIL_REQUEST_RESET_RADIO: ret =  responseVoid(p); break;
-            case RIL_REQUEST_OEM_HOOK_RAW: ret =  responseRaw(p); break;
-            case RIL_REQUEST_OEM_HOOK_STRINGS: ret =  responseStrings(p); break;
-            case RIL_REQUEST_SCREEN_STATE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_WRITE_SMS_TO_SIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_DELETE_SMS_ON_SIM: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_BAND_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_STK_GET_PROFILE: ret =  responseString(p); break;
-            case RIL_REQUEST_STK_SET_PROFILE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND: ret =  responseString(p); break;
-            case RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_EXPLICIT_CALL_TRANSFER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE: ret =  responseGetPreferredNetworkType(p); break;
-            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS: ret = responseCellList(p); break;
-            case RIL_REQUEST_SET_LOCATION_UPDATES: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_TTY_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_TTY_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_FLASH: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_BURST_DTMF: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GSM_GET_BROADCAST_CONFIG: ret =  responseGmsBroadcastConfig(p); break;
-            case RIL_REQUEST_GSM_SET_BROADCAST_CONFIG: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GSM_BROADCAST_ACTIVATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG: ret =  responseCdmaBroadcastConfig(p); break;
-            case RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_BROADCAST_ACTIVATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SUBSCRIPTION: ret =  responseStrings(p); break;
-            case RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DEVICE_IDENTITY: ret =  responseStrings(p); break;
-            case RIL_REQUEST_GET_SMSC_ADDRESS: ret = responseString(p); break;
-            case RIL_REQUEST_SET_SMSC_ADDRESS: ret = responseVoid(p); break;
-            case RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE: ret = responseVoid(p); break;
-            case RIL_REQUEST_REPORT_SMS_MEMORY_STATUS: ret = responseVoid(p); break;
-            case RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING: ret = responseVoid(p); break;
-            case RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE: ret =  responseInts(p); break;
-            case RIL_REQUEST_ISIM_AUTHENTICATION: ret =  responseString(p); break;
-            case RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU: ret = responseVoid(p); break;
-            case RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS: ret = responseICC_IO(p); break;
-            case RIL_REQUEST_VOICE_RADIO_TECH: ret = responseInts(p); break;
-            case RIL_REQUEST_GET_CELL_INFO_LIST: ret = responseCellInfoList(p); break;
-            case RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_INITIAL_ATTACH_APN: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_DATA_PROFILE: ret = responseVoid(p); break;
-            case RIL_REQUEST_IMS_REGISTRATION_STATE: ret = responseInts(p); break;
-            case RIL_REQUEST_IMS_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC: ret =  responseICC_IO(p); break;
-            case RIL_REQUEST_SIM_OPEN_CHANNEL: ret  = responseInts(p); break;
-            case RIL_REQUEST_CAF_SIM_OPEN_CHANNEL_WITH_P2: ret = responseInts(p); break;
-            case RIL_REQUEST_SIM_CLOSE_CHANNEL: ret  = responseVoid(p); break;
-            case RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL: ret = responseICC_IO(p); break;
-            case RIL_REQUEST_SIM_GET_ATR: ret = responseString(p); break;
-            case RIL_REQUEST_NV_READ_ITEM: ret = responseString(p); break;
-            case RIL_REQUEST_NV_WRITE_ITEM: ret = responseVoid(p); break;
-            case RIL_REQUEST_NV_WRITE_CDMA_PRL: ret = responseVoid(p); break;
-            case RIL_REQUEST_NV_RESET_CONFIG: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_UICC_SUBSCRIPTION: ret = responseVoid(p); break;
-            case RIL_REQUEST_ALLOW_DATA: ret = responseVoid(p); break;
-            case RIL_REQUEST_GET_HARDWARE_CONFIG: ret = responseHardwareConfig(p); break;
-            case RIL_REQUEST_SIM_AUTHENTICATION: ret =  responseICC_IOBase64(p); break;
-            case RIL_REQUEST_SHUTDOWN: ret = responseVoid(p); break;
-            case RIL_REQUEST_GET_RADIO_CAPABILITY: ret =  responseRadioCapability(p); break;
-            case RIL_REQUEST_SET_RADIO_CAPABILITY: ret =  responseRadioCapability(p); break;
-            case RIL_REQUEST_START_LCE: ret = responseLceStatus(p); break;
-            case RIL_REQUEST_STOP_LCE: ret = responseLceStatus(p); break;
-            case RIL_REQUEST_PULL_LCEDATA: ret = responseLceData(p); break;
-            case RIL_REQUEST_GET_ACTIVITY_INFO: ret = responseActivityData(p); break;
-            case RIL_REQUEST_SET_MAX_TRANSMIT_POWER: ret = responseVoid(p); break;
+        }
 
-            default:
-                throw new RuntimeException("Unrecognized solicited response: " + rr.mRequest);
-            //break;
-            }} catch (Throwable tr) {
-                // Exceptions here usually mean invalid RIL responses
+        completeSolicited(rr, error, ret);
+        return rr;
+    }
+
+    private Object decodeSolicited(RILRequest rr, Parcel p) {
+        RILResponseDecoder decoder = mSolicitedDecoders.get(rr.mRequest);
+        if (decoder == null) {
+            throw new RuntimeException("Unrecognized solicited response: " + rr.mRequest);
+        }
+        return decoder.decode(p);
+    }
+
+    private void onSolicitedDecodeError(RILRequest rr, Throwable tr) {
+        // Exceptions here usually mean invalid RIL responses
+
+        Rlog.w(RILJ_LOG_TAG, rr.serialString() + "< "
+                + requestToString(rr.mRequest)
+                + " exception, possible invalid RIL response", tr);
 
-                Rlog.w(RILJ_LOG_TAG, rr.serialString() + "< "
-                        + requestToString(rr.mRequest)
-                        + " exception, possible invalid RIL response", tr);
+        if (rr.mResult != null) {
+            AsyncResult.forMessage(rr.mResult, null, tr);
+            rr.mResult.sendToTarget();
+        }
+    }
 
-                if (rr.mResult != null) {
-                    AsyncResult.forMessage(rr.mResult, null, tr);
-                    rr.mResult.sendToTarget();
+    /**
+     * Decodes and completes the request on a decoder worker, after any earlier
+     * response to the same request type.
+     */
+    private void decodeSolicitedLater(final RILRequest rr, final int error, Parcel p) {
+        final Parcel payload = copyPayload(p);
+        mDecoderPool.execute(rr.mRequest, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object ret;
+                    try {
+                        ret = decodeSolicited(rr, payload);
+                    } catch (Throwable tr) {
+                        onSolicitedDecodeError(rr, tr);
+                        return;
+                    }
+                    completeSolicited(rr, error, ret);
+                } finally {
+                    payload.recycle();
+                    rr.release();
+                    decrementWakeLock();
                 }
-                return rr;
             }
-        }
+        });
+    }
 
+    /**
+     * Copies the unread part of a response, since RILReceiver reuses its Parcel.
+     */
+    private static Parcel copyPayload(Parcel p) {
+        Parcel copy = Parcel.obtain();
+        copy.appendFrom(p, p.dataPosition(), p.dataAvail());
+        copy.setDataPosition(0);
+        return copy;
+    }
+
+    private void completeSolicited(RILRequest rr, int error, Object ret) {
         if (rr.mRequest == RIL_REQUEST_SHUTDOWN) {
             // Set RADIO_STATE to RADIO_UNAVAILABLE to continue shutdown process
             // regardless of error code to continue shutdown procedure.
@@ -2916,7 +3822,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         }
         if (error == 0) {
 
-            if (RILJ_LOGD) riljLog(rr.serialString() + "< " + requestToString(rr.mRequest)
+            if (RILJ_LOGD && isTextLogged(rr.mRequest))
+                riljLog(rr.serialString() + "< " + requestToString(rr.mRequest)
                     + " " + retToString(rr.mRequest, ret));
 
             if (rr.mResult != null) {
@@ -2924,7 +3831,6 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 rr.mResult.sendToTarget();
             }
         }
-        return rr;
     }
 
     protected RadioCapability makeStaticRadioCapability() {
@@ -3030,67 +3936,74 @@ public class RIL extends BaseCommands implements CommandsInterface {
     protected void
     processUnsolicited (Parcel p) {
         int response;
-        Object ret;
 
         response = p.readInt();
+        mEventLog.log(RILEventLog.TYPE_UNSOL, response, 0, 0);
+
+        if (mUnsolDeferral.isDeferrable(response)) {
+            switch (mUnsolDeferral.hold(response, p)) {
+                case RILUnsolDeferral.HOLD:
+                    return;
+                case RILUnsolDeferral.HAND_OFF:
+                    // Queue behind the pending replay so it cannot deliver an
+                    // older response after this one.
+                    handOffUnsolicited(response, p);
+                    return;
+            }
+        }
+        processUnsolicitedResponse(response, p);
+    }
 
-        try {switch(response) {
-/*
- cat libs/telephony/ril_unsol_commands.h \
- | egrep "^ *{RIL_" \
- | sed -re 's/\{([^,]+),[^,]+,([^}]+).+/case \1: \2(rr, p); break;/'
-*/
+    private void handOffUnsolicited(final int response, Parcel p) {
+        final Parcel payload = copyPayload(p);
+        mSender.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processUnsolicitedResponse(response, payload);
+                } finally {
+                    payload.recycle();
+                    mUnsolDeferral.onHandOffDone();
+                }
+            }
+        });
+    }
 
-            case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_SMS: ret =  responseString(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT: ret =  responseString(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM: ret =  responseInts(p); break;
-            case RIL_UNSOL_ON_USSD: ret =  responseStrings(p); break;
-            case RIL_UNSOL_NITZ_TIME_RECEIVED: ret =  responseString(p); break;
-            case RIL_UNSOL_SIGNAL_STRENGTH: ret = responseSignalStrength(p); break;
-            case RIL_UNSOL_DATA_CALL_LIST_CHANGED: ret = responseDataCallList(p);break;
-            case RIL_UNSOL_SUPP_SVC_NOTIFICATION: ret = responseSuppServiceNotification(p); break;
-            case RIL_UNSOL_STK_SESSION_END: ret = responseVoid(p); break;
-            case RIL_UNSOL_STK_PROACTIVE_COMMAND: ret = responseString(p); break;
-            case RIL_UNSOL_STK_EVENT_NOTIFY: ret = responseString(p); break;
-            case RIL_UNSOL_STK_CALL_SETUP: ret = responseInts(p); break;
-            case RIL_UNSOL_SIM_SMS_STORAGE_FULL: ret =  responseVoid(p); break;
-            case RIL_UNSOL_SIM_REFRESH: ret =  responseSimRefresh(p); break;
-            case RIL_UNSOL_CALL_RING: ret =  responseCallRing(p); break;
-            case RIL_UNSOL_RESTRICTED_STATE_CHANGED: ret = responseInts(p); break;
-            case RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED:  ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_CDMA_NEW_SMS:  ret =  responseCdmaSms(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS:  ret =  responseRaw(p); break;
-            case RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL:  ret =  responseVoid(p); break;
-            case RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE: ret = responseVoid(p); break;
-            case RIL_UNSOL_CDMA_CALL_WAITING: ret = responseCdmaCallWaiting(p); break;
-            case RIL_UNSOL_CDMA_OTA_PROVISION_STATUS: ret = responseInts(p); break;
-            case RIL_UNSOL_CDMA_INFO_REC: ret = responseCdmaInformationRecord(p); break;
-            case RIL_UNSOL_OEM_HOOK_RAW: ret = responseRaw(p); break;
-            case RIL_UNSOL_RINGBACK_TONE: ret = responseInts(p); break;
-            case RIL_UNSOL_RESEND_INCALL_MUTE: ret = responseVoid(p); break;
-            case RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED: ret = responseInts(p); break;
-            case RIL_UNSOl_CDMA_PRL_CHANGED: ret = responseInts(p); break;
-            case RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE: ret = responseVoid(p); break;
-            case RIL_UNSOL_RIL_CONNECTED: ret = responseInts(p); break;
-            case RIL_UNSOL_VOICE_RADIO_TECH_CHANGED: ret =  responseInts(p); break;
-            case RIL_UNSOL_CELL_INFO_LIST: ret = responseCellInfoList(p); break;
-            case RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED: ret =  responseInts(p); break;
-            case RIL_UNSOL_SRVCC_STATE_NOTIFY: ret = responseInts(p); break;
-            case RIL_UNSOL_HARDWARE_CONFIG_CHANGED: ret = responseHardwareConfig(p); break;
-            case RIL_UNSOL_RADIO_CAPABILITY:
-                    ret = responseRadioCapability(p); break;
-            case RIL_UNSOL_ON_SS: ret =  responseSsData(p); break;
-            case RIL_UNSOL_STK_CC_ALPHA_NOTIFY: ret =  responseString(p); break;
-            case RIL_UNSOL_LCEDATA_RECV: ret = responseLceData(p); break;
+    /**
+     * Decodes and dispatches an unsolicited response.
+     *
+     * @param p parcel positioned just after the response code
+     */
+    protected void
+    processUnsolicitedResponse(final int response, Parcel p) {
+        if (mDecoderPool != null && mUnsolicitedDecoders.isHeavy(response)) {
+            final Parcel payload = copyPayload(p);
+            mDecoderPool.execute(response, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        dispatchUnsolicited(response, payload);
+                    } finally {
+                        payload.recycle();
+                    }
+                }
+            });
+            return;
+        }
+        dispatchUnsolicited(response, p);
+    }
 
-            default:
+    private void
+    dispatchUnsolicited(int response, Parcel p) {
+        Object ret;
+
+        try {
+            RILResponseDecoder decoder = mUnsolicitedDecoders.get(response);
+            if (decoder == null) {
                 throw new RuntimeException("Unrecognized unsol response: " + response);
-            //break; (implied)
-        }} catch (Throwable tr) {
+            }
+            ret = decoder.decode(p);
+        } catch (Throwable tr) {
             Rlog.e(RILJ_LOG_TAG, "Exception processing unsol response: " + response +
                 "Exception:" + tr.toString());
             return;
@@ -3119,8 +4032,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
             case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED:
                 if (RILJ_LOGD) unsljLog(response);
 
-                mVoiceNetworkStateRegistrants
-                    .notifyRegistrants(new AsyncResult(null, null, null));
+                dispatchCoalescedUnsolicited(response, null);
             break;
             case RIL_UNSOL_RESPONSE_NEW_SMS: {
                 if (RILJ_LOGD) unsljLog(response);
@@ -3194,14 +4106,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 if (ignoreNitz) {
                     if (RILJ_LOGD) riljLog("ignoring UNSOL_NITZ_TIME_RECEIVED");
                 } else {
-                    if (mNITZTimeRegistrant != null) {
-
-                        mNITZTimeRegistrant
-                            .notifyRegistrant(new AsyncResult (null, result, null));
-                    }
-                    // in case NITZ time registrant isn't registered yet, or a new registrant
-                    // registers later
-                    mLastNITZTimeInfo = result;
+                    dispatchCoalescedUnsolicited(response, result);
                 }
             break;
 
@@ -3210,10 +4115,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 // frequently
                 if (RILJ_LOGV) unsljLogvRet(response, ret);
 
-                if (mSignalStrengthRegistrant != null) {
-                    mSignalStrengthRegistrant.notifyRegistrant(
-                                        new AsyncResult (null, ret, null));
-                }
+                dispatchCoalescedUnsolicited(response, ret);
             break;
             case RIL_UNSOL_DATA_CALL_LIST_CHANGED:
                 if (RILJ_LOGD) unsljLogRet(response, ret);
@@ -3459,10 +4361,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
             case RIL_UNSOL_CELL_INFO_LIST: {
                 if (RILJ_LOGD) unsljLogRet(response, ret);
 
-                if (mRilCellInfoListRegistrants != null) {
-                    mRilCellInfoListRegistrants.notifyRegistrants(
-                                        new AsyncResult (null, ret, null));
-                }
+                dispatchCoalescedUnsolicited(response, ret);
                 break;
             }
             case RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED: {
@@ -4465,6 +5364,55 @@ public class RIL extends BaseCommands implements CommandsInterface {
         }
     }
 
+    /**
+     * Notifies registrants of a state-only unsolicited response, through the
+     * coalescer when a coalescing window is configured.
+     */
+    private void dispatchCoalescedUnsolicited(int response, Object ret) {
+        if (mUnsolCoalescer.isCoalescable(response)) {
+            mUnsolCoalescer.submit(response, ret);
+        } else {
+            notifyCoalescedUnsolicited(response, ret);
+        }
+    }
+
+    /**
+     * Called on the receiver thread, or on the sender thread when a held back
+     * response is released at the end of its coalescing window.
+     */
+    void notifyCoalescedUnsolicited(int response, Object ret) {
+        switch (response) {
+            case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED:
+                mVoiceNetworkStateRegistrants
+                    .notifyRegistrants(new AsyncResult(null, null, null));
+                break;
+            case RIL_UNSOL_NITZ_TIME_RECEIVED: {
+                // in case NITZ time registrant isn't registered yet, or a new registrant
+                // registers later. Stored before the registrant is read, so one that
+                // registers concurrently gets the new value from one side or the other.
+                mLastNITZTimeInfo = ret;
+                Registrant registrant = mNITZTimeRegistrant;
+                if (registrant != null) {
+                    registrant
+                        .notifyRegistrant(new AsyncResult (null, ret, null));
+                }
+                break;
+            }
+            case RIL_UNSOL_SIGNAL_STRENGTH:
+                if (mSignalStrengthRegistrant != null) {
+                    mSignalStrengthRegistrant.notifyRegistrant(
+                                        new AsyncResult (null, ret, null));
+                }
+                break;
+            case RIL_UNSOL_CELL_INFO_LIST:
+                if (mRilCellInfoListRegistrants != null) {
+                    mRilCellInfoListRegistrants.notifyRegistrants(
+                                        new AsyncResult (null, ret, null));
+                }
+                break;
+        }
+    }
+
     static String
     responseToString(int request)
     {
@@ -4537,19 +5485,31 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 + (mInstanceId != null ? (" [SUB" + mInstanceId + "]") : ""));
     }
 
+    /**
+     * @return true if text logging is enabled for the category of this
+     * RIL_REQUEST_* or RIL_UNSOL_* code. Everything is still recorded in mEventLog.
+     */
+    protected static boolean isTextLogged(int code) {
+        return RILEventLog.isTextLogged(code);
+    }
+
     protected void unsljLog(int response) {
+        if (!isTextLogged(response)) return;
         riljLog("[UNSL]< " + responseToString(response));
     }
 
     protected void unsljLogMore(int response, String more) {
+        if (!isTextLogged(response)) return;
         riljLog("[UNSL]< " + responseToString(response) + " " + more);
     }
 
     protected void unsljLogRet(int response, Object ret) {
+        if (!isTextLogged(response)) return;
         riljLog("[UNSL]< " + responseToString(response) + " " + retToString(response, ret));
     }
 
     protected void unsljLogvRet(int response, Object ret) {
+        if (!isTextLogged(response)) return;
         riljLogv("[UNSL]< " + responseToString(response) + " " + retToString(response, ret));
     }
 
@@ -4599,7 +5559,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     getDeviceIdentity(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_DEVICE_IDENTITY, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4609,7 +5570,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     getCDMASubscription(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CDMA_SUBSCRIPTION, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4628,7 +5590,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4644,7 +5607,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(cdmaRoamingType);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + cdmaRoamingType);
 
         send(rr);
@@ -4661,7 +5625,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(cdmaSubscription);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + cdmaSubscription);
 
         send(rr);
@@ -4675,7 +5640,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4688,7 +5654,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_QUERY_TTY_MODE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4704,7 +5671,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(ttyMode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + ttyMode);
 
         send(rr);
@@ -4720,7 +5688,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeString(FeatureCode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + FeatureCode);
 
         send(rr);
@@ -4757,7 +5726,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
             rr.mParcel.writeInt(rilConfigs[i].isSelected() ? 1 : 0);
         }
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " with " + rilConfigs.length + " configs : ");
             for (int i = 0; i < rilConfigs.length; i++) {
@@ -4775,7 +5744,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(activate ? 0 :1);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4787,7 +5757,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void exitEmergencyCallbackMode(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4798,7 +5769,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeString(nonce);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4812,7 +5784,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(data);
         rr.mParcel.writeString(aid);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4824,7 +5797,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void getCellInfoList(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_CELL_INFO_LIST, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4840,7 +5814,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(rateInMillis);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4857,7 +5832,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(username);
         rr.mParcel.writeString(password);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ", apn:" + apn + ", protocol:" + protocol + ", authType:" + authType
                 + ", username:" + username + ", password:" + password);
 
@@ -4870,7 +5846,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SET_DATA_PROFILE, null);
         DataProfile.toParcel(rr.mParcel, dps);
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " with " + dps + " Data Profiles : ");
             for (int i = 0; i < dps.length; i++) {
@@ -4899,19 +5875,75 @@ public class RIL extends BaseCommands implements CommandsInterface {
         pw.println(" mReceiver=" + mReceiver);
         pw.println(" mWakeLock=" + mWakeLock);
         pw.println(" mWakeLockTimeout=" + mWakeLockTimeout);
-        synchronized (mRequestList) {
-            synchronized (mWakeLock) {
-                pw.println(" mWakeLockCount=" + mWakeLockCount);
-            }
-            int count = mRequestList.size();
-            pw.println(" mRequestList count=" + count);
-            for (int i = 0; i < count; i++) {
-                RILRequest rr = mRequestList.valueAt(i);
-                pw.println("  [" + rr.mSerial + "] " + requestToString(rr.mRequest));
-            }
+        synchronized (mWakeLock) {
+            pw.println(" mWakeLockCount=" + mWakeLockCount);
+            pw.println(" wakeLockAcquisitions=" + mWakeLockAcquisitions
+                    + " wakeLockHeldMillis=" + mWakeLockHeldMillis
+                    + " wakeLockHeldScreenOffMillis=" + mWakeLockHeldScreenOffMillis);
+        }
+        ArrayList<RILLatencyStats.InFlight> inFlight = getInFlightRequests();
+        pw.println(" mRequestList count=" + inFlight.size()
+                + " overflow=" + mRequestList.overflowSize()
+                + " mDefaultRequestTimeout=" + mDefaultRequestTimeout);
+        synchronized (mRequestTimeouts) {
+            pw.println(" mRequestTimeouts=" + mRequestTimeouts);
+        }
+        pw.println(" timerWheel=" + mSender.mTimerWheel.size()
+                + " liveDeadlines=" + mLiveDeadlines.get()
+                + " timedOut=" + mSender.mTimedOutCount
+                + " cancelled=" + mSender.mCancelledCount);
+        for (RILLatencyStats.InFlight request : inFlight) {
+            pw.println("  " + request);
         }
         pw.println(" mLastNITZTimeInfo=" + mLastNITZTimeInfo);
         pw.println(" mTestingEmergencyCall=" + mTestingEmergencyCall.get());
+        pw.println(" mBatchedSend=" + mBatchedSend + " mPendingSends=" + mPendingSends.size());
+        RILFrameWriter frameWriter = mSender.mFrameWriter;
+        if (frameWriter != null) {
+            frameWriter.dump(pw);
+        }
+        pw.println(" mBufferedReceive=" + mBufferedReceive);
+        if (mReceiver != null && mReceiver.mFrameReader != null) {
+            mReceiver.mFrameReader.dump(pw);
+        }
+        mReceiverStats.dump(pw);
+        mLatencyStats.dump(pw);
+        RILRequest.sPool.dump(pw);
+        mUnsolCoalescer.dump(pw);
+        mUnsolDeferral.dump(pw);
+        if (mDecoderPool != null) {
+            mDecoderPool.dump(pw);
+        }
+        mEventLog.dump(pw);
+    }
+
+    /**
+     * @return send-to-response latency histograms of all solicited requests
+     */
+    public RILLatencyStats getLatencyStats() {
+        return mLatencyStats;
+    }
+
+    /**
+     * @return every request still waiting for a response, oldest first
+     */
+    public ArrayList<RILLatencyStats.InFlight> getInFlightRequests() {
+        ArrayList<RILLatencyStats.InFlight> list = new ArrayList<RILLatencyStats.InFlight>();
+        ArrayList<RILRequest> requests = new ArrayList<RILRequest>();
+        mRequestList.snapshot(requests);
+        long now = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0, count = requests.size(); i < count; i++) {
+            RILRequest rr = requests.get(i);
+            list.add(new RILLatencyStats.InFlight(rr.mSerial, rr.mRequest,
+                    (now - rr.mSendTimeNanos) / 1000000));
+        }
+        Collections.sort(list, new Comparator<RILLatencyStats.InFlight>() {
+            @Override
+            public int compare(RILLatencyStats.InFlight a, RILLatencyStats.InFlight b) {
+                return a.ageMillis < b.ageMillis ? 1 : (a.ageMillis == b.ageMillis ? 0 : -1);
+            }
+        });
+        return list;
     }
 
     /**
@@ -4932,7 +5964,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SIM_OPEN_CHANNEL, response);
         rr.mParcel.writeString(AID);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -4944,7 +5976,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeByte(p2);
         rr.mParcel.writeString(AID);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -4959,7 +5991,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(channel);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -5010,7 +6042,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         int slotId = 0;
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(slotId);
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> iccGetAtr: "
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) riljLog(rr.serialString() + "> iccGetAtr: "
                 + requestToString(rr.mRequest) + " " + slotId);
 
         send(rr);
@@ -5041,7 +6073,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(p3);
         rr.mParcel.writeString(data);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -5053,7 +6085,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeInt(itemID);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + itemID);
 
         send(rr);
@@ -5066,7 +6099,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(itemID);
         rr.mParcel.writeString(itemValue);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + itemID + ": " + itemValue);
 
         send(rr);
@@ -5078,7 +6112,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeByteArray(preferredRoamingList);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " (" + preferredRoamingList.length + " bytes)");
 
         send(rr);
@@ -5091,7 +6126,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(resetType);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + resetType);
 
         send(rr);
@@ -5109,7 +6145,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(rc.getLogicalModemUuid());
         rr.mParcel.writeInt(rc.getStatus());
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + rc.toString());
         }
@@ -5122,7 +6158,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RIL_REQUEST_GET_RADIO_CAPABILITY, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOGD && isTextLogged(rr.mRequest))
+            riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -5135,7 +6172,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(reportIntervalMs);
         rr.mParcel.writeInt(pullMode ? 1: 0);  // PULL mode: 1; PUSH mode: 0;
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
 
@@ -5145,7 +6182,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void stopLceService(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_STOP_LCE, response);
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
@@ -5154,7 +6191,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void pullLceData(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_PULL_LCEDATA, response);
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
@@ -5165,7 +6202,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     */
     public void getModemActivityInfo(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_ACTIVITY_INFO, response);
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
@@ -5175,7 +6212,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public void setMaxTransmitPower(int state, Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SET_MAX_TRANSMIT_POWER, response);
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOGD && isTextLogged(rr.mRequest)) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest) + " state = " + state);
         }
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of threads that decode and dispatch expensive RIL responses off
+ * RILReceiver.
+ *
+ * Tasks are queued per key, the request or response code, and the tasks of one
+ * key run one at a time in submission order, so responses of the same type are
+ * still delivered in the order rild sent them. Different keys run in parallel.
+ *
+ * RIL has no teardown, so the threads are daemons that exit after
+ * {@link #KEEP_ALIVE_SECONDS} without work. A RIL instance that is replaced,
+ * e.g. on a multi-SIM switch, therefore does not leak its decoder threads.
+ *
+ * {@hide}
+ */
+class RILDecoderPool {
+    static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mThreads;
+
+    // Queued tasks per key; a key is present while one of its tasks is running.
+    // Guarded by itself.
+    private final SparseArray<ArrayDeque<Runnable>> mQueues =
+            new SparseArray<ArrayDeque<Runnable>>();
+
+    private volatile long mSubmitted;
+    private volatile int mMaxQueued;
+
+    RILDecoderPool(final String name, int threads) {
+        mThreads = threads;
+        mExecutor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name + "-" + mCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task after every task previously submitted with the same key.
+     */
+    void execute(final int key, Runnable task) {
+        boolean start;
+        synchronized (mQueues) {
+            mSubmitted++;
+            ArrayDeque<Runnable> queue = mQueues.get(key);
+            start = queue == null;
+            if (start) {
+                queue = new ArrayDeque<Runnable>();
+                mQueues.put(key, queue);
+            } else {
+                queue.add(task);
+                if (queue.size() > mMaxQueued) mMaxQueued = queue.size();
+            }
+        }
+        if (start) {
+            mExecutor.execute(new Drainer(key, task));
+        }
+    }
+
+    private class Drainer implements Runnable {
+        private final int mKey;
+        private Runnable mTask;
+
+        Drainer(int key, Runnable first) {
+            mKey = key;
+            mTask = first;
+        }
+
+        @Override
+        public void run() {
+            while (mTask != null) {
+                try {
+                    mTask.run();
+                } catch (RuntimeException e) {
+                    Rlog.e(RIL.RILJ_LOG_TAG, "Exception in decoder task for " + mKey, e);
+                }
+                synchronized (mQueues) {
+                    ArrayDeque<Runnable> queue = mQueues.get(mKey);
+                    mTask = queue.poll();
+                    if (mTask == null) {
+                        mQueues.remove(mKey);
+                    }
+                }
+            }
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        int active;
+        synchronized (mQueues) {
+            active = mQueues.size();
+        }
+        pw.println(" RILDecoderPool: threads=" + mThreads
+                + " live=" + mExecutor.getPoolSize() + " submitted=" + mSubmitted
+                + " activeKeys=" + active + " maxQueued=" + mMaxQueued);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.util.SparseArray;
+
+/**
+ * Response decoders indexed by RIL_REQUEST_* or RIL_UNSOL_* code.
+ *
+ * Codes from the base up to base + capacity live in a plain array so a lookup
+ * is a bounds check and a load; vendor codes outside that range fall back to a
+ * SparseArray. Decoders are registered while RIL is constructed and only read
+ * afterwards, from RILReceiver and the decoder workers.
+ *
+ * {@hide}
+ */
+public class RILDecoderTable {
+    private final int mBase;
+    private final RILResponseDecoder[] mDecoders;
+    private final boolean[] mHeavy;
+    private final SparseArray<RILResponseDecoder> mOverflow =
+            new SparseArray<RILResponseDecoder>();
+    private final SparseArray<Boolean> mOverflowHeavy = new SparseArray<Boolean>();
+
+    /**
+     * @param base lowest code expected
+     * @param capacity number of codes above base kept in the array
+     */
+    public RILDecoderTable(int base, int capacity) {
+        mBase = base;
+        mDecoders = new RILResponseDecoder[capacity];
+        mHeavy = new boolean[capacity];
+    }
+
+    /**
+     * Adds or replaces the decoder for a code.
+     */
+    public void register(int code, RILResponseDecoder decoder) {
+        register(code, decoder, false);
+    }
+
+    /**
+     * Adds or replaces the decoder for a code.
+     *
+     * @param heavy true if decoding is expensive enough to be worth running on
+     * a decoder worker, when RIL has them
+     */
+    public void register(int code, RILResponseDecoder decoder, boolean heavy) {
+        int index = code - mBase;
+        if (index >= 0 && index < mDecoders.length) {
+            mDecoders[index] = decoder;
+            mHeavy[index] = heavy;
+        } else {
+            mOverflow.put(code, decoder);
+            mOverflowHeavy.put(code, heavy);
+        }
+    }
+
+    /**
+     * @return the decoder for the code, or null if there is none
+     */
+    public RILResponseDecoder get(int code) {
+        int index = code - mBase;
+        if (index >= 0 && index < mDecoders.length) {
+            return mDecoders[index];
+        }
+        return mOverflow.get(code);
+    }
+
+    public boolean isHeavy(int code) {
+        int index = code - mBase;
+        if (index >= 0 && index < mHeavy.length) {
+            return mHeavy[index];
+        }
+        return mOverflowHeavy.get(code, false);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import com.android.internal.telephony.CommandsInterface.RadioState;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size binary log of RIL traffic.
+ *
+ * Every request, response, unsolicited response and radio state change is
+ * recorded as a handful of primitives in preallocated arrays; nothing is
+ * formatted until dump() runs for a bugreport. Writers never block: each
+ * claims a slot with one atomic increment and publishes it with a per-slot
+ * sequence number that dump() uses to skip records that were being
+ * overwritten while it read them.
+ *
+ * The class also owns the per-category switch for RIL's text logging, so the
+ * chatty categories can be silenced at runtime while still being recorded here.
+ *
+ * {@hide}
+ */
+public class RILEventLog {
+    static final int TYPE_REQUEST = 0;
+    static final int TYPE_RESPONSE = 1;
+    static final int TYPE_UNSOL = 2;
+    static final int TYPE_TIMEOUT = 3;
+    static final int TYPE_RADIO_STATE = 4;
+
+    /** Categories for {@link #setTextLogCategories(int)} */
+    public static final int CATEGORY_CALL = 1 << 0;
+    public static final int CATEGORY_SMS = 1 << 1;
+    public static final int CATEGORY_DATA = 1 << 2;
+    public static final int CATEGORY_NETWORK = 1 << 3;
+    public static final int CATEGORY_SIM = 1 << 4;
+    public static final int CATEGORY_OTHER = 1 << 5;
+    public static final int CATEGORY_ALL = (1 << 6) - 1;
+
+    static final String PROPERTY_TEXT_LOG_CATEGORIES = "persist.radio.ril_log_categories";
+
+    private static final int DEFAULT_CAPACITY = 2048;
+    private static final String[] TYPE_NAMES =
+            { ">", "<", "[UNSL]<", "timeout", "radioState" };
+
+    private static volatile int sTextLogCategories = CATEGORY_ALL;
+
+    private final int mMask;
+    private final long[] mTimes;
+    private final int[] mTypes;
+    private final int[] mCodes;
+    private final int[] mSerials;
+    private final int[] mErrors;
+    // Sequence number of the record in each slot, -1 while it is being written
+    private final AtomicLongArray mSeqs;
+    private final AtomicLong mNext = new AtomicLong();
+
+    RILEventLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of records kept; rounded up to a power of two
+     */
+    RILEventLog(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = n - 1;
+        mTimes = new long[n];
+        mTypes = new int[n];
+        mCodes = new int[n];
+        mSerials = new int[n];
+        mErrors = new int[n];
+        mSeqs = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) {
+            mSeqs.set(i, -1);
+        }
+    }
+
+    /**
+     * Records one event.
+     *
+     * @param type one of the TYPE_ constants
+     * @param code RIL_REQUEST_* or RIL_UNSOL_*, or the new RadioState ordinal
+     * @param serial request serial, or 0 for unsolicited responses
+     * @param error RIL_Errno of a response, the old RadioState ordinal of a
+     * radio state change, 0 otherwise
+     */
+    void log(int type, int code, int serial, int error) {
+        long seq = mNext.getAndIncrement();
+        int i = (int) (seq & mMask);
+        // getAndSet rather than set keeps the field writes below from being
+        // reordered ahead of the slot being marked as in progress.
+        mSeqs.getAndSet(i, -1);
+        mTimes[i] = System.currentTimeMillis();
+        mTypes[i] = type;
+        mCodes[i] = code;
+        mSerials[i] = serial;
+        mErrors[i] = error;
+        mSeqs.set(i, seq);
+    }
+
+    /**
+     * Sets which categories RIL still writes to logcat. Events of all categories
+     * are always kept in the binary log.
+     *
+     * @param categories bitmask of CATEGORY_ constants
+     */
+    public static void setTextLogCategories(int categories) {
+        sTextLogCategories = categories;
+    }
+
+    public static int getTextLogCategories() {
+        return sTextLogCategories;
+    }
+
+    /**
+     * @return true if text logging is enabled for the request or response code
+     */
+    static boolean isTextLogged(int code) {
+        int categories = sTextLogCategories;
+        return categories == CATEGORY_ALL || (categories & categoryOf(code)) != 0;
+    }
+
+    static int categoryOf(int code) {
+        switch (code) {
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+            case RIL_REQUEST_DIAL:
+            case RIL_REQUEST_HANGUP:
+            case RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND:
+            case RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND:
+            case RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE:
+            case RIL_REQUEST_CONFERENCE:
+            case RIL_REQUEST_UDUB:
+            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE:
+            case RIL_REQUEST_DTMF:
+            case RIL_REQUEST_DTMF_START:
+            case RIL_REQUEST_DTMF_STOP:
+            case RIL_REQUEST_ANSWER:
+            case RIL_REQUEST_SEPARATE_CONNECTION:
+            case RIL_REQUEST_SET_MUTE:
+            case RIL_REQUEST_GET_MUTE:
+            case RIL_REQUEST_EXPLICIT_CALL_TRANSFER:
+            case RIL_REQUEST_CDMA_FLASH:
+            case RIL_REQUEST_CDMA_BURST_DTMF:
+            case RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED:
+            case RIL_UNSOL_CALL_RING:
+            case RIL_UNSOL_RINGBACK_TONE:
+            case RIL_UNSOL_CDMA_CALL_WAITING:
+            case RIL_UNSOL_SRVCC_STATE_NOTIFY:
+                return CATEGORY_CALL;
+
+            case RIL_REQUEST_SEND_SMS:
+            case RIL_REQUEST_SEND_SMS_EXPECT_MORE:
+            case RIL_REQUEST_SMS_ACKNOWLEDGE:
+            case RIL_REQUEST_WRITE_SMS_TO_SIM:
+            case RIL_REQUEST_DELETE_SMS_ON_SIM:
+            case RIL_REQUEST_CDMA_SEND_SMS:
+            case RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE:
+            case RIL_REQUEST_GSM_GET_BROADCAST_CONFIG:
+            case RIL_REQUEST_GSM_SET_BROADCAST_CONFIG:
+            case RIL_REQUEST_GSM_BROADCAST_ACTIVATION:
+            case RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG:
+            case RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG:
+            case RIL_REQUEST_CDMA_BROADCAST_ACTIVATION:
+            case RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM:
+            case RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM:
+            case RIL_REQUEST_GET_SMSC_ADDRESS:
+            case RIL_REQUEST_SET_SMSC_ADDRESS:
+            case RIL_REQUEST_REPORT_SMS_MEMORY_STATUS:
+            case RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU:
+            case RIL_REQUEST_IMS_SEND_SMS:
+            case RIL_UNSOL_RESPONSE_NEW_SMS:
+            case RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT:
+            case RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM:
+            case RIL_UNSOL_SIM_SMS_STORAGE_FULL:
+            case RIL_UNSOL_RESPONSE_CDMA_NEW_SMS:
+            case RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS:
+            case RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL:
+                return CATEGORY_SMS;
+
+            case RIL_REQUEST_SETUP_DATA_CALL:
+            case RIL_REQUEST_DEACTIVATE_DATA_CALL:
+            case RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE:
+            case RIL_REQUEST_DATA_CALL_LIST:
+            case RIL_REQUEST_SET_INITIAL_ATTACH_APN:
+            case RIL_REQUEST_SET_DATA_PROFILE:
+            case RIL_REQUEST_ALLOW_DATA:
+            case RIL_REQUEST_START_LCE:
+            case RIL_REQUEST_STOP_LCE:
+            case RIL_REQUEST_PULL_LCEDATA:
+            case RIL_UNSOL_DATA_CALL_LIST_CHANGED:
+            case RIL_UNSOL_LCEDATA_RECV:
+                return CATEGORY_DATA;
+
+            case RIL_REQUEST_SIGNAL_STRENGTH:
+            case RIL_REQUEST_VOICE_REGISTRATION_STATE:
+            case RIL_REQUEST_DATA_REGISTRATION_STATE:
+            case RIL_REQUEST_OPERATOR:
+            case RIL_REQUEST_RADIO_POWER:
+            case RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE:
+            case RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC:
+            case RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL:
+            case RIL_REQUEST_QUERY_AVAILABLE_NETWORKS:
+            case RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE:
+            case RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE:
+            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS:
+            case RIL_REQUEST_SET_LOCATION_UPDATES:
+            case RIL_REQUEST_VOICE_RADIO_TECH:
+            case RIL_REQUEST_GET_CELL_INFO_LIST:
+            case RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE:
+            case RIL_REQUEST_IMS_REGISTRATION_STATE:
+            case RIL_REQUEST_SCREEN_STATE:
+            case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED:
+            case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED:
+            case RIL_UNSOL_NITZ_TIME_RECEIVED:
+            case RIL_UNSOL_SIGNAL_STRENGTH:
+            case RIL_UNSOL_RESTRICTED_STATE_CHANGED:
+            case RIL_UNSOL_VOICE_RADIO_TECH_CHANGED:
+            case RIL_UNSOL_CELL_INFO_LIST:
+            case RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED:
+            case RIL_UNSOL_RADIO_CAPABILITY:
+                return CATEGORY_NETWORK;
+
+            case RIL_REQUEST_GET_SIM_STATUS:
+            case RIL_REQUEST_ENTER_SIM_PIN:
+            case RIL_REQUEST_ENTER_SIM_PUK:
+            case RIL_REQUEST_ENTER_SIM_PIN2:
+            case RIL_REQUEST_ENTER_SIM_PUK2:
+            case RIL_REQUEST_CHANGE_SIM_PIN:
+            case RIL_REQUEST_CHANGE_SIM_PIN2:
+            case RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION:
+            case RIL_REQUEST_GET_IMSI:
+            case RIL_REQUEST_SIM_IO:
+            case RIL_REQUEST_QUERY_FACILITY_LOCK:
+            case RIL_REQUEST_SET_FACILITY_LOCK:
+            case RIL_REQUEST_STK_GET_PROFILE:
+            case RIL_REQUEST_STK_SET_PROFILE:
+            case RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND:
+            case RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE:
+            case RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM:
+            case RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS:
+            case RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING:
+            case RIL_REQUEST_ISIM_AUTHENTICATION:
+            case RIL_REQUEST_SIM_AUTHENTICATION:
+            case RIL_REQUEST_SIM_OPEN_CHANNEL:
+            case RIL_REQUEST_SIM_CLOSE_CHANNEL:
+            case RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC:
+            case RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL:
+            case RIL_REQUEST_SIM_GET_ATR:
+            case RIL_REQUEST_SET_UICC_SUBSCRIPTION:
+            case RIL_UNSOL_STK_SESSION_END:
+            case RIL_UNSOL_STK_PROACTIVE_COMMAND:
+            case RIL_UNSOL_STK_EVENT_NOTIFY:
+            case RIL_UNSOL_STK_CALL_SETUP:
+            case RIL_UNSOL_STK_CC_ALPHA_NOTIFY:
+            case RIL_UNSOL_SIM_REFRESH:
+            case RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED:
+            case RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED:
+                return CATEGORY_SIM;
+
+            default:
+                return CATEGORY_OTHER;
+        }
+    }
+
+    private static String radioStateToString(int ordinal) {
+        RadioState[] states = RadioState.values();
+        return ordinal >= 0 && ordinal < states.length
+                ? states[ordinal].toString() : Integer.toString(ordinal);
+    }
+
+    /**
+     * Formats the retained records, oldest first.
+     */
+    void dump(PrintWriter pw) {
+        long next = mNext.get();
+        long first = Math.max(0, next - (mMask + 1));
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
+        Date date = new Date();
+
+        pw.println(" RILEventLog: events=" + next + " retained=" + (next - first)
+                + " textLogCategories=0x" + Integer.toHexString(sTextLogCategories));
+        for (long seq = first; seq < next; seq++) {
+            int i = (int) (seq & mMask);
+            if (mSeqs.get(i) != seq) continue;
+            long time = mTimes[i];
+            int type = mTypes[i];
+            int code = mCodes[i];
+            int serial = mSerials[i];
+            int error = mErrors[i];
+            // Drop the record if a writer lapped us while we copied it. The
+            // compare-and-set orders the copies above before the re-check.
+            if (!mSeqs.compareAndSet(i, seq, seq)) continue;
+
+            date.setTime(time);
+            StringBuilder sb = new StringBuilder("  ");
+            sb.append(format.format(date)).append(' ');
+            if (type == TYPE_RADIO_STATE) {
+                sb.append(TYPE_NAMES[type]).append(' ');
+                sb.append(radioStateToString(error)).append(" -> ");
+                sb.append(radioStateToString(code));
+                pw.println(sb.toString());
+                continue;
+            }
+            if (type != TYPE_UNSOL) {
+                sb.append('[').append(serial).append("] ");
+            }
+            sb.append(TYPE_NAMES[type]).append(' ');
+            sb.append(type == TYPE_UNSOL
+                    ? RIL.responseToString(code) : RIL.requestToString(code));
+            if (error != 0) {
+                sb.append(" error=").append(error);
+            }
+            pw.println(sb.toString());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+
+/**
+ * Splits the RIL socket stream into frames using one large reusable buffer.
+ *
+ * Unlike RIL.readRilMessage(), which issues one read for the length header and
+ * at least one more for the payload, every read here pulls in as many bytes as
+ * the socket has available, so a burst of unsolicited responses is usually
+ * framed from a single read. A trailing partial frame is carried over to the
+ * front of the buffer and completed by the next read.
+ *
+ * Frames are returned in place: the payload lives in {@link #getBuffer()} at
+ * {@link #getFrameOffset()} and is only valid until the next call to
+ * {@link #nextFrame(InputStream)}.
+ *
+ * Only the receiver thread reads frames; the counters are read by dump().
+ *
+ * {@hide}
+ */
+class RILFrameReader {
+    private static final int HEADER_SIZE = 4;
+
+    private final byte[] mBuffer;
+    private final int mMaxFrameLength;
+
+    // Unconsumed bytes are in [mStart, mEnd)
+    private int mStart;
+    private int mEnd;
+    private int mFrameOffset;
+
+    // Written by the receiver thread, read by dump()
+    private volatile long mReadCount;
+    private volatile long mFrameCount;
+    private volatile long mByteCount;
+    private volatile long mCarryOverCount;
+
+    /**
+     * @param capacity size of the read buffer; must hold at least one maximum sized
+     * frame plus its header.
+     * @param maxFrameLength largest payload accepted before the stream is considered corrupt
+     */
+    RILFrameReader(int capacity, int maxFrameLength) {
+        if (capacity < maxFrameLength + HEADER_SIZE) {
+            throw new IllegalArgumentException("capacity " + capacity
+                    + " too small for frames of " + maxFrameLength);
+        }
+        mBuffer = new byte[capacity];
+        mMaxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Reads the next frame, blocking only if the buffer does not already hold it.
+     *
+     * @return length of the frame payload, or -1 on end of stream
+     */
+    int nextFrame(InputStream is) throws IOException {
+        if (!fill(is, HEADER_SIZE)) {
+            return -1;
+        }
+
+        int length = ((mBuffer[mStart] & 0xff) << 24)
+                | ((mBuffer[mStart + 1] & 0xff) << 16)
+                | ((mBuffer[mStart + 2] & 0xff) << 8)
+                | (mBuffer[mStart + 3] & 0xff);
+
+        if (length < 0 || length > mMaxFrameLength) {
+            throw new IOException("Invalid RIL frame length " + length);
+        }
+
+        if (!fill(is, HEADER_SIZE + length)) {
+            return -1;
+        }
+
+        mFrameOffset = mStart + HEADER_SIZE;
+        mStart = mFrameOffset + length;
+        mFrameCount++;
+        return length;
+    }
+
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    int getFrameOffset() {
+        return mFrameOffset;
+    }
+
+    /** Number of times a partial frame was moved to the front of the buffer. */
+    long getCarryOverCount() {
+        return mCarryOverCount;
+    }
+
+    /** Discards any buffered bytes, e.g. after the socket was closed. */
+    void reset() {
+        mStart = mEnd = mFrameOffset = 0;
+    }
+
+    /**
+     * Makes sure at least {@code needed} unconsumed bytes are buffered.
+     *
+     * @return false on end of stream
+     */
+    private boolean fill(InputStream is, int needed) throws IOException {
+        if (mEnd - mStart >= needed) {
+            return true;
+        }
+
+        if (mStart + needed > mBuffer.length) {
+            // Move the partial frame to the front so the rest of it fits.
+            int pending = mEnd - mStart;
+            System.arraycopy(mBuffer, mStart, mBuffer, 0, pending);
+            mStart = 0;
+            mEnd = pending;
+            mCarryOverCount++;
+        } else if (mStart == mEnd) {
+            mStart = mEnd = 0;
+        }
+
+        while (mEnd - mStart < needed) {
+            int countRead = is.read(mBuffer, mEnd, mBuffer.length - mEnd);
+            if (countRead < 0) {
+                return false;
+            }
+            mEnd += countRead;
+            mReadCount++;
+            mByteCount += countRead;
+        }
+        return true;
+    }
+
+    void dump(PrintWriter pw) {
+        long reads = mReadCount;
+        long frames = mFrameCount;
+        pw.println(" RILFrameReader: capacity=" + mBuffer.length);
+        pw.println("  reads=" + reads + " frames=" + frames + " bytes=" + mByteCount
+                + " carryOvers=" + mCarryOverCount);
+        if (reads > 0) {
+            pw.println("  avgFramesPerRead=" + ((float) frames / reads));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Coalesces length-prefixed RIL request frames into one reusable buffer so that
+ * RILSender can hand a whole burst of queued requests to the socket in a single
+ * write instead of two writes per request.
+ *
+ * Only the sender thread appends and flushes; the counters are read by dump().
+ *
+ * {@hide}
+ */
+class RILFrameWriter {
+    /** Size of the big endian length header that precedes every frame */
+    static final int HEADER_SIZE = 4;
+
+    private final ByteBuffer mBuffer;
+    private int mPendingFrames;
+
+    private volatile long mFlushCount;
+    private volatile long mFrameCount;
+    private volatile long mByteCount;
+    private volatile int mMaxFramesPerFlush;
+    private volatile int mMaxBytesPerFlush;
+
+    /**
+     * @param capacity size of the coalescing buffer in bytes. Must be able to hold
+     * at least one maximum sized frame plus its header.
+     */
+    RILFrameWriter(int capacity) {
+        // LocalSocket only exposes an OutputStream, so a heap buffer is used
+        // to hand the backing array straight to write() without another copy.
+        mBuffer = ByteBuffer.allocate(capacity);
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Appends one marshalled request to the buffer.
+     *
+     * @return false if there is not enough room left; the caller should flush and retry.
+     */
+    boolean append(byte[] data) {
+        if (mBuffer.remaining() < HEADER_SIZE + data.length) {
+            return false;
+        }
+        mBuffer.putInt(data.length);
+        mBuffer.put(data);
+        mPendingFrames++;
+        return true;
+    }
+
+    boolean isEmpty() {
+        return mPendingFrames == 0;
+    }
+
+    int getPendingFrames() {
+        return mPendingFrames;
+    }
+
+    /**
+     * Writes all buffered frames to the stream with a single write call.
+     * The buffer is reset whether or not the write succeeds.
+     */
+    void flush(OutputStream os) throws IOException {
+        if (mPendingFrames == 0) {
+            return;
+        }
+        int frames = mPendingFrames;
+        int bytes = mBuffer.position();
+        try {
+            os.write(mBuffer.array(), mBuffer.arrayOffset(), bytes);
+        } finally {
+            reset();
+        }
+
+        mFlushCount++;
+        mFrameCount += frames;
+        mByteCount += bytes;
+        if (frames > mMaxFramesPerFlush) mMaxFramesPerFlush = frames;
+        if (bytes > mMaxBytesPerFlush) mMaxBytesPerFlush = bytes;
+    }
+
+    /** Drops any buffered frames without writing them. */
+    void reset() {
+        mBuffer.clear();
+        mPendingFrames = 0;
+    }
+
+    void dump(PrintWriter pw) {
+        long flushes = mFlushCount;
+        pw.println(" RILFrameWriter: capacity=" + mBuffer.capacity());
+        pw.println("  flushes=" + flushes + " frames=" + mFrameCount + " bytes=" + mByteCount);
+        if (flushes > 0) {
+            pw.println("  avgFramesPerFlush=" + ((float) mFrameCount / flushes)
+                    + " avgBytesPerWrite=" + (mByteCount / flushes));
+        }
+        pw.println("  maxFramesPerFlush=" + mMaxFramesPerFlush
+                + " maxBytesPerWrite=" + mMaxBytesPerFlush);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free send-to-response latency histograms, one per RIL_REQUEST_* code.
+ *
+ * Each histogram has power-of-two microsecond buckets, so recording a sample is
+ * a handful of atomic increments and percentiles are accurate to within a
+ * factor of two, which is enough to tell which modem commands dominate.
+ *
+ * {@hide}
+ */
+public class RILLatencyStats {
+    // Codes below this are kept in a flat array; vendor codes go to a map.
+    private static final int MAX_DIRECT_REQUEST = 512;
+    // Bucket i holds samples in [2^i, 2^(i+1)) microseconds, bucket 0 also holds 0 and 1.
+    private static final int NUM_BUCKETS = 40;
+
+    private final AtomicReferenceArray<Histogram> mDirect =
+            new AtomicReferenceArray<Histogram>(MAX_DIRECT_REQUEST);
+    private final ConcurrentHashMap<Integer, Histogram> mOther =
+            new ConcurrentHashMap<Integer, Histogram>();
+
+    /**
+     * Immutable view of one request's latency distribution.
+     */
+    public static class Snapshot {
+        public final int request;
+        public final long count;
+        public final long meanMicros;
+        public final long p50Micros;
+        public final long p99Micros;
+        public final long maxMicros;
+
+        Snapshot(int request, long count, long meanMicros, long p50Micros, long p99Micros,
+                long maxMicros) {
+            this.request = request;
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return RIL.requestToString(request) + ": count=" + count + " meanUs=" + meanMicros
+                    + " p50Us=" + p50Micros + " p99Us=" + p99Micros + " maxUs=" + maxMicros;
+        }
+    }
+
+    /**
+     * A request that has been sent but not answered yet.
+     */
+    public static class InFlight {
+        public final int serial;
+        public final int request;
+        public final long ageMillis;
+
+        InFlight(int serial, int request, long ageMillis) {
+            this.serial = serial;
+            this.request = request;
+            this.ageMillis = ageMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + serial + "] " + RIL.requestToString(request) + " age=" + ageMillis + "ms";
+        }
+    }
+
+    private static class Histogram {
+        final int mRequest;
+        final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+        final AtomicLong mCount = new AtomicLong();
+        final AtomicLong mSumMicros = new AtomicLong();
+        final AtomicLong mMaxMicros = new AtomicLong();
+
+        Histogram(int request) {
+            mRequest = request;
+        }
+
+        void record(long micros) {
+            int bucket = micros <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+            if (bucket >= NUM_BUCKETS) bucket = NUM_BUCKETS - 1;
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSumMicros.addAndGet(micros);
+
+            long max;
+            while (micros > (max = mMaxMicros.get())) {
+                if (mMaxMicros.compareAndSet(max, micros)) break;
+            }
+        }
+
+        Snapshot snapshot() {
+            long[] buckets = new long[NUM_BUCKETS];
+            long total = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                buckets[i] = mBuckets.get(i);
+                total += buckets[i];
+            }
+            long max = mMaxMicros.get();
+            long mean = total == 0 ? 0 : mSumMicros.get() / total;
+            return new Snapshot(mRequest, total, mean, percentile(buckets, total, 50, max),
+                    percentile(buckets, total, 99, max), max);
+        }
+
+        private static long percentile(long[] buckets, long total, int pct, long max) {
+            if (total == 0) return 0;
+            long rank = (total * pct + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    // Report the upper bound of the bucket, but never above the max seen.
+                    return Math.min((2L << i) - 1, max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Records one completed request.
+     *
+     * @param request RIL_REQUEST_*
+     * @param nanos time between send() and its response
+     */
+    void record(int request, long nanos) {
+        if (nanos < 0) return;
+        getOrCreate(request).record(nanos / 1000);
+    }
+
+    /**
+     * @return latency snapshot for the request, or null if it has never completed
+     */
+    public Snapshot getSnapshot(int request) {
+        Histogram h = get(request);
+        return h == null ? null : h.snapshot();
+    }
+
+    /**
+     * @return snapshots of every request seen so far, slowest p99 first
+     */
+    public ArrayList<Snapshot> getSnapshots() {
+        ArrayList<Snapshot> list = new ArrayList<Snapshot>();
+        for (int i = 0; i < MAX_DIRECT_REQUEST; i++) {
+            Histogram h = mDirect.get(i);
+            if (h != null) list.add(h.snapshot());
+        }
+        for (Histogram h : mOther.values()) {
+            list.add(h.snapshot());
+        }
+        Collections.sort(list, new Comparator<Snapshot>() {
+            @Override
+            public int compare(Snapshot a, Snapshot b) {
+                return a.p99Micros < b.p99Micros ? 1 : (a.p99Micros == b.p99Micros ? 0 : -1);
+            }
+        });
+        return list;
+    }
+
+    private Histogram get(int request) {
+        if (request >= 0 && request < MAX_DIRECT_REQUEST) {
+            return mDirect.get(request);
+        }
+        return mOther.get(request);
+    }
+
+    private Histogram getOrCreate(int request) {
+        Histogram h = get(request);
+        if (h != null) return h;
+
+        Histogram created = new Histogram(request);
+        if (request >= 0 && request < MAX_DIRECT_REQUEST) {
+            if (mDirect.compareAndSet(request, null, created)) return created;
+            return mDirect.get(request);
+        }
+        h = mOther.putIfAbsent(request, created);
+        return h == null ? created : h;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println(" RILLatencyStats:");
+        for (Snapshot s : getSnapshots()) {
+            pw.println("  " + s);
+        }
+    }
+}
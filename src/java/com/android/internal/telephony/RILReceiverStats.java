@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+
+/**
+ * Per-frame cost of RILReceiver: how many Parcels were obtained and how long
+ * processResponse() took, overall and per unsolicited response code, so the
+ * legacy and buffered receive paths can be compared on unsolicited storms.
+ *
+ * Written by the receiver thread only; dump() may run on any thread.
+ *
+ * {@hide}
+ */
+class RILReceiverStats {
+    // Indices into the per unsolicited code counters
+    private static final int COUNT = 0;
+    private static final int TOTAL_NANOS = 1;
+    private static final int MAX_NANOS = 2;
+
+    private long mFrames;
+    private long mParcelsObtained;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private final SparseArray<long[]> mUnsolStats = new SparseArray<long[]>();
+
+    synchronized void onParcelObtained() {
+        mParcelsObtained++;
+    }
+
+    /**
+     * @param unsolResponse RIL_UNSOL_* code of the frame, or -1 for solicited responses
+     * @param nanos time spent in processResponse()
+     */
+    synchronized void onFrameProcessed(int unsolResponse, long nanos) {
+        mFrames++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) mMaxNanos = nanos;
+
+        if (unsolResponse < 0) {
+            return;
+        }
+        long[] stats = mUnsolStats.get(unsolResponse);
+        if (stats == null) {
+            stats = new long[3];
+            mUnsolStats.put(unsolResponse, stats);
+        }
+        stats[COUNT]++;
+        stats[TOTAL_NANOS] += nanos;
+        if (nanos > stats[MAX_NANOS]) stats[MAX_NANOS] = nanos;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(" RILReceiverStats: frames=" + mFrames
+                + " parcelsObtained=" + mParcelsObtained);
+        if (mFrames > 0) {
+            pw.println("  parcelsPerFrame=" + ((float) mParcelsObtained / mFrames)
+                    + " avgUs=" + (mTotalNanos / mFrames / 1000)
+                    + " maxUs=" + (mMaxNanos / 1000));
+        }
+        for (int i = 0; i < mUnsolStats.size(); i++) {
+            long[] stats = mUnsolStats.valueAt(i);
+            pw.println("  " + RIL.responseToString(mUnsolStats.keyAt(i))
+                    + ": count=" + stats[COUNT]
+                    + " avgUs=" + (stats[TOTAL_NANOS] / stats[COUNT] / 1000)
+                    + " maxUs=" + (stats[MAX_NANOS] / 1000));
+        }
+    }
+}
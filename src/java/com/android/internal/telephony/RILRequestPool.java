@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+
+/**
+ * Striped free list of RILRequest objects.
+ *
+ * Requests are obtained on many Binder and Handler threads but released almost
+ * exclusively on RILReceiver, so a plain thread-local pool would never be
+ * refilled. Instead releases are spread over the stripes by serial number and
+ * each obtaining thread starts at its own stripe and only visits the others if
+ * that one is empty. Every stripe has its own lock, so concurrent callers rarely
+ * meet on the same monitor.
+ *
+ * {@hide}
+ */
+class RILRequestPool {
+    private final Stripe[] mStripes;
+    private final int mMask;
+
+    private static class Stripe {
+        RILRequest mHead;
+        int mSize;
+        final int mCapacity;
+
+        long mHits;
+        long mMisses;
+        long mParcelHits;
+        long mParcelMisses;
+        long mDropped;
+
+        Stripe(int capacity) {
+            mCapacity = capacity;
+        }
+    }
+
+    /**
+     * @param capacity total number of requests kept across all stripes
+     * @param stripes number of stripes; rounded up to a power of two
+     */
+    RILRequestPool(int capacity, int stripes) {
+        int n = Integer.highestOneBit(Math.max(stripes, 1) - 1) << 1;
+        if (n == 0) n = 1;
+        mStripes = new Stripe[n];
+        mMask = n - 1;
+        int perStripe = Math.max(1, (capacity + n - 1) / n);
+        for (int i = 0; i < n; i++) {
+            mStripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * @return a pooled request, or null if every stripe is empty
+     */
+    RILRequest obtain() {
+        int home = (int) Thread.currentThread().getId() & mMask;
+        for (int i = 0; i <= mMask; i++) {
+            Stripe stripe = mStripes[(home + i) & mMask];
+            synchronized (stripe) {
+                RILRequest rr = stripe.mHead;
+                if (rr != null) {
+                    stripe.mHead = rr.mNext;
+                    rr.mNext = null;
+                    stripe.mSize--;
+                    stripe.mHits++;
+                    return rr;
+                }
+            }
+        }
+
+        Stripe stripe = mStripes[home];
+        synchronized (stripe) {
+            stripe.mMisses++;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a request to the pool.
+     *
+     * @return false if its stripe is full and the request was not kept
+     */
+    boolean release(RILRequest rr) {
+        Stripe stripe = mStripes[rr.mSerial & mMask];
+        synchronized (stripe) {
+            if (stripe.mSize >= stripe.mCapacity) {
+                stripe.mDropped++;
+                return false;
+            }
+            rr.mNext = stripe.mHead;
+            stripe.mHead = rr;
+            stripe.mSize++;
+            return true;
+        }
+    }
+
+    /**
+     * Records whether an obtained request could reuse the Parcel it kept from
+     * its previous use.
+     */
+    void recordParcel(RILRequest rr, boolean reused) {
+        Stripe stripe = mStripes[rr.mSerial & mMask];
+        synchronized (stripe) {
+            if (reused) {
+                stripe.mParcelHits++;
+            } else {
+                stripe.mParcelMisses++;
+            }
+        }
+    }
+
+    /**
+     * @return {hits, misses, parcelHits, parcelMisses, dropped, pooled}
+     */
+    long[] getCounters() {
+        long[] counters = new long[6];
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                counters[0] += stripe.mHits;
+                counters[1] += stripe.mMisses;
+                counters[2] += stripe.mParcelHits;
+                counters[3] += stripe.mParcelMisses;
+                counters[4] += stripe.mDropped;
+                counters[5] += stripe.mSize;
+            }
+        }
+        return counters;
+    }
+
+    void dump(PrintWriter pw) {
+        long[] c = getCounters();
+        pw.println(" RILRequestPool: stripes=" + mStripes.length
+                + " capacity=" + (mStripes[0].mCapacity * mStripes.length) + " pooled=" + c[5]);
+        pw.println("  hits=" + c[0] + " misses=" + c[1] + " dropped=" + c[4]
+                + " parcelHits=" + c[2] + " parcelMisses=" + c[3]);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Message;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent table of pending RILRequests keyed by serial number.
+ *
+ * Serials are handed out sequentially, so a request's home slot is simply
+ * {@code serial & mask} and almost every lookup hits on the first probe. A
+ * request may be stored anywhere within {@link #MAX_PROBES} slots of its home
+ * slot; lookups always scan that whole window, which lets removal clear a slot
+ * back to null with a single compare-and-set instead of leaving tombstones.
+ * Requests that find no free slot in their window, which only happens when
+ * thousands of requests are stuck, go to a small locked overflow map.
+ *
+ * RILRequests are pooled and get a new serial when they are reused, so slots
+ * hold an immutable {@link Entry} tagged with the serial the request was added
+ * under. A compare-and-set on the entry can then never remove a request that
+ * was completed, recycled and added again under another serial in between.
+ *
+ * Insertion, lookup and removal never take a lock while the overflow map is
+ * empty, so RILSender and RILReceiver no longer contend on every request.
+ *
+ * {@hide}
+ */
+class RILRequestTable {
+    static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_PROBES = 8;
+
+    private final AtomicReferenceArray<Entry> mSlots;
+    private final int mMask;
+    private final AtomicInteger mSize = new AtomicInteger();
+
+    private final SparseArray<RILRequest> mOverflow = new SparseArray<RILRequest>();
+    private volatile int mOverflowCount;
+
+    private static final class Entry {
+        final int serial;
+        final RILRequest request;
+
+        Entry(int serial, RILRequest request) {
+            this.serial = serial;
+            this.request = request;
+        }
+    }
+
+    RILRequestTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of slots; rounded up to a power of two
+     */
+    RILRequestTable(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity, MAX_PROBES) - 1) << 1;
+        mSlots = new AtomicReferenceArray<Entry>(n);
+        mMask = n - 1;
+    }
+
+    /**
+     * Adds a request. Serials must be unique among pending requests.
+     */
+    void put(RILRequest rr) {
+        Entry entry = new Entry(rr.mSerial, rr);
+        int home = entry.serial & mMask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            if (mSlots.compareAndSet((home + i) & mMask, null, entry)) {
+                mSize.incrementAndGet();
+                return;
+            }
+        }
+
+        synchronized (mOverflow) {
+            mOverflow.put(rr.mSerial, rr);
+            mOverflowCount = mOverflow.size();
+        }
+        mSize.incrementAndGet();
+    }
+
+    /**
+     * @return the pending request with this serial without removing it, or null
+     */
+    RILRequest get(int serial) {
+        int home = serial & mMask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            Entry entry = mSlots.get((home + i) & mMask);
+            if (entry != null && entry.serial == serial) {
+                return entry.request;
+            }
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                return mOverflow.get(serial);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the request with this serial. If several threads race
+     * to remove the same request exactly one of them gets it.
+     *
+     * @return the removed request, or null if it was not pending
+     */
+    RILRequest remove(int serial) {
+        int home = serial & mMask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int index = (home + i) & mMask;
+            Entry entry = mSlots.get(index);
+            if (entry != null && entry.serial == serial) {
+                if (mSlots.compareAndSet(index, entry, null)) {
+                    mSize.decrementAndGet();
+                    return entry.request;
+                }
+                // Someone else removed it first.
+                return null;
+            }
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                RILRequest rr = mOverflow.get(serial);
+                if (rr != null) {
+                    mOverflow.remove(serial);
+                    mOverflowCount = mOverflow.size();
+                    mSize.decrementAndGet();
+                }
+                return rr;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the pending request that will complete {@code result}. This is a
+     * full scan and is meant for rare operations such as cancellation.
+     *
+     * @return the removed request, or null if none is pending for this message
+     */
+    RILRequest removeByResult(Message result) {
+        for (int i = 0; i <= mMask; i++) {
+            Entry entry = mSlots.get(i);
+            if (entry != null && entry.request.mResult == result
+                    && mSlots.compareAndSet(i, entry, null)) {
+                mSize.decrementAndGet();
+                return entry.request;
+            }
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                for (int i = 0; i < mOverflow.size(); i++) {
+                    RILRequest rr = mOverflow.valueAt(i);
+                    if (rr.mResult == result) {
+                        mOverflow.removeAt(i);
+                        mOverflowCount = mOverflow.size();
+                        mSize.decrementAndGet();
+                        return rr;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes every pending request.
+     *
+     * @param out receives the removed requests
+     */
+    void removeAll(ArrayList<RILRequest> out) {
+        for (int i = 0; i <= mMask; i++) {
+            Entry entry = mSlots.getAndSet(i, null);
+            if (entry != null) {
+                mSize.decrementAndGet();
+                out.add(entry.request);
+            }
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                for (int i = 0; i < mOverflow.size(); i++) {
+                    out.add(mOverflow.valueAt(i));
+                    mSize.decrementAndGet();
+                }
+                mOverflow.clear();
+                mOverflowCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Copies the pending requests without removing them. The result is only a
+     * snapshot; requests may complete while it is being taken.
+     */
+    void snapshot(ArrayList<RILRequest> out) {
+        for (int i = 0; i <= mMask; i++) {
+            Entry entry = mSlots.get(i);
+            if (entry != null) {
+                out.add(entry.request);
+            }
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                for (int i = 0; i < mOverflow.size(); i++) {
+                    out.add(mOverflow.valueAt(i));
+                }
+            }
+        }
+    }
+
+    int size() {
+        return mSize.get();
+    }
+
+    int overflowSize() {
+        return mOverflowCount;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+/**
+ * Hashed timer wheel holding the deadlines of pending RIL requests.
+ *
+ * Each entry is just a (serial, deadline) pair stored in primitive arrays, so
+ * adding a deadline is O(1) and allocation free. Entries are never removed when
+ * a response arrives; instead the owner looks the serial up in the pending
+ * request table when the entry fires and ignores it if the request is gone.
+ * That keeps the wheel private to the thread that drives it and safe against
+ * RILRequest objects being recycled. The owner tracks how many deadlines are
+ * still live and clears the wheel instead of ticking it once none are.
+ *
+ * Not thread safe; RILSender is the only user.
+ *
+ * {@hide}
+ */
+class RILTimerWheel {
+    static final int DEFAULT_SLOTS = 512;
+    static final long DEFAULT_TICK_MILLIS = 100;
+
+    private static final int INITIAL_BUCKET_SIZE = 4;
+
+    /**
+     * Receives the serials whose deadline has passed.
+     */
+    interface Callback {
+        void onExpired(int serial);
+    }
+
+    private final long mTickMillis;
+    private final int mMask;
+    private final int[][] mSerials;
+    private final long[][] mDeadlines;
+    private final int[] mCounts;
+
+    private int mSize;
+    // Last tick whose bucket has been processed, -1 before the first add
+    private long mCurrentTick = -1;
+
+    RILTimerWheel() {
+        this(DEFAULT_SLOTS, DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * @param slots number of buckets; rounded up to a power of two
+     * @param tickMillis resolution of the wheel
+     */
+    RILTimerWheel(int slots, long tickMillis) {
+        int n = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+        mTickMillis = tickMillis;
+        mMask = n - 1;
+        mSerials = new int[n][];
+        mDeadlines = new long[n][];
+        mCounts = new int[n];
+    }
+
+    /**
+     * Adds a deadline for a request.
+     *
+     * @param now current SystemClock.elapsedRealtime()
+     * @param deadline SystemClock.elapsedRealtime() at which the request expires
+     */
+    void add(int serial, long deadline, long now) {
+        if (mCurrentTick < 0) {
+            mCurrentTick = now / mTickMillis;
+        }
+        // Round up so the bucket is only visited once the deadline has passed, and
+        // never schedule into a bucket that has already been processed for this
+        // rotation, otherwise the entry would wait a full turn of the wheel.
+        long tick = Math.max((deadline + mTickMillis - 1) / mTickMillis, mCurrentTick + 1);
+        int slot = (int) (tick & mMask);
+
+        int count = mCounts[slot];
+        if (mSerials[slot] == null) {
+            mSerials[slot] = new int[INITIAL_BUCKET_SIZE];
+            mDeadlines[slot] = new long[INITIAL_BUCKET_SIZE];
+        } else if (count == mSerials[slot].length) {
+            int[] serials = new int[count * 2];
+            long[] deadlines = new long[count * 2];
+            System.arraycopy(mSerials[slot], 0, serials, 0, count);
+            System.arraycopy(mDeadlines[slot], 0, deadlines, 0, count);
+            mSerials[slot] = serials;
+            mDeadlines[slot] = deadlines;
+        }
+        mSerials[slot][count] = serial;
+        mDeadlines[slot][count] = deadline;
+        mCounts[slot] = count + 1;
+        mSize++;
+    }
+
+    /**
+     * Processes every bucket up to {@code now} and reports the expired serials.
+     * Entries whose deadline is a later rotation stay in their bucket.
+     */
+    void advance(long now, Callback callback) {
+        if (mCurrentTick < 0) {
+            return;
+        }
+        long nowTick = now / mTickMillis;
+        // After a long sleep there is no point in visiting a bucket twice.
+        long first = Math.max(mCurrentTick + 1, nowTick - mMask);
+        for (long tick = first; tick <= nowTick && mSize > 0; tick++) {
+            expireBucket((int) (tick & mMask), now, callback);
+        }
+        if (nowTick > mCurrentTick) {
+            mCurrentTick = nowTick;
+        }
+    }
+
+    private void expireBucket(int slot, long now, Callback callback) {
+        int[] serials = mSerials[slot];
+        long[] deadlines = mDeadlines[slot];
+        int count = mCounts[slot];
+        int i = 0;
+        while (i < count) {
+            if (deadlines[i] <= now) {
+                int serial = serials[i];
+                // Swap in the last entry instead of shifting.
+                count--;
+                serials[i] = serials[count];
+                deadlines[i] = deadlines[count];
+                mCounts[slot] = count;
+                mSize--;
+                callback.onExpired(serial);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /** @return number of deadlines held, including ones whose request already completed */
+    int size() {
+        return mSize;
+    }
+
+    long getTickMillis() {
+        return mTickMillis;
+    }
+
+    /** Drops every deadline, e.g. once the request table has been cleared. */
+    void clear() {
+        for (int i = 0; i <= mMask; i++) {
+            mCounts[i] = 0;
+        }
+        mSize = 0;
+    }
+}
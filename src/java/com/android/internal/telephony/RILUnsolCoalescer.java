@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.io.PrintWriter;
+
+/**
+ * Rate limits the unsolicited responses that only describe current state, so a
+ * burst of them reaches the registrants as at most one notification per window.
+ *
+ * The first event of a type is delivered at once and opens a window. Events of
+ * the same type arriving while the window is open replace each other, and when
+ * the window closes only the latest one is delivered, reopening the window.
+ * Superseded events are dropped and counted.
+ *
+ * Only the state-style events listed in {@link #isCoalescable(int)} go through
+ * here; everything else, in particular SMS, call and emergency callback mode
+ * events, is never delayed.
+ *
+ * {@hide}
+ */
+class RILUnsolCoalescer extends Handler {
+    /**
+     * Receives the events that survive coalescing.
+     */
+    interface Sink {
+        void deliverUnsolicited(int response, Object ret);
+    }
+
+    private static final int EVENT_WINDOW_END = 1;
+
+    private static final int[] COALESCED_RESPONSES = {
+        RIL_UNSOL_SIGNAL_STRENGTH,
+        RIL_UNSOL_CELL_INFO_LIST,
+        RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED,
+        RIL_UNSOL_NITZ_TIME_RECEIVED,
+    };
+
+    private final Sink mSink;
+    private final int mWindowMillis;
+
+    // Per entry of COALESCED_RESPONSES, guarded by this
+    private final boolean[] mWindowOpen = new boolean[COALESCED_RESPONSES.length];
+    private final boolean[] mHasPending = new boolean[COALESCED_RESPONSES.length];
+    private final Object[] mPending = new Object[COALESCED_RESPONSES.length];
+    private final long[] mReceived = new long[COALESCED_RESPONSES.length];
+    private final long[] mDelivered = new long[COALESCED_RESPONSES.length];
+    private final long[] mCollapsed = new long[COALESCED_RESPONSES.length];
+
+    /**
+     * @param looper thread on which events held back for a window are delivered
+     * @param windowMillis coalescing window; 0 disables coalescing
+     */
+    RILUnsolCoalescer(Looper looper, Sink sink, int windowMillis) {
+        super(looper);
+        mSink = sink;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * @return true if events of this type are coalesced and must be passed to
+     * {@link #submit(int, Object)}
+     */
+    boolean isCoalescable(int response) {
+        return mWindowMillis > 0 && indexOf(response) >= 0;
+    }
+
+    /**
+     * Delivers the event now or holds it until the current window closes.
+     */
+    void submit(int response, Object ret) {
+        int index = indexOf(response);
+        synchronized (this) {
+            mReceived[index]++;
+            if (mWindowOpen[index]) {
+                if (mHasPending[index]) {
+                    mCollapsed[index]++;
+                }
+                mHasPending[index] = true;
+                mPending[index] = ret;
+                return;
+            }
+            mWindowOpen[index] = true;
+            mDelivered[index]++;
+        }
+        sendMessageDelayed(obtainMessage(EVENT_WINDOW_END, index, 0), mWindowMillis);
+        mSink.deliverUnsolicited(response, ret);
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        if (msg.what != EVENT_WINDOW_END) {
+            return;
+        }
+        int index = msg.arg1;
+        Object ret;
+        synchronized (this) {
+            if (!mHasPending[index]) {
+                mWindowOpen[index] = false;
+                return;
+            }
+            ret = mPending[index];
+            mPending[index] = null;
+            mHasPending[index] = false;
+            mDelivered[index]++;
+        }
+        // Keep the window open so the next burst is coalesced as well.
+        sendMessageDelayed(obtainMessage(EVENT_WINDOW_END, index, 0), mWindowMillis);
+        mSink.deliverUnsolicited(COALESCED_RESPONSES[index], ret);
+    }
+
+    private static int indexOf(int response) {
+        for (int i = 0; i < COALESCED_RESPONSES.length; i++) {
+            if (COALESCED_RESPONSES[i] == response) return i;
+        }
+        return -1;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(" RILUnsolCoalescer: windowMillis=" + mWindowMillis);
+        for (int i = 0; i < COALESCED_RESPONSES.length; i++) {
+            pw.println("  " + RIL.responseToString(COALESCED_RESPONSES[i])
+                    + ": received=" + mReceived[i] + " delivered=" + mDelivered[i]
+                    + " collapsed=" + mCollapsed[i]);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.Parcel;
+
+import java.io.PrintWriter;
+
+/**
+ * Keeps the raw parcel of the latest low priority unsolicited response of each
+ * type while the screen is off, so that RILReceiver does not decode and dispatch
+ * indications nobody is looking at. When the screen turns back on the held
+ * responses are handed back, at most one per type, to be processed as usual.
+ *
+ * Only the decision to hold a response is made with this object locked;
+ * responses are decoded and dispatched outside the lock. Between the screen
+ * turning on and the end of the replay, fresh responses of these types are
+ * handed off to the thread that runs replay() and queued behind it, so a
+ * replayed response can never overtake a newer one of the same type.
+ *
+ * {@hide}
+ */
+class RILUnsolDeferral {
+    /**
+     * Processes a response that was held while the screen was off.
+     */
+    interface Replayer {
+        void replayUnsolicited(int response, Parcel p);
+    }
+
+    /** hold() result: process the response now, on the calling thread. */
+    static final int PROCESS = 0;
+    /** hold() result: the response was held and must not be processed now. */
+    static final int HOLD = 1;
+    /**
+     * hold() result: process the response on the replay thread, after the
+     * pending replay, then call onHandOffDone().
+     */
+    static final int HAND_OFF = 2;
+
+    private static final int[] DEFERRED_RESPONSES = {
+        RIL_UNSOL_SIGNAL_STRENGTH,
+        RIL_UNSOL_CELL_INFO_LIST,
+        RIL_UNSOL_LCEDATA_RECV,
+    };
+
+    private final boolean mEnabled;
+    private volatile boolean mScreenOff;
+
+    // Per entry of DEFERRED_RESPONSES
+    private final byte[][] mHeld = new byte[DEFERRED_RESPONSES.length][];
+    private final int[] mHeldPosition = new int[DEFERRED_RESPONSES.length];
+    private final long[] mDeferred = new long[DEFERRED_RESPONSES.length];
+    private final long[] mSuperseded = new long[DEFERRED_RESPONSES.length];
+    private final long[] mReplayed = new long[DEFERRED_RESPONSES.length];
+    // Set when the screen turns on with responses held, until replay() is done
+    private boolean mReplayPending;
+    // Fresh responses handed off and not yet processed
+    private int mHandOffs;
+    private long mHandedOff;
+
+    RILUnsolDeferral(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @return true if responses of this type may be held while the screen is off
+     */
+    boolean isDeferrable(int response) {
+        return mEnabled && indexOf(response) >= 0;
+    }
+
+    /**
+     * @return true if the screen turned on with responses held, in which case
+     *         the caller must run replay() on the thread that takes hand-offs
+     */
+    synchronized boolean setScreenOff(boolean screenOff) {
+        boolean wasOff = mScreenOff;
+        mScreenOff = screenOff;
+        if (!wasOff || screenOff || mReplayPending) {
+            return false;
+        }
+        for (int i = 0; i < DEFERRED_RESPONSES.length; i++) {
+            if (mHeld[i] != null) {
+                mReplayPending = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps a copy of the response if the screen is off, replacing any response
+     * of the same type already held.
+     *
+     * @param p parcel positioned just after the response code
+     * @return PROCESS, HOLD or HAND_OFF
+     */
+    synchronized int hold(int response, Parcel p) {
+        int index = indexOf(response);
+        if (!mScreenOff) {
+            // A fresh response makes anything still held for this type stale.
+            mHeld[index] = null;
+            if (mReplayPending || mHandOffs > 0) {
+                mHandOffs++;
+                mHandedOff++;
+                return HAND_OFF;
+            }
+            return PROCESS;
+        }
+        if (mHeld[index] != null) {
+            mSuperseded[index]++;
+        }
+        mHeld[index] = p.marshall();
+        mHeldPosition[index] = p.dataPosition();
+        mDeferred[index]++;
+        return HOLD;
+    }
+
+    /**
+     * Must be called once a response that hold() handed off has been processed.
+     */
+    synchronized void onHandOffDone() {
+        mHandOffs--;
+    }
+
+    /**
+     * Hands every held response to the replayer and forgets it. The replayer
+     * is called without this object locked.
+     */
+    void replay(Replayer replayer) {
+        byte[][] held = new byte[DEFERRED_RESPONSES.length][];
+        int[] positions = new int[DEFERRED_RESPONSES.length];
+        synchronized (this) {
+            for (int i = 0; i < DEFERRED_RESPONSES.length; i++) {
+                if (mHeld[i] != null) {
+                    held[i] = mHeld[i];
+                    positions[i] = mHeldPosition[i];
+                    mHeld[i] = null;
+                    mReplayed[i]++;
+                }
+            }
+        }
+
+        try {
+            for (int i = 0; i < DEFERRED_RESPONSES.length; i++) {
+                byte[] data = held[i];
+                if (data == null) {
+                    continue;
+                }
+                Parcel p = Parcel.obtain();
+                try {
+                    p.unmarshall(data, 0, data.length);
+                    p.setDataPosition(positions[i]);
+                    replayer.replayUnsolicited(DEFERRED_RESPONSES[i], p);
+                } finally {
+                    p.recycle();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mReplayPending = false;
+            }
+        }
+    }
+
+    private static int indexOf(int response) {
+        for (int i = 0; i < DEFERRED_RESPONSES.length; i++) {
+            if (DEFERRED_RESPONSES[i] == response) return i;
+        }
+        return -1;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(" RILUnsolDeferral: enabled=" + mEnabled + " screenOff=" + mScreenOff
+                + " replayPending=" + mReplayPending + " handOffs=" + mHandOffs
+                + " handedOff=" + mHandedOff);
+        for (int i = 0; i < DEFERRED_RESPONSES.length; i++) {
+            pw.println("  " + RIL.responseToString(DEFERRED_RESPONSES[i])
+                    + ": deferred=" + mDeferred[i] + " superseded=" + mSuperseded[i]
+                    + " replayed=" + mReplayed[i] + " held=" + (mHeld[i] != null));
+        }
+    }
+}
@@ -38,6 +38,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.provider.Settings;
@@ -69,6 +70,8 @@ import com.android.internal.telephony.GsmAlphabet.TextEncodingDetails;
 import com.android.internal.telephony.uicc.UiccCard;
 import com.android.internal.telephony.uicc.UiccController;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -135,6 +138,12 @@ public abstract class SMSDispatcher extends Handler {
     protected static final int EVENT_NEW_ICC_SMS = 14;
     protected static final int EVENT_ICC_CHANGED = 15;
 
+    /** Send queued messages while the radio has room for them. */
+    private static final int EVENT_SEND_QUEUE_PUMP = 16;
+
+    /** Send queued messages after an outstanding message timed out. */
+    private static final int EVENT_SEND_QUEUE_TIMEOUT = 17;
+
     protected PhoneBase mPhone;
     protected final Context mContext;
     protected final ContentResolver mResolver;
@@ -143,13 +152,21 @@ public abstract class SMSDispatcher extends Handler {
 
     /** Maximum number of times to retry sending a failed SMS. */
     private static final int MAX_SEND_RETRIES = 3;
-    /** Delay before next send attempt on a failed SMS, in milliseconds. */
+    /** Delay before the first retry of a failed SMS, doubled for each further retry. */
     private static final int SEND_RETRY_DELAY = 2000;
     /** single part SMS */
     private static final int SINGLE_PART_SMS = 1;
     /** Message sending queue limit */
     private static final int MO_MSG_QUEUE_LIMIT = 5;
 
+    /**
+     * Number of messages to keep outstanding at the radio when sending through
+     * {@link #mSendQueue}. Sending through the queue is disabled by default (0).
+     */
+    private static final String PROPERTY_SEND_QUEUE_WINDOW = "persist.radio.sms_send_window";
+    /** Time after which a queued message without a reply frees its slot. */
+    private static final long SEND_QUEUE_TIMEOUT = 2 * 60 * 1000;
+
     /**
      * Message reference for a CONCATENATED_8_BIT_REFERENCE or
      * CONCATENATED_16_BIT_REFERENCE message set.  Should be
@@ -166,6 +183,12 @@ public abstract class SMSDispatcher extends Handler {
     /** Number of outgoing SmsTrackers waiting for user confirmation. */
     private int mPendingTrackerCount;
 
+    /** Outbound message scheduler, or null to hand messages to the radio right away. */
+    private final SmsSendQueue<SmsTracker> mSendQueue;
+
+    /** Source of the jitter added to retry delays. */
+    private final Random mRetryJitter = new Random();
+
     /* Flags indicating whether the current device allows sms service */
     protected boolean mSmsCapable = true;
     protected boolean mSmsSendDisabled;
@@ -197,6 +220,31 @@ public abstract class SMSDispatcher extends Handler {
                 com.android.internal.R.bool.config_sms_capable);
         mSmsSendDisabled = !mTelephonyManager.getSmsSendCapableForPhone(
                 mPhone.getPhoneId(), mSmsCapable);
+
+        int sendWindow = SystemProperties.getInt(PROPERTY_SEND_QUEUE_WINDOW, 0);
+        if (sendWindow > 0) {
+            mSendQueue = new SmsSendQueue<SmsTracker>(new SmsSendQueue.Callback<SmsTracker>() {
+                @Override
+                public void send(SmsTracker tracker, boolean expectMore) {
+                    if (expectMore) {
+                        tracker.mExpectMore = true;
+                    }
+                    sendSms(tracker);
+                }
+
+                @Override
+                public void requestPump(long delayMillis) {
+                    if (delayMillis <= 0) {
+                        sendEmptyMessage(EVENT_SEND_QUEUE_PUMP);
+                    } else {
+                        removeMessages(EVENT_SEND_QUEUE_TIMEOUT);
+                        sendEmptyMessageDelayed(EVENT_SEND_QUEUE_TIMEOUT, delayMillis);
+                    }
+                }
+            }, sendWindow, SEND_QUEUE_TIMEOUT);
+        } else {
+            mSendQueue = null;
+        }
         Rlog.d(TAG, "SMSDispatcher: ctor mSmsCapable=" + mSmsCapable + " format=" + getFormat()
                 + " mSmsSendDisabled=" + mSmsSendDisabled);
     }
@@ -257,13 +305,20 @@ public abstract class SMSDispatcher extends Handler {
         Rlog.d(TAG, "handleStatusReport() called with no subclass.");
     }
 
+    /** How long to wait for a delivery status report before giving up: 3 days. */
+    private static final long DELIVERY_REPORT_TIMEOUT = 3 * 24 * 60 * 60 * 1000L;
+
+    /** Most sent messages to keep waiting for a status report. */
+    private static final int MAX_DELIVERY_PENDING = 256;
+
     /* TODO: Need to figure out how to keep track of status report routing in a
      *       persistent manner. If the phone process restarts (reboot or crash),
      *       we will lose this list and any status reports that come in after
      *       will be dropped.
      */
     /** Sent messages awaiting a delivery status report. */
-    protected final ArrayList<SmsTracker> deliveryPendingList = new ArrayList<SmsTracker>();
+    protected final SmsDeliveryPendingList<SmsTracker> deliveryPendingList =
+            new SmsDeliveryPendingList<SmsTracker>(DELIVERY_REPORT_TIMEOUT, MAX_DELIVERY_PENDING);
 
     /**
      * Handles events coming from the phone stack. Overridden from handler.
@@ -306,7 +361,7 @@ public abstract class SMSDispatcher extends Handler {
                 } else {
                     tracker.mExpectMore = false;
                 }
-                sendSms(tracker);
+                enqueueSms(tracker);
             }
             mPendingTrackerCount--;
             break;
@@ -324,6 +379,11 @@ public abstract class SMSDispatcher extends Handler {
             handleStatusReport(msg.obj);
             break;
 
+        case EVENT_SEND_QUEUE_PUMP:
+        case EVENT_SEND_QUEUE_TIMEOUT:
+            mSendQueue.pump(SystemClock.elapsedRealtime());
+            break;
+
         default:
             Rlog.e(TAG, "handleMessage() ignoring message of unexpected type " + msg.what);
         }
@@ -626,6 +686,9 @@ public abstract class SMSDispatcher extends Handler {
         SmsTracker tracker = (SmsTracker) ar.userObj;
         PendingIntent sentIntent = tracker.mSentIntent;
 
+        // the radio replied, let the next queued message go even if this one is retried
+        tracker.onSendFinished();
+
         if (ar.result != null) {
             tracker.mMessageRef = ((SmsResponse)ar.result).mMessageRef;
         } else {
@@ -637,7 +700,8 @@ public abstract class SMSDispatcher extends Handler {
 
             if (tracker.mDeliveryIntent != null) {
                 // Expecting a status report.  Add it to the list.
-                deliveryPendingList.add(tracker);
+                deliveryPendingList.add(getSubId(), tracker.mMessageRef, tracker,
+                        SystemClock.elapsedRealtime());
             }
             tracker.onSent(mContext);
         } else {
@@ -675,7 +739,7 @@ public abstract class SMSDispatcher extends Handler {
                 //       implementations this retry is handled by the baseband.
                 tracker.mRetryCount++;
                 Message retryMsg = obtainMessage(EVENT_SEND_RETRY, tracker);
-                sendMessageDelayed(retryMsg, SEND_RETRY_DELAY);
+                sendMessageDelayed(retryMsg, getRetryDelay(tracker.mRetryCount));
             } else {
                 int errorCode = 0;
                 if (ar.result != null) {
@@ -1038,8 +1102,35 @@ public abstract class SMSDispatcher extends Handler {
                 return;
             }
 
+            enqueueSms(tracker);
+        }
+    }
+
+    /**
+     * Send an SMS through the outbound queue if it is enabled, or right away otherwise.
+     * The queue hands it to {@link #sendSms} on the handler thread once the radio has room.
+     * @param tracker the tracker for the SMS to send
+     */
+    protected void enqueueSms(SmsTracker tracker) {
+        if (mSendQueue == null) {
             sendSms(tracker);
+            return;
         }
+        String packageName = (tracker.mAppInfo != null) ? tracker.mAppInfo.packageName : "";
+        tracker.mSendQueue = mSendQueue;
+        mSendQueue.enqueue(packageName, tracker);
+        sendEmptyMessage(EVENT_SEND_QUEUE_PUMP);
+    }
+
+    /**
+     * Returns the delay before retrying a failed SMS: {@link #SEND_RETRY_DELAY} doubled for
+     * every earlier retry, plus up to half of that again at random so that messages that
+     * failed together are not all retried at the same moment.
+     * @param retryCount the number of the retry, starting at 1
+     */
+    private long getRetryDelay(int retryCount) {
+        long delay = (long) SEND_RETRY_DELAY << Math.min(retryCount - 1, 8);
+        return delay + (long) (mRetryJitter.nextFloat() * delay / 2);
     }
 
     /**
@@ -1363,6 +1454,9 @@ public abstract class SMSDispatcher extends Handler {
 
         private boolean mPersistMessage;
 
+        // Outbound queue holding a slot for this message while it is sent, if any
+        private SmsSendQueue<SmsTracker> mSendQueue;
+
         private SmsTracker(HashMap<String, Object> data, PendingIntent sentIntent,
                 PendingIntent deliveryIntent, PackageInfo appInfo, String destAddr, String format,
                 AtomicInteger unsentPartCount, AtomicBoolean anyPartFailed, Uri messageUri,
@@ -1508,6 +1602,15 @@ public abstract class SMSDispatcher extends Handler {
             }
         }
 
+        /**
+         * Free the slot this message holds in the outbound queue, if any.
+         */
+        void onSendFinished() {
+            if (mSendQueue != null) {
+                mSendQueue.finish(this);
+            }
+        }
+
         /**
          * Handle a failure of a single part message or a part of a multipart message
          *
@@ -1516,6 +1619,7 @@ public abstract class SMSDispatcher extends Handler {
          * @param errorCode
          */
         public void onFailed(Context context, int error, int errorCode) {
+            onSendFinished();
             if (mAnyPartFailed != null) {
                 mAnyPartFailed.set(true);
             }
@@ -1555,6 +1659,7 @@ public abstract class SMSDispatcher extends Handler {
          * @param context The Context
          */
         public void onSent(Context context) {
+            onSendFinished();
             // is single part or last part of multipart message
             boolean isSinglePartOrLastPart = true;
             if (mUnsentPartCount != null) {
@@ -1798,4 +1903,12 @@ public abstract class SMSDispatcher extends Handler {
             throw new SecurityException("Caller is not phone or carrier app!");
         }
     }
+
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println(getClass().getSimpleName() + ":");
+        deliveryPendingList.dump(pw);
+        if (mSendQueue != null) {
+            mSendQueue.dump(pw);
+        }
+    }
 }
@@ -33,11 +33,6 @@ import org.xmlpull.v1.XmlPullParserException;
 public class Sms7BitEncodingTranslator {
     private static final String TAG = "Sms7BitEncodingTranslator";
     private static final boolean DBG = Build.IS_DEBUGGABLE ;
-    private static boolean mIs7BitTranslationTableLoaded = false;
-    private static SparseIntArray mTranslationTable = null;
-    private static SparseIntArray mTranslationTableCommon = null;
-    private static SparseIntArray mTranslationTableGSM = null;
-    private static SparseIntArray mTranslationTableCDMA = null;
 
     // Parser variables
     private static final String XML_START_TAG = "SmsEnforce7BitTranslationTable";
@@ -46,18 +41,84 @@ public class Sms7BitEncodingTranslator {
     private static final String XML_FROM_TAG = "from";
     private static final String XML_TO_TAG = "to";
 
+    /**
+     * Translation of every character for each SMS format, compiled once from the XML
+     * tables. Loaded by the class loader on first use, which also publishes the arrays
+     * safely to all threads.
+     */
+    private static final class Tables {
+        static final Tables INSTANCE = new Tables();
+
+        /** Characters at or beyond the length of the arrays translate to a space. */
+        final char[] mGsm;
+        final char[] mCdma;
+        final boolean mLoaded;
+
+        private Tables() {
+            SparseIntArray common = new SparseIntArray();
+            SparseIntArray gsm = new SparseIntArray();
+            SparseIntArray cdma = new SparseIntArray();
+            load7BitTranslationTableFromXml(common, gsm, cdma);
+            mLoaded = common.size() > 0 || gsm.size() > 0 || cdma.size() > 0;
+
+            // cover every character that is in the GSM alphabet or has a mapping
+            int length = 0;
+            for (int c = Character.MAX_VALUE; c >= 0; c--) {
+                if (GsmAlphabet.isGsmSeptets((char) c)) {
+                    length = c + 1;
+                    break;
+                }
+            }
+            length = Math.max(length, maxKey(common) + 1);
+            length = Math.max(length, maxKey(gsm) + 1);
+            length = Math.max(length, maxKey(cdma) + 1);
+
+            mGsm = new char[length];
+            mCdma = new char[length];
+            for (int c = 0; c < length; c++) {
+                mGsm[c] = translateIfNeeded((char) c, false, common, gsm, cdma);
+                mCdma[c] = translateIfNeeded((char) c, true, common, gsm, cdma);
+            }
+            if (DBG) Rlog.d(TAG, "compiled translation tables for " + length + " characters");
+        }
+
+        private static int maxKey(SparseIntArray table) {
+            // SparseIntArray keeps its keys in ascending order
+            return (table.size() > 0) ? table.keyAt(table.size() - 1) : -1;
+        }
+    }
+
     /**
      * Translates each message character that is not supported by GSM 7bit
      * alphabet into a supported one
      *
      * @param message
      *            message to be translated
-     * @param throwsException
-     *            if true and some error occurs during translation, an exception
-     *            is thrown; otherwise a null String is returned
      * @return translated message or null if some error occur
      */
     public static String translate(CharSequence message) {
+        return translate(message, null);
+    }
+
+    /**
+     * Translates each message character that is not supported by GSM 7bit
+     * alphabet into a supported one, for a known MO SMS format
+     *
+     * @param message
+     *            message to be translated
+     * @param isCdmaFormat
+     *            true if the message is sent in CDMA format
+     * @return translated message or null if some error occur
+     */
+    public static String translate(CharSequence message, boolean isCdmaFormat) {
+        return translate(message, Boolean.valueOf(isCdmaFormat));
+    }
+
+    /**
+     * @param isCdmaFormat the MO SMS format, or null to look it up only if a character of
+     *            the message translates differently in the two formats
+     */
+    private static String translate(CharSequence message, Boolean isCdmaFormat) {
         if (message == null) {
             Rlog.w(TAG, "Null message can not be translated");
             return null;
@@ -68,27 +129,33 @@ public class Sms7BitEncodingTranslator {
             return "";
         }
 
-        if (!mIs7BitTranslationTableLoaded) {
-            mTranslationTableCommon = new SparseIntArray();
-            mTranslationTableGSM = new SparseIntArray();
-            mTranslationTableCDMA = new SparseIntArray();
-            load7BitTranslationTableFromXml();
-            mIs7BitTranslationTableLoaded = true;
+        Tables tables = Tables.INSTANCE;
+        if (!tables.mLoaded) {
+            return null;
         }
 
-        if ((mTranslationTableCommon != null && mTranslationTableCommon.size() > 0) ||
-                (mTranslationTableGSM != null && mTranslationTableGSM.size() > 0) ||
-                (mTranslationTableCDMA != null && mTranslationTableCDMA.size() > 0)) {
-            char[] output = new char[size];
-            boolean isCdmaFormat = useCdmaFormatForMoSms();
-            for (int i = 0; i < size; i++) {
-                output[i] = translateIfNeeded(message.charAt(i), isCdmaFormat);
+        char[] gsm = tables.mGsm;
+        char[] cdma = tables.mCdma;
+        char[] table = null;
+        if (isCdmaFormat != null) {
+            table = isCdmaFormat ? cdma : gsm;
+        }
+        int length = gsm.length;
+        char[] output = new char[size];
+        for (int i = 0; i < size; i++) {
+            char c = message.charAt(i);
+            if (c >= length) {
+                output[i] = ' ';
+            } else if (table != null) {
+                output[i] = table[c];
+            } else if (gsm[c] == cdma[c]) {
+                output[i] = gsm[c];
+            } else {
+                table = useCdmaFormatForMoSms() ? cdma : gsm;
+                output[i] = table[c];
             }
-
-            return String.valueOf(output);
         }
-
-        return null;
+        return String.valueOf(output);
     }
 
     /**
@@ -102,11 +169,9 @@ public class Sms7BitEncodingTranslator {
      *         space, if no mapping is found in the translation table for such
      *         character
      */
-    private static char translateIfNeeded(char c, boolean isCdmaFormat) {
+    private static char translateIfNeeded(char c, boolean isCdmaFormat,
+            SparseIntArray common, SparseIntArray gsm, SparseIntArray cdma) {
         if (noTranslationNeeded(c, isCdmaFormat)) {
-            if (DBG) {
-                Rlog.v(TAG, "No translation needed for " + Integer.toHexString(c));
-            }
             return c;
         }
 
@@ -114,38 +179,21 @@ public class Sms7BitEncodingTranslator {
          * Trying to translate unicode to Gsm 7-bit alphabet; If c is not
          * present on translation table, c does not belong to Unicode Latin-1
          * (Basic + Supplement), so we don't know how to translate it to a Gsm
-         * 7-bit character! We replace c for an empty space and advises the user
-         * about it.
+         * 7-bit character! We replace c for an empty space.
          */
-        int translation = -1;
-
-        if (mTranslationTableCommon != null) {
-            translation = mTranslationTableCommon.get(c, -1);
-        }
+        int translation = common.get(c, -1);
 
         if (translation == -1) {
             if (isCdmaFormat) {
-                if (mTranslationTableCDMA != null) {
-                    translation = mTranslationTableCDMA.get(c, -1);
-                }
+                translation = cdma.get(c, -1);
             } else {
-                if (mTranslationTableGSM != null) {
-                    translation = mTranslationTableGSM.get(c, -1);
-                }
+                translation = gsm.get(c, -1);
             }
         }
 
         if (translation != -1) {
-            if (DBG) {
-                Rlog.v(TAG, Integer.toHexString(c) + " (" + c + ")" + " translated to "
-                        + Integer.toHexString(translation) + " (" + (char) translation + ")");
-            }
             return (char) translation;
         } else {
-            if (DBG) {
-                Rlog.w(TAG, "No translation found for " + Integer.toHexString(c)
-                        + "! Replacing for empty space");
-            }
             return ' ';
         }
     }
@@ -173,7 +221,9 @@ public class Sms7BitEncodingTranslator {
      * Load the whole translation table file from the framework resource
      * encoded in XML.
      */
-    private static void load7BitTranslationTableFromXml() {
+    private static void load7BitTranslationTableFromXml(SparseIntArray common,
+            SparseIntArray gsm, SparseIntArray cdma) {
+        SparseIntArray translationTable = null;
         XmlResourceParser parser = null;
         Resources r = Resources.getSystem();
 
@@ -196,15 +246,15 @@ public class Sms7BitEncodingTranslator {
                         Rlog.d(TAG, "type: " + type);
                     }
                     if (type.equals("common")) {
-                        mTranslationTable = mTranslationTableCommon;
+                        translationTable = common;
                     } else if (type.equals("gsm")) {
-                        mTranslationTable = mTranslationTableGSM;
+                        translationTable = gsm;
                     } else if (type.equals("cdma")) {
-                        mTranslationTable = mTranslationTableCDMA;
+                        translationTable = cdma;
                     } else {
                         Rlog.e(TAG, "Error Parsing 7BitTranslationTable: found incorrect type" + type);
                     }
-                } else if (XML_CHARACTOR_TAG.equals(tag) && mTranslationTable != null) {
+                } else if (XML_CHARACTOR_TAG.equals(tag) && translationTable != null) {
                     int from = parser.getAttributeUnsignedIntValue(null,
                             XML_FROM_TAG, -1);
                     int to = parser.getAttributeUnsignedIntValue(null,
@@ -215,7 +265,7 @@ public class Sms7BitEncodingTranslator {
                                     .toUpperCase() + " -> " + Integer.toHexString(to)
                                     .toUpperCase());
                         }
-                        mTranslationTable.put (from, to);
+                        translationTable.put (from, to);
                     } else {
                         Rlog.d(TAG, "Invalid translation table file format");
                     }
@@ -36,6 +36,10 @@ import java.util.HashSet;
  * avoid delaying phone app startup. The last step is to broadcast the first pending message
  * from the main thread, then the remaining pending messages will be broadcast after the
  * previous ordered broadcast completes.
+ *
+ * The raw table is read with a single query. The multi-part segments found are loaded into
+ * the reassembly index shared by all handlers, so they can reassemble the pending messages
+ * without querying the table again. With several phones only the first scan loads the index.
  */
 public class SmsBroadcastUndelivered implements Runnable {
     private static final String TAG = "SmsBroadcastUndelivered";
@@ -99,6 +103,10 @@ public class SmsBroadcastUndelivered implements Runnable {
         HashMap<SmsReferenceKey, Integer> multiPartReceivedCount =
                 new HashMap<SmsReferenceKey, Integer>(4);
         HashSet<SmsReferenceKey> oldMultiPartMessages = new HashSet<SmsReferenceKey>(4);
+        // The handlers are still in their startup state and don't use the index until
+        // EVENT_START_ACCEPTING_SMS, which is sent after the scan.
+        SmsReassemblyIndex index = SmsReassemblyIndex.getInstance();
+        boolean rebuildIndex = index.beginRebuild();
         Cursor cursor = null;
         try {
             cursor = mResolver.query(sRawUri, PDU_PENDING_MESSAGE_PROJECTION, null, null, null);
@@ -121,6 +129,9 @@ public class SmsBroadcastUndelivered implements Runnable {
                     // deliver single-part message
                     broadcastSms(tracker);
                 } else {
+                    if (rebuildIndex) {
+                        index.addFromTable(tracker);
+                    }
                     SmsReferenceKey reference = new SmsReferenceKey(tracker);
                     Integer receivedCount = multiPartReceivedCount.get(reference);
                     if (receivedCount == null) {
@@ -145,38 +156,61 @@ public class SmsBroadcastUndelivered implements Runnable {
                     }
                 }
             }
-            // Delete old incomplete message segments
+            // Delete old incomplete message segments, in batches of one provider call each
+            SmsRawDeleteBatch batch = new SmsRawDeleteBatch();
             for (SmsReferenceKey message : oldMultiPartMessages) {
-                int rows = mResolver.delete(sRawUri, InboundSmsHandler.SELECT_BY_REFERENCE,
-                        message.getDeleteWhereArgs());
-                if (rows == 0) {
-                    Rlog.e(TAG, "No rows were deleted from raw table!");
-                } else if (DBG) {
-                    Rlog.d(TAG, "Deleted " + rows + " rows from raw table for incomplete "
-                            + message.mMessageCount + " part message");
+                index.remove(message.mAddress, message.mReferenceNumber, message.mMessageCount);
+                batch.add(InboundSmsHandler.SELECT_BY_REFERENCE, message.getDeleteWhereArgs());
+                if (batch.isFull()) {
+                    deleteBatch(batch);
                 }
             }
+            deleteBatch(batch);
+            if (rebuildIndex) {
+                index.finishRebuild(true);
+                rebuildIndex = false;
+            }
         } catch (SQLException e) {
             Rlog.e(TAG, "error reading pending SMS messages", e);
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
+            if (rebuildIndex) {
+                // The handlers rebuild the index themselves when they start.
+                index.finishRebuild(false);
+            }
             if (DBG) Rlog.d(TAG, "finished scanning raw table in "
                     + ((System.nanoTime() - startTime) / 1000000) + " ms");
         }
     }
 
+    private void deleteBatch(SmsRawDeleteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int rows = mResolver.delete(sRawUri, batch.getWhere(), batch.getWhereArgs());
+        if (rows == 0) {
+            Rlog.e(TAG, "No rows were deleted from raw table!");
+        } else if (DBG) {
+            Rlog.d(TAG, "Deleted " + rows + " rows from raw table for " + batch.size()
+                    + " incomplete messages");
+        }
+        batch.clear();
+    }
+
+    /**
+     * @return the (3GPP or 3GPP2) inbound SMS handler for the tracker's format, or null
+     */
+    private InboundSmsHandler getHandler(InboundSmsTracker tracker) {
+        return tracker.is3gpp2() ? mCdmaInboundSmsHandler : mGsmInboundSmsHandler;
+    }
+
     /**
      * Send tracker to appropriate (3GPP or 3GPP2) inbound SMS handler for broadcast.
      */
     private void broadcastSms(InboundSmsTracker tracker) {
-        InboundSmsHandler handler;
-        if (tracker.is3gpp2()) {
-            handler = mCdmaInboundSmsHandler;
-        } else {
-            handler = mGsmInboundSmsHandler;
-        }
+        InboundSmsHandler handler = getHandler(tracker);
         if (handler != null) {
             handler.sendMessage(InboundSmsHandler.EVENT_BROADCAST_SMS, tracker);
         } else {
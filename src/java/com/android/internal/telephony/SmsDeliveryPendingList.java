@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sent messages awaiting a delivery status report, indexed by subscription and
+ * message reference.
+ *
+ * Entries are kept in the order they were added, so both the expiry of reports that
+ * never arrive and the eviction of the oldest entry when the list is full only look at
+ * the head. Adding a message with the reference of one still pending replaces it, since
+ * a status report can no longer be told apart from the two.
+ *
+ * {@hide}
+ */
+public class SmsDeliveryPendingList<T> {
+    private static final String TAG = "SmsDeliveryPendingList";
+
+    private static final class Entry<T> {
+        final T mTracker;
+        final long mAddedAt;
+
+        Entry(T tracker, long addedAt) {
+            mTracker = tracker;
+            mAddedAt = addedAt;
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry<T>> mPending = new LinkedHashMap<Long, Entry<T>>();
+    private final long mTimeout;
+    private final int mMaxSize;
+
+    private long mMatched;
+    private long mOrphaned;
+    private long mExpired;
+    private long mEvicted;
+    private long mReplaced;
+
+    /**
+     * @param timeout how long to wait for a status report, in milliseconds
+     * @param maxSize the most messages to keep before dropping the oldest
+     */
+    public SmsDeliveryPendingList(long timeout, int maxSize) {
+        mTimeout = timeout;
+        mMaxSize = maxSize;
+    }
+
+    private static long key(int subId, int messageRef) {
+        return ((long) subId << 32) | (messageRef & 0xffffffffL);
+    }
+
+    /**
+     * Start waiting for the status report of a sent message.
+     * @param now the current time in milliseconds, from the same clock for every call
+     */
+    public synchronized void add(int subId, int messageRef, T tracker, long now) {
+        expire(now);
+        Long key = key(subId, messageRef);
+        // remove first so that the replacement moves to the end of the order
+        if (mPending.remove(key) != null) {
+            mReplaced++;
+            Rlog.d(TAG, "replacing pending delivery for messageRef=" + messageRef);
+        }
+        if (mPending.size() >= mMaxSize) {
+            Iterator<Entry<T>> iter = mPending.values().iterator();
+            iter.next();
+            iter.remove();
+            mEvicted++;
+        }
+        mPending.put(key, new Entry<T>(tracker, now));
+    }
+
+    /**
+     * Find the message a status report belongs to. The message stays pending until
+     * {@link #remove} is called, since a report may only be an intermediate status.
+     * @return the tracker of the message, or null if none is pending for the reference
+     */
+    public synchronized T get(int subId, int messageRef, long now) {
+        expire(now);
+        Entry<T> entry = mPending.get(key(subId, messageRef));
+        if (entry == null) {
+            mOrphaned++;
+            Rlog.d(TAG, "no pending delivery for messageRef=" + messageRef);
+            return null;
+        }
+        mMatched++;
+        return entry.mTracker;
+    }
+
+    /** Stop waiting for the status report of a message. */
+    public synchronized void remove(int subId, int messageRef) {
+        mPending.remove(key(subId, messageRef));
+    }
+
+    public synchronized int size() {
+        return mPending.size();
+    }
+
+    synchronized long getMatchedCount() {
+        return mMatched;
+    }
+
+    synchronized long getOrphanedCount() {
+        return mOrphaned;
+    }
+
+    synchronized long getExpiredCount() {
+        return mExpired;
+    }
+
+    synchronized long getEvictedCount() {
+        return mEvicted;
+    }
+
+    /** Drop the messages whose status report did not arrive in time. */
+    private void expire(long now) {
+        long oldest = now - mTimeout;
+        Iterator<Map.Entry<Long, Entry<T>>> iter = mPending.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().getValue().mAddedAt > oldest) {
+                break;
+            }
+            iter.remove();
+            mExpired++;
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println(" SmsDeliveryPendingList: pending=" + mPending.size() + " max=" + mMaxSize
+                + " timeout=" + mTimeout);
+        pw.println("  matched=" + mMatched + " orphaned=" + mOrphaned + " expired=" + mExpired
+                + " evicted=" + mEvicted + " replaced=" + mReplaced);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Per-package sliding window limit on the number of SMS messages sent.
+ *
+ * Each package keeps its send times in a ring buffer of primitive longs, so a check drops
+ * the timestamps that left the window from the head and appends the new ones at the tail
+ * without allocating. The ring starts small and doubles, up to the limit, only for packages
+ * that send that much. Packages are spread over lock stripes by name, so apps sending at the
+ * same time rarely contend. A stripe forgets packages with nothing left in the window at
+ * most once per window, instead of walking every package on every send.
+ */
+class SmsRateLimiter {
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** Send times of one package within the window, oldest first. */
+    private static final class Window {
+        long[] mStamps;
+        int mHead;
+        int mCount;
+        long mTotalSent;
+        long mTotalDenied;
+
+        Window(int maxAllowed) {
+            mStamps = new long[Math.max(Math.min(maxAllowed, INITIAL_CAPACITY), 1)];
+        }
+
+        void expire(long beginCheckPeriod) {
+            while (mCount > 0 && mStamps[mHead] < beginCheckPeriod) {
+                mHead = (mHead + 1) % mStamps.length;
+                mCount--;
+            }
+        }
+
+        long newest() {
+            return mStamps[(mHead + mCount - 1) % mStamps.length];
+        }
+
+        private void ensureCapacity(int needed, int maxAllowed) {
+            if (needed <= mStamps.length) {
+                return;
+            }
+            // copy the live timestamps to the front of a larger ring
+            int capacity = Math.max(needed, Math.min(mStamps.length * 2, maxAllowed));
+            long[] stamps = new long[capacity];
+            for (int i = 0; i < mCount; i++) {
+                stamps[i] = mStamps[(mHead + i) % mStamps.length];
+            }
+            mStamps = stamps;
+            mHead = 0;
+        }
+
+        void add(long now, int count, int maxAllowed) {
+            ensureCapacity(mCount + count, maxAllowed);
+            for (int i = 0; i < count; i++) {
+                mStamps[(mHead + mCount) % mStamps.length] = now;
+                mCount++;
+            }
+        }
+    }
+
+    private static final class Stripe {
+        final HashMap<String, Window> mWindows = new HashMap<String, Window>();
+        long mLastSweep;
+    }
+
+    private final Stripe[] mStripes = new Stripe[STRIPES];
+
+    SmsRateLimiter() {
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Record smsWaiting new messages for the package if that keeps it within the limit.
+     *
+     * @param appName the package name of the app requesting to send an SMS
+     * @param smsWaiting the number of new messages desired to send
+     * @param now the current time in milliseconds
+     * @param maxAllowed the maximum number of messages per period
+     * @param checkPeriod the length of the window in milliseconds
+     * @return true if the messages may be sent
+     */
+    boolean check(String appName, int smsWaiting, long now, int maxAllowed, long checkPeriod) {
+        long beginCheckPeriod = now - checkPeriod;
+        Stripe stripe = stripeFor(appName);
+        synchronized (stripe) {
+            if (now - stripe.mLastSweep >= checkPeriod) {
+                sweep(stripe, beginCheckPeriod);
+                stripe.mLastSweep = now;
+            }
+
+            Window window = stripe.mWindows.get(appName);
+            if (window == null) {
+                window = new Window(maxAllowed);
+                stripe.mWindows.put(appName, window);
+            }
+            window.expire(beginCheckPeriod);
+
+            if (window.mCount + smsWaiting <= maxAllowed) {
+                window.add(now, smsWaiting, maxAllowed);
+                window.mTotalSent += smsWaiting;
+                return true;
+            }
+            window.mTotalDenied += smsWaiting;
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of messages the package sent within the window ending now
+     */
+    int getCount(String appName, long now, long checkPeriod) {
+        Stripe stripe = stripeFor(appName);
+        synchronized (stripe) {
+            Window window = stripe.mWindows.get(appName);
+            if (window == null) {
+                return 0;
+            }
+            window.expire(now - checkPeriod);
+            return window.mCount;
+        }
+    }
+
+    void clear() {
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                stripe.mWindows.clear();
+            }
+        }
+    }
+
+    /**
+     * Remove packages with no messages left in the window. This can happen if an SMS app is
+     * used to send messages and then uninstalled.
+     */
+    private static void sweep(Stripe stripe, long beginCheckPeriod) {
+        Iterator<Map.Entry<String, Window>> iter = stripe.mWindows.entrySet().iterator();
+        while (iter.hasNext()) {
+            Window window = iter.next().getValue();
+            if (window.mCount == 0 || window.newest() < beginCheckPeriod) {
+                iter.remove();
+            }
+        }
+    }
+
+    private Stripe stripeFor(String appName) {
+        int hash = appName.hashCode();
+        hash ^= (hash >>> 16);
+        return mStripes[hash & (STRIPES - 1)];
+    }
+
+    void dump(PrintWriter pw, long now, long checkPeriod) {
+        pw.println(" SmsRateLimiter: packages sent/denied since tracked, in current window:");
+        long beginCheckPeriod = now - checkPeriod;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                for (Map.Entry<String, Window> entry : stripe.mWindows.entrySet()) {
+                    Window window = entry.getValue();
+                    window.expire(beginCheckPeriod);
+                    pw.println("  " + entry.getKey() + ": inWindow=" + window.mCount
+                            + " sent=" + window.mTotalSent + " denied=" + window.mTotalDenied);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.ArrayList;
+
+/**
+ * Collects raw table delete selections so that the rows of several messages can be removed
+ * with a single provider call, i.e. a single database transaction, instead of one call per
+ * message. Used for the expired partial messages found at boot; delivered messages are
+ * deleted one by one as soon as their broadcast completes. Not thread safe.
+ */
+class SmsRawDeleteBatch {
+    /**
+     * Flush before the combined selection gets close to SQLite's limit of 999 bound
+     * arguments per statement; SELECT_BY_REFERENCE uses three per message.
+     */
+    static final int MAX_MESSAGES = 100;
+
+    private final ArrayList<String> mWheres = new ArrayList<String>();
+    private final ArrayList<String[]> mWhereArgs = new ArrayList<String[]>();
+
+    void add(String where, String[] whereArgs) {
+        mWheres.add(where);
+        mWhereArgs.add(whereArgs);
+    }
+
+    boolean isEmpty() {
+        return mWheres.isEmpty();
+    }
+
+    int size() {
+        return mWheres.size();
+    }
+
+    boolean isFull() {
+        return mWheres.size() >= MAX_MESSAGES;
+    }
+
+    /**
+     * @return all pending selections OR-ed together
+     */
+    String getWhere() {
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < mWheres.size(); i++) {
+            if (i > 0) {
+                where.append(" OR ");
+            }
+            where.append('(').append(mWheres.get(i)).append(')');
+        }
+        return where.toString();
+    }
+
+    /**
+     * @return the arguments of all pending selections, in the order of {@link #getWhere()}
+     */
+    String[] getWhereArgs() {
+        ArrayList<String> args = new ArrayList<String>();
+        for (String[] whereArgs : mWhereArgs) {
+            if (whereArgs != null) {
+                for (String arg : whereArgs) {
+                    args.add(arg);
+                }
+            }
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    void clear() {
+        mWheres.clear();
+        mWhereArgs.clear();
+    }
+}
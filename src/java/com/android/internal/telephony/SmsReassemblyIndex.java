@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * In-memory copy of the multi-part message segments stored in the raw table, keyed by
+ * originating address, reference number and segment count.
+ *
+ * The raw table stays the record used to recover messages after a crash; this index only
+ * answers the duplicate and completeness checks that used to need a query per segment.
+ * Every insert to and delete from the raw table is written through, and the index is
+ * rebuilt from the table when {@link InboundSmsHandler} leaves its startup state.
+ *
+ * The raw table is shared by the handlers of every phone and format, and the duplicate and
+ * completeness queries never filtered by either, so there is a single index per process.
+ * Only one caller loads it from the table; see {@link #beginRebuild()}.
+ */
+class SmsReassemblyIndex {
+
+    /** Segments received so far for one concatenated message. */
+    private static final class Entry {
+        final byte[][] mPdus;
+        int mReceived;
+        int mFirstDestPort = -1;
+
+        Entry(int messageCount) {
+            mPdus = new byte[messageCount][];
+        }
+    }
+
+    /**
+     * Used as the HashMap key for matching concatenated message segments.
+     */
+    private static final class Key {
+        final String mAddress;
+        final int mReferenceNumber;
+        final int mMessageCount;
+
+        Key(String address, int referenceNumber, int messageCount) {
+            mAddress = address;
+            mReferenceNumber = referenceNumber;
+            mMessageCount = messageCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mReferenceNumber * 31) + mMessageCount) * 31
+                    + (mAddress != null ? mAddress.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key other = (Key) o;
+                return (other.mAddress == null ? mAddress == null
+                                : other.mAddress.equals(mAddress))
+                        && (other.mReferenceNumber == mReferenceNumber)
+                        && (other.mMessageCount == mMessageCount);
+            }
+            return false;
+        }
+    }
+
+    private static final SmsReassemblyIndex sInstance = new SmsReassemblyIndex();
+
+    private final HashMap<Key, Entry> mEntries = new HashMap<Key, Entry>();
+
+    /** False until the first rebuild, and after a failed one; callers then query instead. */
+    private boolean mReady;
+
+    /** True while one caller is loading the index from the raw table. */
+    private boolean mRebuilding;
+
+    /**
+     * Messages deleted while a rebuild is reading the raw table. Their rows may still be in
+     * the rebuild's cursor and must not be added back.
+     */
+    private final HashSet<Key> mRemovedDuringRebuild = new HashSet<Key>();
+
+    /**
+     * @return the index of the raw table, shared by all inbound SMS handlers
+     */
+    static SmsReassemblyIndex getInstance() {
+        return sInstance;
+    }
+
+    synchronized boolean isReady() {
+        return mReady;
+    }
+
+    /**
+     * Claims the rebuild of the index. If this returns true the caller must load every
+     * multi-part row of the raw table with {@link #addFromTable} and then call
+     * {@link #finishRebuild}.
+     *
+     * @return false if the index is already ready or another caller is rebuilding it
+     */
+    synchronized boolean beginRebuild() {
+        if (mReady || mRebuilding) {
+            return false;
+        }
+        mRebuilding = true;
+        mEntries.clear();
+        mRemovedDuringRebuild.clear();
+        return true;
+    }
+
+    /**
+     * Records a segment read from the raw table during a rebuild, unless its message has
+     * been deleted since the rebuild started.
+     */
+    synchronized boolean addFromTable(InboundSmsTracker tracker) {
+        if (mRemovedDuringRebuild.contains(keyOf(tracker))) {
+            return false;
+        }
+        return add(tracker);
+    }
+
+    /**
+     * @param success false if the raw table could not be read; the index then stays disabled
+     * until the next rebuild
+     */
+    synchronized void finishRebuild(boolean success) {
+        mRebuilding = false;
+        mRemovedDuringRebuild.clear();
+        mReady = success;
+        if (!success) {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * @return the stored PDU for the same segment as the tracker, or null if there is none
+     */
+    synchronized byte[] getSegment(InboundSmsTracker tracker) {
+        Entry entry = mEntries.get(keyOf(tracker));
+        if (entry == null) {
+            return null;
+        }
+        int index = indexOf(tracker);
+        return index < 0 ? null : entry.mPdus[index];
+    }
+
+    /**
+     * Records a segment that was written to the raw table.
+     * @return false if the sequence number is out of range or the segment was already present
+     */
+    synchronized boolean add(InboundSmsTracker tracker) {
+        int index = indexOf(tracker);
+        if (index < 0) {
+            return false;
+        }
+        Key key = keyOf(tracker);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(tracker.getMessageCount());
+            mEntries.put(key, entry);
+        }
+        if (entry.mPdus[index] != null) {
+            return false;
+        }
+        entry.mPdus[index] = tracker.getPdu();
+        entry.mReceived++;
+        if (index == 0) {
+            // Prefer the port from the first segment, as the raw table query did.
+            entry.mFirstDestPort = tracker.getDestPort();
+        }
+        return true;
+    }
+
+    /**
+     * @return the PDUs of the message in segment order once every segment is present,
+     * otherwise null
+     */
+    synchronized byte[][] getCompleteSegments(InboundSmsTracker tracker) {
+        Entry entry = mEntries.get(keyOf(tracker));
+        if (entry == null || entry.mReceived < entry.mPdus.length) {
+            return null;
+        }
+        return entry.mPdus.clone();
+    }
+
+    /**
+     * @return destination port of the first segment, or -1 if unknown or without a port
+     */
+    synchronized int getFirstDestPort(InboundSmsTracker tracker) {
+        Entry entry = mEntries.get(keyOf(tracker));
+        return entry == null ? -1 : entry.mFirstDestPort;
+    }
+
+    /**
+     * Forgets a message whose rows were deleted from the raw table with
+     * {@link InboundSmsHandler#SELECT_BY_REFERENCE}.
+     */
+    synchronized void remove(String address, int referenceNumber, int messageCount) {
+        Key key = new Key(address, referenceNumber, messageCount);
+        mEntries.remove(key);
+        if (mRebuilding) {
+            mRemovedDuringRebuild.add(key);
+        }
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static Key keyOf(InboundSmsTracker tracker) {
+        return new Key(tracker.getAddress(), tracker.getReferenceNumber(),
+                tracker.getMessageCount());
+    }
+
+    private static int indexOf(InboundSmsTracker tracker) {
+        int index = tracker.getSequenceNumber() - tracker.getIndexOffset();
+        return (index < 0 || index >= tracker.getMessageCount()) ? -1 : index;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outbound SMS scheduler for one dispatcher.
+ *
+ * Messages are queued per sending package and handed to the radio round robin across
+ * packages, so an app sending a long burst can not hold back a single message from
+ * another app by more than one message per package. At most {@code window} messages are
+ * outstanding at the radio at a time; every message sent while more are still queued is
+ * marked as expecting more, so the radio can keep the link to the network open across
+ * the whole burst.
+ *
+ * A message stays outstanding until {@link #finish} is called for it. A message that has
+ * not finished after {@code timeout} milliseconds frees its slot anyway, so a lost reply
+ * can only slow the queue down but never stall it.
+ *
+ * {@hide}
+ */
+public class SmsSendQueue<T> {
+    private static final String TAG = "SmsSendQueue";
+
+    public interface Callback<T> {
+        /** Send the message now. Called without holding any lock of the queue. */
+        void send(T item, boolean expectMore);
+
+        /** Call {@link SmsSendQueue#pump} again after the delay, on the sending thread. */
+        void requestPump(long delayMillis);
+    }
+
+    private final Callback<T> mCallback;
+    private final int mWindow;
+    private final long mTimeout;
+
+    /** Queued messages per package; iteration order is the round robin order. */
+    private final LinkedHashMap<String, ArrayDeque<T>> mQueues =
+            new LinkedHashMap<String, ArrayDeque<T>>();
+    /** Outstanding messages and the time they were sent. */
+    private final IdentityHashMap<T, Long> mInFlight = new IdentityHashMap<T, Long>();
+    private int mDepth;
+
+    private long mEnqueued;
+    private long mSent;
+    private long mTimedOut;
+    private int mMaxDepth;
+
+    private long mBurstStart;
+    private int mBurstSent;
+    private float mLastBurstRate;
+    private float mMaxBurstRate;
+
+    /**
+     * @param window the most messages outstanding at the radio at a time
+     * @param timeout milliseconds after which an unfinished message frees its slot
+     */
+    public SmsSendQueue(Callback<T> callback, int window, long timeout) {
+        mCallback = callback;
+        mWindow = Math.max(window, 1);
+        mTimeout = timeout;
+    }
+
+    /**
+     * Queue a message of the given package. The caller must arrange for {@link #pump}
+     * to be called on the sending thread afterwards.
+     */
+    public synchronized void enqueue(String packageName, T item) {
+        // a message handed back for another attempt no longer holds its old slot
+        mInFlight.remove(item);
+        ArrayDeque<T> queue = mQueues.get(packageName);
+        if (queue == null) {
+            queue = new ArrayDeque<T>();
+            mQueues.put(packageName, queue);
+        }
+        queue.addLast(item);
+        mDepth++;
+        mEnqueued++;
+        if (mDepth > mMaxDepth) mMaxDepth = mDepth;
+    }
+
+    /**
+     * Free the slot of a message once the radio replied or the message failed.
+     * Does nothing if the message is not outstanding.
+     */
+    public void finish(T item) {
+        boolean removed;
+        synchronized (this) {
+            removed = mInFlight.remove(item) != null;
+        }
+        if (removed) {
+            mCallback.requestPump(0);
+        }
+    }
+
+    /**
+     * Send queued messages while there are free slots.
+     * @param now the current time in milliseconds, from the same clock for every call
+     */
+    public void pump(long now) {
+        while (true) {
+            T item;
+            boolean expectMore;
+            synchronized (this) {
+                long oldest = expireInFlight(now);
+                if (mDepth == 0 || mInFlight.size() >= mWindow) {
+                    if (mDepth > 0) {
+                        // wait for a reply, or for the oldest slot to time out
+                        mCallback.requestPump(oldest + mTimeout - now);
+                    }
+                    return;
+                }
+                item = poll();
+                expectMore = mDepth > 0;
+                mInFlight.put(item, now);
+                onSent(now);
+            }
+            mCallback.send(item, expectMore);
+        }
+    }
+
+    /** Take the next message in round robin order. Called with the lock held. */
+    private T poll() {
+        Iterator<Map.Entry<String, ArrayDeque<T>>> iter = mQueues.entrySet().iterator();
+        Map.Entry<String, ArrayDeque<T>> entry = iter.next();
+        ArrayDeque<T> queue = entry.getValue();
+        T item = queue.pollFirst();
+        iter.remove();
+        if (!queue.isEmpty()) {
+            // move the package to the back of the round
+            mQueues.put(entry.getKey(), queue);
+        }
+        mDepth--;
+        return item;
+    }
+
+    /**
+     * Free the slots of messages sent more than the timeout ago. Called with the lock held.
+     * @return the send time of the oldest message still outstanding, or now if none is
+     */
+    private long expireInFlight(long now) {
+        long oldest = now;
+        Iterator<Long> iter = mInFlight.values().iterator();
+        while (iter.hasNext()) {
+            long sentAt = iter.next();
+            if (now - sentAt >= mTimeout) {
+                iter.remove();
+                mTimedOut++;
+                Rlog.e(TAG, "no reply for queued SMS, freeing its slot");
+            } else if (sentAt < oldest) {
+                oldest = sentAt;
+            }
+        }
+        return oldest;
+    }
+
+    /** Track the send rate of the current burst. Called with the lock held. */
+    private void onSent(long now) {
+        mSent++;
+        if (mBurstSent == 0) {
+            mBurstStart = now;
+        }
+        mBurstSent++;
+        if (mDepth == 0) {
+            long elapsed = now - mBurstStart;
+            if (mBurstSent > 1 && elapsed > 0) {
+                mLastBurstRate = (mBurstSent - 1) * 1000f / elapsed;
+                if (mLastBurstRate > mMaxBurstRate) mMaxBurstRate = mLastBurstRate;
+            }
+            mBurstSent = 0;
+        }
+    }
+
+    public synchronized int getDepth() {
+        return mDepth;
+    }
+
+    public synchronized int getInFlight() {
+        return mInFlight.size();
+    }
+
+    synchronized long getTimedOutCount() {
+        return mTimedOut;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println(" SmsSendQueue: window=" + mWindow + " timeout=" + mTimeout);
+        pw.println("  depth=" + mDepth + " maxDepth=" + mMaxDepth + " inFlight="
+                + mInFlight.size() + " packages=" + mQueues.size());
+        pw.println("  enqueued=" + mEnqueued + " sent=" + mSent + " timedOut=" + mTimedOut);
+        pw.println("  lastBurstRate=" + mLastBurstRate + "/s maxBurstRate=" + mMaxBurstRate
+                + "/s");
+    }
+}
@@ -41,17 +41,17 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -112,17 +112,20 @@ public class SmsUsageMonitor {
     private final AtomicInteger mCheckPeriod = new AtomicInteger(0);
     private final AtomicInteger mMaxAllowed = new AtomicInteger(0);
 
-    private final HashMap<String, ArrayList<Long>> mSmsStamp =
-            new HashMap<String, ArrayList<Long>>();
+    /** Messages sent per package within the last {@link #mCheckPeriod}. */
+    private final SmsRateLimiter mRateLimiter = new SmsRateLimiter();
 
     /** Context for retrieving regexes from XML resource. */
     private final Context mContext;
 
-    /** Country code for the cached short code pattern matcher. */
-    private String mCurrentCountry;
+    /** Last country code passed to {@link #checkDestination}, used when none is known. */
+    private volatile String mCurrentCountry;
 
-    /** Cached short code pattern matcher for {@link #mCurrentCountry}. */
-    private ShortCodePatternMatcher mCurrentPatternMatcher;
+    /** Short code pattern matchers for every country, replaced when the pattern file changes. */
+    private volatile ShortCodePatterns mPatterns;
+
+    /** Held while loading {@link #mPatterns}; lookups never take it. */
+    private final Object mPatternsLock = new Object();
 
     /** Notice when the enabled setting changes - can be changed through gservices */
     private final AtomicBoolean mCheckEnabled = new AtomicBoolean(true);
@@ -133,9 +136,6 @@ public class SmsUsageMonitor {
     /** File holding the patterns */
     private final File mPatternFile = new File(SHORT_CODE_PATH);
 
-    /** Last modified time for pattern file */
-    private long mPatternFileLastModified = 0;
-
     /** Directory for per-app SMS permission XML file. */
     private static final String SMS_POLICY_FILE_DIRECTORY = "/data/misc/sms";
 
@@ -221,6 +221,30 @@ public class SmsUsageMonitor {
         }
     }
 
+    /**
+     * Immutable set of short code pattern matchers for all countries, parsed from one
+     * version of the pattern file or from the resource if there is no file.
+     */
+    private static final class ShortCodePatterns {
+        private final HashMap<String, ShortCodePatternMatcher> mMatchers;
+        /** Modification time of the pattern file, or 0 if loaded from the resource. */
+        final long mLastModified;
+
+        ShortCodePatterns(HashMap<String, ShortCodePatternMatcher> matchers,
+                long lastModified) {
+            mMatchers = matchers;
+            mLastModified = lastModified;
+        }
+
+        ShortCodePatternMatcher get(String country) {
+            return mMatchers.get(country);
+        }
+
+        int size() {
+            return mMatchers.size();
+        }
+    }
+
     /**
      * Observe the secure setting for enable flag
      */
@@ -280,24 +304,53 @@ public class SmsUsageMonitor {
     }
 
     /**
-     * Return a pattern matcher object for the specified country.
-     * @param country the country to search for
-     * @return a {@link ShortCodePatternMatcher} for the specified country, or null if not found
+     * Return the pattern matchers for all countries, reloading them if the pattern file was
+     * added, removed or modified since they were parsed.
+     */
+    private ShortCodePatterns getShortCodePatterns() {
+        // lastModified() returns 0 if the file does not exist
+        long lastModified = mPatternFile.lastModified();
+        ShortCodePatterns patterns = mPatterns;
+        if (patterns != null && patterns.mLastModified == lastModified) {
+            return patterns;
+        }
+        synchronized (mPatternsLock) {
+            patterns = mPatterns;
+            if (patterns == null || patterns.mLastModified != lastModified) {
+                HashMap<String, ShortCodePatternMatcher> matchers = null;
+                if (lastModified != 0) {
+                    if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
+                    matchers = getPatternMatchersFromFile();
+                }
+                if (matchers == null) {
+                    if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
+                    matchers = getPatternMatchersFromResource();
+                }
+                patterns = new ShortCodePatterns(matchers, lastModified);
+                mPatterns = patterns;
+            }
+            return patterns;
+        }
+    }
+
+    /**
+     * Parse the pattern matchers for all countries from the pattern file.
+     * @return a map from country code to {@link ShortCodePatternMatcher}, or null if the
+     *  file could not be read
      */
-    private ShortCodePatternMatcher getPatternMatcherFromFile(String country) {
+    private HashMap<String, ShortCodePatternMatcher> getPatternMatchersFromFile() {
         FileReader patternReader = null;
         XmlPullParser parser = null;
         try {
             patternReader = new FileReader(mPatternFile);
             parser = Xml.newPullParser();
             parser.setInput(patternReader);
-            return getPatternMatcherFromXmlParser(parser, country);
+            return getPatternMatchersFromXmlParser(parser);
         } catch (FileNotFoundException e) {
             Rlog.e(TAG, "Short Code Pattern File not found");
         } catch (XmlPullParserException e) {
             Rlog.e(TAG, "XML parser exception reading short code pattern file", e);
         } finally {
-            mPatternFileLastModified = mPatternFile.lastModified();
             if (patternReader != null) {
                 try {
                     patternReader.close();
@@ -307,19 +360,21 @@ public class SmsUsageMonitor {
         return null;
     }
 
-    private ShortCodePatternMatcher getPatternMatcherFromResource(String country) {
+    private HashMap<String, ShortCodePatternMatcher> getPatternMatchersFromResource() {
         int id = com.android.internal.R.xml.sms_short_codes;
         XmlResourceParser parser = null;
         try {
             parser = mContext.getResources().getXml(id);
-            return getPatternMatcherFromXmlParser(parser, country);
+            return getPatternMatchersFromXmlParser(parser);
         } finally {
             if (parser != null) parser.close();
         }
     }
 
-    private ShortCodePatternMatcher getPatternMatcherFromXmlParser(XmlPullParser parser,
-            String country) {
+    private HashMap<String, ShortCodePatternMatcher> getPatternMatchersFromXmlParser(
+            XmlPullParser parser) {
+        HashMap<String, ShortCodePatternMatcher> matchers =
+                new HashMap<String, ShortCodePatternMatcher>();
         try {
             XmlUtils.beginDocument(parser, TAG_SHORTCODES);
 
@@ -327,19 +382,19 @@ public class SmsUsageMonitor {
                 XmlUtils.nextElement(parser);
                 String element = parser.getName();
                 if (element == null) {
-                    Rlog.e(TAG, "Parsing pattern data found null");
                     break;
                 }
 
                 if (element.equals(TAG_SHORTCODE)) {
-                    String currentCountry = parser.getAttributeValue(null, ATTR_COUNTRY);
-                    if (VDBG) Rlog.d(TAG, "Found country " + currentCountry);
-                    if (country.equals(currentCountry)) {
+                    String country = parser.getAttributeValue(null, ATTR_COUNTRY);
+                    if (VDBG) Rlog.d(TAG, "Found country " + country);
+                    if (country != null && !matchers.containsKey(country)) {
                         String pattern = parser.getAttributeValue(null, ATTR_PATTERN);
                         String premium = parser.getAttributeValue(null, ATTR_PREMIUM);
                         String free = parser.getAttributeValue(null, ATTR_FREE);
                         String standard = parser.getAttributeValue(null, ATTR_STANDARD);
-                        return new ShortCodePatternMatcher(pattern, premium, free, standard);
+                        matchers.put(country,
+                                new ShortCodePatternMatcher(pattern, premium, free, standard));
                     }
                 } else {
                     Rlog.e(TAG, "Error: skipping unknown XML tag " + element);
@@ -350,13 +405,13 @@ public class SmsUsageMonitor {
         } catch (IOException e) {
             Rlog.e(TAG, "I/O exception reading short code patterns", e);
         }
-        if (DBG) Rlog.d(TAG, "Country (" + country + ") not found");
-        return null;    // country not found
+        if (DBG) Rlog.d(TAG, "Loaded short code patterns for " + matchers.size() + " countries");
+        return matchers;
     }
 
     /** Clear the SMS application list for disposal. */
     void dispose() {
-        mSmsStamp.clear();
+        mRateLimiter.clear();
     }
 
     /**
@@ -370,17 +425,17 @@ public class SmsUsageMonitor {
      *  of new sms messages
      */
     public boolean check(String appName, int smsWaiting) {
-        synchronized (mSmsStamp) {
-            removeExpiredTimestamps();
-
-            ArrayList<Long> sentList = mSmsStamp.get(appName);
-            if (sentList == null) {
-                sentList = new ArrayList<Long>();
-                mSmsStamp.put(appName, sentList);
-            }
+        long ct = System.currentTimeMillis();
+        if (VDBG) log("SMS send count=" + smsWaiting + " time=" + ct);
+        return mRateLimiter.check(appName, smsWaiting, ct, mMaxAllowed.get(),
+                mCheckPeriod.get());
+    }
 
-            return isUnderLimit(sentList, smsWaiting);
-        }
+    /**
+     * @return the number of messages the app sent within the current checking period
+     */
+    public int getSentCount(String appName) {
+        return mRateLimiter.getCount(appName, System.currentTimeMillis(), mCheckPeriod.get());
     }
 
     /**
@@ -398,42 +453,37 @@ public class SmsUsageMonitor {
      *  {@link #CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE}, or {@link #CATEGORY_PREMIUM_SHORT_CODE}.
      */
     public int checkDestination(String destAddress, String countryIso) {
-        synchronized (mSettingsObserverHandler) {
-            // always allow emergency numbers
-            if (PhoneNumberUtils.isEmergencyNumber(destAddress, countryIso)) {
-                if (DBG) Rlog.d(TAG, "isEmergencyNumber");
-                return CATEGORY_NOT_SHORT_CODE;
-            }
-            // always allow if the feature is disabled
-            if (!mCheckEnabled.get()) {
-                if (DBG) Rlog.e(TAG, "check disabled");
-                return CATEGORY_NOT_SHORT_CODE;
-            }
+        // always allow emergency numbers
+        if (PhoneNumberUtils.isEmergencyNumber(destAddress, countryIso)) {
+            if (DBG) Rlog.d(TAG, "isEmergencyNumber");
+            return CATEGORY_NOT_SHORT_CODE;
+        }
+        // always allow if the feature is disabled
+        if (!mCheckEnabled.get()) {
+            if (DBG) Rlog.e(TAG, "check disabled");
+            return CATEGORY_NOT_SHORT_CODE;
+        }
 
-            if (countryIso != null) {
-                if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry) ||
-                        mPatternFile.lastModified() != mPatternFileLastModified) {
-                    if (mPatternFile.exists()) {
-                        if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
-                        mCurrentPatternMatcher = getPatternMatcherFromFile(countryIso);
-                    } else {
-                        if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
-                        mCurrentPatternMatcher = getPatternMatcherFromResource(countryIso);
-                    }
-                    mCurrentCountry = countryIso;
-                }
-            }
+        if (countryIso != null) {
+            mCurrentCountry = countryIso;
+        } else {
+            countryIso = mCurrentCountry;
+        }
 
-            if (mCurrentPatternMatcher != null) {
-                return mCurrentPatternMatcher.getNumberCategory(destAddress);
+        ShortCodePatternMatcher matcher = null;
+        if (countryIso != null) {
+            matcher = getShortCodePatterns().get(countryIso);
+        }
+
+        if (matcher != null) {
+            return matcher.getNumberCategory(destAddress);
+        } else {
+            // Generic rule: numbers of 5 digits or less are considered potential short codes
+            Rlog.e(TAG, "No patterns for \"" + countryIso + "\": using generic short code rule");
+            if (destAddress.length() <= 5) {
+                return CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE;
             } else {
-                // Generic rule: numbers of 5 digits or less are considered potential short codes
-                Rlog.e(TAG, "No patterns for \"" + countryIso + "\": using generic short code rule");
-                if (destAddress.length() <= 5) {
-                    return CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE;
-                } else {
-                    return CATEGORY_NOT_SHORT_CODE;
-                }
+                return CATEGORY_NOT_SHORT_CODE;
             }
         }
     }
@@ -614,42 +664,16 @@ public class SmsUsageMonitor {
         throw new SecurityException("Disallowed call for uid " + uid);
     }
 
-    /**
-     * Remove keys containing only old timestamps. This can happen if an SMS app is used
-     * to send messages and then uninstalled.
-     */
-    private void removeExpiredTimestamps() {
-        long beginCheckPeriod = System.currentTimeMillis() - mCheckPeriod.get();
-
-        synchronized (mSmsStamp) {
-            Iterator<Map.Entry<String, ArrayList<Long>>> iter = mSmsStamp.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<String, ArrayList<Long>> entry = iter.next();
-                ArrayList<Long> oldList = entry.getValue();
-                if (oldList.isEmpty() || oldList.get(oldList.size() - 1) < beginCheckPeriod) {
-                    iter.remove();
-                }
-            }
-        }
-    }
-
-    private boolean isUnderLimit(ArrayList<Long> sent, int smsWaiting) {
-        Long ct = System.currentTimeMillis();
-        long beginCheckPeriod = ct - mCheckPeriod.get();
-
-        if (VDBG) log("SMS send size=" + sent.size() + " time=" + ct);
-
-        while (!sent.isEmpty() && sent.get(0) < beginCheckPeriod) {
-            sent.remove(0);
-        }
-
-        if ((sent.size() + smsWaiting) <= mMaxAllowed.get()) {
-            for (int i = 0; i < smsWaiting; i++ ) {
-                sent.add(ct);
-            }
-            return true;
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("SmsUsageMonitor:");
+        pw.println(" mCheckEnabled=" + mCheckEnabled.get() + " mMaxAllowed=" + mMaxAllowed.get()
+                + " mCheckPeriod=" + mCheckPeriod.get());
+        ShortCodePatterns patterns = mPatterns;
+        if (patterns != null) {
+            pw.println(" short code patterns: countries=" + patterns.size()
+                    + " fileLastModified=" + patterns.mLastModified);
         }
-        return false;
+        mRateLimiter.dump(pw, System.currentTimeMillis(), mCheckPeriod.get());
     }
 
     private static void log(String msg) {
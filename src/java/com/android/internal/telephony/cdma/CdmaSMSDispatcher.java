@@ -22,6 +22,7 @@ import android.app.PendingIntent.CanceledException;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.provider.Telephony.Sms;
 import android.telephony.Rlog;
@@ -85,23 +86,22 @@ public class CdmaSMSDispatcher extends SMSDispatcher {
      * @param sms the CDMA SMS message to process
      */
     void handleCdmaStatusReport(SmsMessage sms) {
-        for (int i = 0, count = deliveryPendingList.size(); i < count; i++) {
-            SmsTracker tracker = deliveryPendingList.get(i);
-            if (tracker.mMessageRef == sms.mMessageRef) {
-                // Found it.  Remove from list and broadcast.
-                deliveryPendingList.remove(i);
-                // Update the message status (COMPLETE)
-                tracker.updateSentMessageStatus(mContext, Sms.STATUS_COMPLETE);
+        int subId = getSubId();
+        SmsTracker tracker = deliveryPendingList.get(subId, sms.mMessageRef,
+                SystemClock.elapsedRealtime());
+        if (tracker != null) {
+            // Found it.  Remove from list and broadcast.
+            deliveryPendingList.remove(subId, sms.mMessageRef);
+            // Update the message status (COMPLETE)
+            tracker.updateSentMessageStatus(mContext, Sms.STATUS_COMPLETE);
 
-                PendingIntent intent = tracker.mDeliveryIntent;
-                Intent fillIn = new Intent();
-                fillIn.putExtra("pdu", sms.getPdu());
-                fillIn.putExtra("format", getFormat());
-                try {
-                    intent.send(mContext, Activity.RESULT_OK, fillIn);
-                } catch (CanceledException ex) {}
-                break;  // Only expect to see one tracker matching this message.
-            }
+            PendingIntent intent = tracker.mDeliveryIntent;
+            Intent fillIn = new Intent();
+            fillIn.putExtra("pdu", sms.getPdu());
+            fillIn.putExtra("format", getFormat());
+            try {
+                intent.send(mContext, Activity.RESULT_OK, fillIn);
+            } catch (CanceledException ex) {}
         }
     }
 
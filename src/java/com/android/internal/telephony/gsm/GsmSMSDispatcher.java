@@ -23,6 +23,7 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncResult;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.Telephony.Sms;
 import android.provider.Telephony.Sms.Intents;
 import android.telephony.Rlog;
@@ -122,26 +123,23 @@ public final class GsmSMSDispatcher extends SMSDispatcher {
         if (sms != null) {
             int tpStatus = sms.getStatus();
             int messageRef = sms.mMessageRef;
-            for (int i = 0, count = deliveryPendingList.size(); i < count; i++) {
-                SmsTracker tracker = deliveryPendingList.get(i);
-                if (tracker.mMessageRef == messageRef) {
-                    // Found it.  Remove from list and broadcast.
-                    if(tpStatus >= Sms.STATUS_FAILED || tpStatus < Sms.STATUS_PENDING ) {
-                       deliveryPendingList.remove(i);
-                       // Update the message status (COMPLETE or FAILED)
-                       tracker.updateSentMessageStatus(mContext, tpStatus);
-                    }
-                    PendingIntent intent = tracker.mDeliveryIntent;
-                    Intent fillIn = new Intent();
-                    fillIn.putExtra("pdu", IccUtils.hexStringToBytes(pduString));
-                    fillIn.putExtra("format", getFormat());
-                    try {
-                        intent.send(mContext, Activity.RESULT_OK, fillIn);
-                    } catch (CanceledException ex) {}
-
-                    // Only expect to see one tracker matching this messageref
-                    break;
+            int subId = getSubId();
+            SmsTracker tracker = deliveryPendingList.get(subId, messageRef,
+                    SystemClock.elapsedRealtime());
+            if (tracker != null) {
+                // Found it.  Remove from list and broadcast.
+                if(tpStatus >= Sms.STATUS_FAILED || tpStatus < Sms.STATUS_PENDING ) {
+                   deliveryPendingList.remove(subId, messageRef);
+                   // Update the message status (COMPLETE or FAILED)
+                   tracker.updateSentMessageStatus(mContext, tpStatus);
                 }
+                PendingIntent intent = tracker.mDeliveryIntent;
+                Intent fillIn = new Intent();
+                fillIn.putExtra("pdu", IccUtils.hexStringToBytes(pduString));
+                fillIn.putExtra("format", getFormat());
+                try {
+                    intent.send(mContext, Activity.RESULT_OK, fillIn);
+                } catch (CanceledException ex) {}
             }
         }
         mCi.acknowledgeLastIncomingGsmSms(true, Intents.RESULT_SMS_HANDLED, null);
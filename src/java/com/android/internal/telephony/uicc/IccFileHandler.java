@@ -111,6 +111,8 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         int mCountLoadrecords;
         int mCount;
         Message mOnLoaded;
+        // Optional, sent for each record as it is read when loading all records
+        Message mOnRecord;
 
         ArrayList<byte[]> results;
 
@@ -308,6 +310,28 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         loadEFLinearFixedAll(fileid, getEFPath(fileid), onLoaded);
     }
 
+    /**
+     * Load all records from a SIM Linear Fixed EF, reporting each record as it is read
+     *
+     * @param fileid EF id
+     * @param onRecord copied and sent for every record read;
+     *        ((AsyncResult)(msg.obj)).result is the byte[] and msg.arg1 the 1-based
+     *        record number
+     * @param onLoaded
+     *
+     * ((AsyncResult)(onLoaded.obj)).result is an ArrayList<byte[]>
+     *
+     */
+    public void loadEFLinearFixedAll(int fileid, Message onRecord, Message onLoaded) {
+        String efPath = getEFPath(fileid);
+        LoadLinearFixedContext lc = new LoadLinearFixedContext(fileid, efPath, onLoaded);
+        lc.mOnRecord = onRecord;
+        Message response = obtainMessage(EVENT_GET_RECORD_SIZE_DONE, lc);
+
+        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
+                        0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
+    }
+
     /**
      * Load several records from a SIM Linear Fixed EF
      *
@@ -642,6 +666,12 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 if (lc.mLoadAll) {
                     lc.results.add(result.payload);
 
+                    if (lc.mOnRecord != null) {
+                        Message record = Message.obtain(lc.mOnRecord);
+                        record.arg1 = lc.mRecordNum;
+                        sendResult(record, result.payload, null);
+                    }
+
                     lc.mRecordNum++;
 
                     if (lc.mRecordNum > lc.mCountRecords) {
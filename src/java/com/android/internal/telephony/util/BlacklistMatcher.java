@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.util;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.provider.Telephony.Blacklist;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * In-process copy of the blacklist table that answers the same question as a
+ * {@link Blacklist#CONTENT_FILTER_BYNUMBER_URI} query.
+ *
+ * Plain numbers are kept in a hash map. Wildcard entries, which use the SQL LIKE
+ * characters '%' and '_', are kept in one trie per blocking mode, with '%' and '_' as
+ * branches of their own. A lookup walks the trie once over the number, tracking the nodes
+ * still reachable, so entries that share a prefix share the work and the cost depends on
+ * how many entries can still match rather than on how many there are. A matcher is
+ * immutable once compiled; the shared instance returned by {@link #getInstance(Context)} is dropped
+ * whenever the blacklist table changes and rebuilt on the next lookup.
+ *
+ * @hide
+ */
+public final class BlacklistMatcher {
+    private static final String TAG = "BlacklistMatcher";
+
+    private static final String[] PROJECTION = {
+            Blacklist.NUMBER,
+            Blacklist.IS_REGEX,
+            Blacklist.PHONE_MODE,
+            Blacklist.MESSAGE_MODE
+    };
+
+    private static final Object sLock = new Object();
+    private static volatile BlacklistMatcher sInstance;
+    // Bumped on every table change, so a rebuild racing with a change is not published
+    private static volatile int sGeneration;
+    private static ContentObserver sObserver;
+
+    // Plain numbers mapped to the BLOCK_* modes they are blocked for. A number present
+    // with a mode bit clear is whitelisted for that mode.
+    private final HashMap<String, Integer> mNumbers = new HashMap<String, Integer>();
+    // Wildcard entries blocking calls and messages; null when there are none
+    private Node mCallPatterns;
+    private Node mMessagePatterns;
+
+    BlacklistMatcher() {
+    }
+
+    /**
+     * Adds one row of the blacklist table. Must be called before {@link #compile()}.
+     */
+    void addEntry(String number, boolean isRegex, boolean blockCalls, boolean blockMessages) {
+        if (number == null) {
+            return;
+        }
+        if (!isRegex) {
+            int modes = (blockCalls ? BlacklistUtils.BLOCK_CALLS : 0)
+                    | (blockMessages ? BlacklistUtils.BLOCK_MESSAGES : 0);
+            mNumbers.put(number, modes);
+            return;
+        }
+        if (blockCalls) {
+            if (mCallPatterns == null) {
+                mCallPatterns = new Node(false);
+            }
+            mCallPatterns.insert(number);
+        }
+        if (blockMessages) {
+            if (mMessagePatterns == null) {
+                mMessagePatterns = new Node(false);
+            }
+            mMessagePatterns.insert(number);
+        }
+    }
+
+    /**
+     * Marks the end of the entries. The matcher must not be modified afterwards.
+     */
+    BlacklistMatcher compile() {
+        return this;
+    }
+
+    /**
+     * @param number the number, normalized like the numbers in the blacklist table
+     * @param mode {@link BlacklistUtils#BLOCK_CALLS} or {@link BlacklistUtils#BLOCK_MESSAGES}
+     * @param regexEnabled whether wildcard entries apply
+     * @return {@link BlacklistUtils#MATCH_NONE}, {@link BlacklistUtils#MATCH_LIST} or
+     * {@link BlacklistUtils#MATCH_REGEX}
+     */
+    public int match(String number, int mode, boolean regexEnabled) {
+        Integer modes = mNumbers.get(number);
+        if (modes != null) {
+            // An exact entry decides on its own; if it doesn't block, it whitelists.
+            return (modes & mode) != 0 ? BlacklistUtils.MATCH_LIST : BlacklistUtils.MATCH_NONE;
+        }
+        if (regexEnabled) {
+            Node patterns = mode == BlacklistUtils.BLOCK_CALLS ? mCallPatterns : mMessagePatterns;
+            if (patterns != null && patterns.matches(number)) {
+                return BlacklistUtils.MATCH_REGEX;
+            }
+        }
+        return BlacklistUtils.MATCH_NONE;
+    }
+
+    public int size() {
+        return mNumbers.size();
+    }
+
+    /**
+     * @return the matcher for the current blacklist table, or null if it can't be read
+     */
+    public static BlacklistMatcher getInstance(Context context) {
+        BlacklistMatcher matcher = sInstance;
+        if (matcher != null) {
+            return matcher;
+        }
+        synchronized (sLock) {
+            if (sInstance != null) {
+                return sInstance;
+            }
+            if (sObserver == null) {
+                sObserver = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        sGeneration++;
+                        sInstance = null;
+                    }
+                };
+                context.getApplicationContext().getContentResolver().registerContentObserver(
+                        Blacklist.CONTENT_URI, true, sObserver);
+            }
+            int generation = sGeneration;
+            matcher = load(context);
+            if (matcher != null && generation == sGeneration) {
+                sInstance = matcher;
+            }
+            return matcher;
+        }
+    }
+
+    private static BlacklistMatcher load(Context context) {
+        Cursor c = null;
+        try {
+            c = context.getContentResolver().query(Blacklist.CONTENT_URI, PROJECTION,
+                    null, null, null);
+            if (c == null) {
+                return null;
+            }
+            BlacklistMatcher matcher = new BlacklistMatcher();
+            while (c.moveToNext()) {
+                matcher.addEntry(c.getString(0), c.getInt(1) != 0, c.getInt(2) != 0,
+                        c.getInt(3) != 0);
+            }
+            return matcher.compile();
+        } catch (SQLException e) {
+            Log.e(TAG, "Can't read blacklist", e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Node of a trie of SQL LIKE patterns. Literal characters branch by value, compared
+     * ignoring case like LIKE does; '_' and '%' each have a branch of their own.
+     */
+    private static final class Node {
+        private static final char[] NO_CHARS = new char[0];
+        private static final Node[] NO_NODES = new Node[0];
+
+        // Reached through '%', which matches any run of characters, including none
+        final boolean mAnyRun;
+        char[] mChars = NO_CHARS;
+        Node[] mChildren = NO_NODES;
+        Node mAnyChar;
+        Node mRun;
+        boolean mTerminal;
+
+        Node(boolean anyRun) {
+            mAnyRun = anyRun;
+        }
+
+        void insert(String like) {
+            Node node = this;
+            for (int i = 0; i < like.length(); i++) {
+                char c = like.charAt(i);
+                if (c == '%') {
+                    if (node.mAnyRun) {
+                        // "%%" matches the same as "%"
+                        continue;
+                    }
+                    if (node.mRun == null) {
+                        node.mRun = new Node(true);
+                    }
+                    node = node.mRun;
+                } else if (c == '_') {
+                    if (node.mAnyChar == null) {
+                        node.mAnyChar = new Node(false);
+                    }
+                    node = node.mAnyChar;
+                } else {
+                    node = node.literal(c);
+                }
+            }
+            node.mTerminal = true;
+        }
+
+        private Node literal(char c) {
+            c = Character.toLowerCase(c);
+            Node child = child(c);
+            if (child == null) {
+                int n = mChars.length;
+                char[] chars = new char[n + 1];
+                Node[] children = new Node[n + 1];
+                System.arraycopy(mChars, 0, chars, 0, n);
+                System.arraycopy(mChildren, 0, children, 0, n);
+                chars[n] = c;
+                children[n] = child = new Node(false);
+                mChars = chars;
+                mChildren = children;
+            }
+            return child;
+        }
+
+        private Node child(char lowerCase) {
+            for (int i = 0; i < mChars.length; i++) {
+                if (mChars[i] == lowerCase) {
+                    return mChildren[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return true if any pattern in the trie rooted here matches the whole number
+         */
+        boolean matches(String number) {
+            ArrayList<Node> current = new ArrayList<Node>();
+            ArrayList<Node> next = new ArrayList<Node>();
+            enter(current, this);
+            for (int i = 0; i < number.length() && !current.isEmpty(); i++) {
+                char c = Character.toLowerCase(number.charAt(i));
+                for (int j = 0; j < current.size(); j++) {
+                    Node node = current.get(j);
+                    if (node.mAnyRun) {
+                        enter(next, node);
+                    }
+                    if (node.mAnyChar != null) {
+                        enter(next, node.mAnyChar);
+                    }
+                    Node child = node.child(c);
+                    if (child != null) {
+                        enter(next, child);
+                    }
+                }
+                ArrayList<Node> swap = current;
+                current = next;
+                next = swap;
+                next.clear();
+            }
+            for (int j = 0; j < current.size(); j++) {
+                if (current.get(j).mTerminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Adds a node reached by the input so far and, as '%' may match nothing, the
+         * '%' branch below it.
+         */
+        private static void enter(ArrayList<Node> states, Node node) {
+            while (node != null && !states.contains(node)) {
+                states.add(node);
+                node = node.mRun;
+            }
+        }
+    }
+}
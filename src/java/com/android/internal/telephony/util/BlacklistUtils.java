@@ -113,9 +113,19 @@ public class BlacklistUtils {
             return MATCH_NONE;
         }
 
+        boolean regexEnabled = isBlacklistRegexEnabled(context);
+
+        // Use the cached copy of the blacklist; only query the provider if it can't be loaded
+        BlacklistMatcher matcher = BlacklistMatcher.getInstance(context);
+        if (matcher != null) {
+            int result = matcher.match(normalizeNumber(context, number).first, mode, regexEnabled);
+            if (DEBUG) Log.d(TAG, "Blacklist check result for number " + number + " is " + result);
+            return result;
+        }
+
         Uri.Builder builder = Blacklist.CONTENT_FILTER_BYNUMBER_URI.buildUpon();
         builder.appendPath(number);
-        if (isBlacklistRegexEnabled(context)) {
+        if (regexEnabled) {
             builder.appendQueryParameter(Blacklist.REGEX_KEY, "1");
         }
 
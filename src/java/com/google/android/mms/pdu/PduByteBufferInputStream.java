@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A ByteArrayInputStream that reads from a ByteBuffer instead of an array, so
+ * the existing PduParser helpers can run unchanged over a heap buffer or a
+ * memory-mapped file. {@link #slice(int)} hands out views of the remaining
+ * data without copying it.
+ */
+class PduByteBufferInputStream extends ByteArrayInputStream {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteBuffer mBuffer;
+    private int mMark;
+
+    /**
+     * @param buffer the data between its position and limit is read. The
+     * buffer itself is not modified.
+     */
+    PduByteBufferInputStream(ByteBuffer buffer) {
+        super(EMPTY);
+        mBuffer = buffer.slice();
+    }
+
+    /**
+     * Returns a view of the next {@code length} bytes and skips over them.
+     *
+     * @throws IllegalArgumentException if fewer than {@code length} bytes remain
+     */
+    ByteBuffer slice(int length) {
+        if (length < 0 || length > mBuffer.remaining()) {
+            throw new IllegalArgumentException("length " + length + " exceeds remaining "
+                    + mBuffer.remaining());
+        }
+        ByteBuffer view = mBuffer.slice();
+        view.limit(length);
+        mBuffer.position(mBuffer.position() + length);
+        return view;
+    }
+
+    @Override
+    public synchronized int read() {
+        return mBuffer.hasRemaining() ? (mBuffer.get() & 0xff) : -1;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, mBuffer.remaining());
+        mBuffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public synchronized long skip(long n) {
+        int k = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + k);
+        return k;
+    }
+
+    @Override
+    public synchronized int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readAheadLimit) {
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        mBuffer.position(mMark);
+    }
+}
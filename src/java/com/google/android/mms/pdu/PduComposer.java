@@ -19,6 +19,8 @@ package com.google.android.mms.pdu;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
 import android.util.Log;
 import android.text.TextUtils;
 
@@ -26,6 +28,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -82,6 +86,11 @@ public class PduComposer {
      */
     static private final int PDU_COMPOSER_BLOCK_SIZE = 1024;
 
+    /**
+     * Block size when streaming part data to the target stream.
+     */
+    static private final int PDU_STREAM_BLOCK_SIZE = 8192;
+
     /**
      * The output message.
      */
@@ -102,6 +111,21 @@ public class PduComposer {
      */
     private BufferStack mStack = null;
 
+    /**
+     * Target of make(OutputStream), null when composing into a byte array.
+     */
+    private OutputStream mOut = null;
+
+    /**
+     * Bytes already written to mOut.
+     */
+    private long mBytesWritten = 0;
+
+    /**
+     * Scratch buffer for streaming part data, allocated on first use.
+     */
+    private byte[] mStreamBuffer = null;
+
     /**
      * Content resolver.
      */
@@ -149,6 +173,46 @@ public class PduComposer {
      *         the PDU is invalid.
      */
     public byte[] make() {
+        try {
+            if (makePdu() != PDU_COMPOSE_SUCCESS) {
+                return null;
+            }
+        } catch (IOException e) {
+            // Can't happen, nothing is written to a stream in this mode.
+            return null;
+        }
+
+        return mMessage.toByteArray();
+    }
+
+    /**
+     * Make the message and write it to a stream. The headers of each part are
+     * composed in memory as before, but part data is streamed from the part's
+     * data or data Uri straight to {@code out} once its length is known, so the
+     * memory needed does not grow with the size of the attachments. Use
+     * {@link java.nio.channels.Channels#newOutputStream} to write to a channel.
+     *
+     * @param out the stream to write to. It is not closed.
+     * @return the number of bytes written, or -1 if the PDU is invalid or a part
+     *         could not be read. In that case part of the message may already
+     *         have been written and the output should be discarded.
+     * @throws IOException if writing to {@code out} fails
+     */
+    public long make(OutputStream out) throws IOException {
+        mOut = out;
+        mBytesWritten = 0;
+        try {
+            if (makePdu() != PDU_COMPOSE_SUCCESS) {
+                return -1;
+            }
+            flushMessage();
+            return mBytesWritten;
+        } finally {
+            mOut = null;
+        }
+    }
+
+    private int makePdu() throws IOException {
         // Get Message-type.
         int type = mPdu.getMessageType();
 
@@ -156,30 +220,27 @@ public class PduComposer {
         switch (type) {
             case PduHeaders.MESSAGE_TYPE_SEND_REQ:
             case PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF:
-                if (makeSendRetrievePdu(type) != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeSendRetrievePdu(type);
             case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
-                if (makeNotifyResp() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeNotifyResp();
             case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
-                if (makeAckInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeAckInd();
             case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
-                if (makeReadRecInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeReadRecInd();
             default:
-                return null;
+                return PDU_COMPOSE_FIELD_NOT_SUPPORTED;
         }
+    }
 
-        return mMessage.toByteArray();
+    /**
+     * Write what has been composed so far to mOut and empty mMessage.
+     * Only valid at the top of the buffer stack.
+     */
+    private void flushMessage() throws IOException {
+        mMessage.writeTo(mOut);
+        mBytesWritten += mMessage.size();
+        mMessage.reset();
+        mPosition = 0;
     }
 
     /**
@@ -760,7 +821,7 @@ public class PduComposer {
     /**
      * Make Send.req.
      */
-    private int makeSendRetrievePdu(int type) {
+    private int makeSendRetrievePdu(int type) throws IOException {
         if (mMessage == null) {
             mMessage = new ByteArrayOutputStream();
             mPosition = 0;
@@ -852,7 +913,7 @@ public class PduComposer {
     /**
      * Make message body.
      */
-    private int makeMessageBody(int type) {
+    private int makeMessageBody(int type) throws IOException {
         // 1. add body informations
         mStack.newbuf();  // Switching buffer because we need to
 
@@ -997,6 +1058,25 @@ public class PduComposer {
             // content
             int headerLength = attachment.getLength();
 
+            if (mOut != null) {
+                // Streaming: emit the lengths and headers now, then the data.
+                long streamLength = getPartDataLength(part);
+                if (streamLength < 0 || streamLength > Integer.MAX_VALUE) {
+                    return PDU_COMPOSE_CONTENT_ERROR;
+                }
+
+                mStack.pop();
+                appendUintvarInteger(headerLength);
+                appendUintvarInteger(streamLength);
+                mStack.copy();
+                flushMessage();
+
+                if (!writePartData(part, streamLength)) {
+                    return PDU_COMPOSE_CONTENT_ERROR;
+                }
+                continue;
+            }
+
             int dataLength = 0; // Just for safety...
             byte[] partData = part.getData();
 
@@ -1043,6 +1123,143 @@ public class PduComposer {
         return PDU_COMPOSE_SUCCESS;
     }
 
+    /**
+     * Get the length of a part's data without reading it into memory.
+     *
+     * @return the length, or -1 if the data can't be read
+     */
+    private long getPartDataLength(PduPart part) {
+        ByteBuffer data = part.getDataBuffer();
+        if (data != null) {
+            return data.remaining();
+        }
+
+        Uri uri = part.getDataUri();
+        if (uri == null) {
+            return -1;
+        }
+        AssetFileDescriptor afd = null;
+        try {
+            afd = mResolver.openAssetFileDescriptor(uri, "r");
+            if (afd != null) {
+                if (afd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    return afd.getLength();
+                }
+                // MmsProvider and file Uris hand out the whole file without a length;
+                // its size is then that of the file, unless it is a pipe or socket.
+                long statSize = afd.getParcelFileDescriptor().getStatSize();
+                if (statSize >= 0) {
+                    return statSize;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            return -1;
+        } catch (RuntimeException e) {
+            return -1;
+        } finally {
+            if (afd != null) {
+                try {
+                    afd.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        // The provider doesn't know the length, count it with an extra pass.
+        InputStream in = null;
+        try {
+            in = mResolver.openInputStream(uri);
+            byte[] buffer = getStreamBuffer();
+            long length = 0;
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                length += len;
+            }
+            return length;
+        } catch (IOException e) {
+            return -1;
+        } catch (RuntimeException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream exactly {@code length} bytes of a part's data to mOut.
+     *
+     * @return false if the data can't be read or its length has changed
+     * @throws IOException if writing to mOut fails
+     */
+    private boolean writePartData(PduPart part, long length) throws IOException {
+        ByteBuffer data = part.getDataBuffer();
+        if (data != null) {
+            if (data.hasArray()) {
+                mOut.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } else {
+                byte[] buffer = getStreamBuffer();
+                while (data.hasRemaining()) {
+                    int len = Math.min(buffer.length, data.remaining());
+                    data.get(buffer, 0, len);
+                    mOut.write(buffer, 0, len);
+                }
+            }
+            mBytesWritten += length;
+            return true;
+        }
+
+        InputStream in = null;
+        try {
+            in = mResolver.openInputStream(part.getDataUri());
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (RuntimeException e) {
+            return false;
+        }
+        try {
+            byte[] buffer = getStreamBuffer();
+            long remaining = length;
+            while (remaining > 0) {
+                int len;
+                try {
+                    len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                } catch (IOException e) {
+                    return false;
+                }
+                if (len == -1) {
+                    // Shorter than announced.
+                    return false;
+                }
+                mOut.write(buffer, 0, len);
+                mBytesWritten += len;
+                remaining -= len;
+            }
+            try {
+                // Longer than announced.
+                return in.read() == -1;
+            } catch (IOException e) {
+                return false;
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private byte[] getStreamBuffer() {
+        if (mStreamBuffer == null) {
+            mStreamBuffer = new byte[PDU_STREAM_BLOCK_SIZE];
+        }
+        return mStreamBuffer;
+    }
+
     /**
      *  Record current message informations.
      */
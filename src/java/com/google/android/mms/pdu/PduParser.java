@@ -25,6 +25,7 @@ import com.google.android.mms.InvalidHeaderValueException;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -101,6 +102,24 @@ public class PduParser {
         mParseContentDisposition = parseContentDisposition;
     }
 
+    /**
+     * Constructor for parsing straight from a buffer, which may be a heap buffer or
+     * a memory-mapped file. Part data is not copied out of the buffer: each
+     * {@link PduPart} keeps a view of its bytes and only materializes them when
+     * {@link PduPart#getData} is called. Parts that need a transfer decoding
+     * (base64, quoted-printable) are still decoded into their own arrays.
+     *
+     * The buffer must not be modified while the parsed parts are in use. The
+     * bytes between its position and limit are parsed; its position is not moved.
+     *
+     * @param pdu pdu data to be parsed
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     */
+    public PduParser(ByteBuffer pdu, boolean parseContentDisposition) {
+        mPduDataStream = new PduByteBufferInputStream(pdu);
+        mParseContentDisposition = parseContentDisposition;
+    }
+
     /**
      * Parse the pdu.
      *
@@ -897,12 +916,22 @@ public class PduParser {
 
             /* get part's data */
             if (dataLength > 0) {
-                byte[] partData = new byte[dataLength];
+                byte[] partData = null;
+                ByteBuffer partBuffer = null;
                 String partContentType = new String(part.getContentType());
-                pduDataStream.read(partData, 0, dataLength);
+                if ((pduDataStream instanceof PduByteBufferInputStream)
+                        && (pduDataStream.available() >= dataLength)) {
+                    // Keep a view of the data instead of copying it.
+                    partBuffer = ((PduByteBufferInputStream) pduDataStream).slice(dataLength);
+                } else {
+                    partData = new byte[dataLength];
+                    pduDataStream.read(partData, 0, dataLength);
+                }
                 if (partContentType.equalsIgnoreCase(ContentType.MULTIPART_ALTERNATIVE)) {
                     // parse "multipart/vnd.wap.multipart.alternative".
-                    PduBody childBody = parseParts(new ByteArrayInputStream(partData));
+                    PduBody childBody = parseParts((partBuffer != null)
+                            ? new PduByteBufferInputStream(partBuffer)
+                            : new ByteArrayInputStream(partData));
                     // take the first part of children.
                     part = childBody.getPart(0);
                 } else {
@@ -912,19 +941,25 @@ public class PduParser {
                         String encoding = new String(partDataEncoding);
                         if (encoding.equalsIgnoreCase(PduPart.P_BASE64)) {
                             // Decode "base64" into "binary".
-                            partData = Base64.decodeBase64(partData);
+                            partData = Base64.decodeBase64(toByteArray(partData, partBuffer));
+                            partBuffer = null;
                         } else if (encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE)) {
                             // Decode "quoted-printable" into "binary".
-                            partData = QuotedPrintable.decodeQuotedPrintable(partData);
+                            partData = QuotedPrintable.decodeQuotedPrintable(
+                                    toByteArray(partData, partBuffer));
+                            partBuffer = null;
                         } else {
                             // "binary" is the default encoding.
                         }
                     }
-                    if (null == partData) {
+                    if (null != partBuffer) {
+                        part.setDataBuffer(partBuffer);
+                    } else if (null == partData) {
                         log("Decode part data error!");
                         return null;
+                    } else {
+                        part.setData(partData);
                     }
-                    part.setData(partData);
                 }
             }
 
@@ -941,6 +976,18 @@ public class PduParser {
         return body;
     }
 
+    /**
+     * Returns the part data as an array, copying it out of the buffer view if needed.
+     */
+    private static byte[] toByteArray(byte[] data, ByteBuffer buffer) {
+        if (buffer == null) {
+            return data;
+        }
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
     /**
      * Log status.
      *
@@ -17,8 +17,17 @@
 
 package com.google.android.mms.pdu;
 
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
-
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -115,12 +124,46 @@ public class PduPart {
      private Uri mUri = null;
 
      /**
-      * Part data.
+      * Part data. Volatile, like mDataResolver, because a lazily loaded part
+      * may be loaded on another thread than the one reading it.
       */
-     private byte[] mPartData = null;
+     private volatile byte[] mPartData = null;
+
+     /**
+      * Part data as a view into the buffer it was parsed from. Only one of
+      * mPartData and mPartDataBuffer is set at a time.
+      */
+     private ByteBuffer mPartDataBuffer = null;
+
+     /**
+      * Set while the part data still has to be read from mUri. Cleared only
+      * after mPartData is set, so readers check it first.
+      */
+     private volatile ContentResolver mDataResolver = null;
+
+     /**
+      * Notified once the data of a lazily loaded part has been read.
+      */
+     private volatile DataLoadedListener mDataLoadedListener = null;
+
+     /**
+      * Block size when loading part data of unknown length.
+      */
+     private static final int LOAD_BLOCK_SIZE = 8192;
 
      private static final String TAG = "PduPart";
 
+     /**
+      * Receives the parts whose data was read lazily, e.g. so that a cache holding
+      * them can account for the memory they now use.
+      */
+     public interface DataLoadedListener {
+         /**
+          * Called once, on the thread that asked for the data.
+          */
+         void onDataLoaded(PduPart part);
+     }
+
      /**
       * Empty Constructor.
       */
@@ -138,8 +181,158 @@ public class PduPart {
             return;
         }
 
-         mPartData = new byte[data.length];
-         System.arraycopy(data, 0, mPartData, 0, data.length);
+         byte[] partData = new byte[data.length];
+         System.arraycopy(data, 0, partData, 0, data.length);
+         mPartData = partData;
+         mPartDataBuffer = null;
+         mDataResolver = null;
+     }
+
+     /**
+      * Set part data as a view into a larger buffer, such as the PDU it was parsed
+      * from. The bytes between the buffer's position and limit are the part data;
+      * they are not copied until {@link #getData} is called, so the buffer must
+      * not be modified while the part is in use.
+      *
+      * @param data the data
+      */
+     void setDataBuffer(ByteBuffer data) {
+         if (data == null) {
+             return;
+         }
+
+         mPartDataBuffer = data.slice();
+         mPartData = null;
+         mDataResolver = null;
+     }
+
+     /**
+      * Set the part data to be read from a Uri the first time it is asked for,
+      * instead of up front. Until then {@link #getDataBuffer} returns null, so
+      * callers that can stream from {@link #getDataUri} never load it at all.
+      *
+      * @param resolver the resolver used to open the uri
+      * @param uri the uri of the part data
+      */
+     void setLazyDataUri(ContentResolver resolver, Uri uri) {
+         mUri = uri;
+         mDataResolver = resolver;
+         mPartData = null;
+         mPartDataBuffer = null;
+     }
+
+     /**
+      * Read the data of a lazily loaded part, once, and tell the listener.
+      *
+      * @return the data, or null if it couldn't be read
+      */
+     private byte[] loadData() {
+         byte[] data;
+         DataLoadedListener listener;
+         synchronized (this) {
+             if (mDataResolver == null) {
+                 return mPartData;
+             }
+             data = readLazyData();
+             if (data == null) {
+                 return null;
+             }
+             mPartData = data;
+             mDataResolver = null;
+             listener = mDataLoadedListener;
+         }
+         // Called without holding the part, the listener may take other locks.
+         if (listener != null) {
+             listener.onDataLoaded(this);
+         }
+         return data;
+     }
+
+     /**
+      * @return the data read from mUri, or null if it couldn't be read
+      */
+     private byte[] readLazyData() {
+         byte[] data = null;
+         AssetFileDescriptor afd = null;
+         InputStream is = null;
+         try {
+             afd = mDataResolver.openAssetFileDescriptor(mUri, "r");
+             long length = afd.getLength();
+             if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                 // MmsProvider hands out the whole file; -1 for pipes and sockets.
+                 length = afd.getParcelFileDescriptor().getStatSize();
+             }
+             if (length >= 0 && length <= Integer.MAX_VALUE) {
+                 // Read straight into an array of the right size.
+                 FileInputStream fis = afd.createInputStream();
+                 is = fis;
+                 FileChannel channel = fis.getChannel();
+                 ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                 while (buffer.hasRemaining()) {
+                     if (channel.read(buffer) == -1) {
+                         throw new IOException("Expected " + length + " bytes, got "
+                                 + buffer.position());
+                     }
+                 }
+                 data = buffer.array();
+             } else {
+                 is = afd.createInputStream();
+                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                 byte[] buffer = new byte[LOAD_BLOCK_SIZE];
+                 int len;
+                 while ((len = is.read(buffer)) != -1) {
+                     baos.write(buffer, 0, len);
+                 }
+                 data = baos.toByteArray();
+             }
+         } catch (IOException e) {
+             Log.e(TAG, "Failed to load part data", e);
+         } catch (RuntimeException e) {
+             Log.e(TAG, "Failed to load part data", e);
+         } finally {
+             try {
+                 if (is != null) {
+                     is.close();
+                 } else if (afd != null) {
+                     afd.close();
+                 }
+             } catch (IOException e) {
+                 Log.e(TAG, "Failed to close stream", e);
+             }
+         }
+
+         return data;
+     }
+
+     /**
+      * @return true if the data is still to be read from its Uri when asked for
+      */
+     public boolean isDataPending() {
+         return mDataResolver != null;
+     }
+
+     /**
+      * Set who to tell once the data of a lazily loaded part has been read.
+      * A part has at most one listener.
+      */
+     public void setDataLoadedListener(DataLoadedListener listener) {
+         mDataLoadedListener = listener;
+     }
+
+     /**
+      * @return A read-only view of the part data without copying it, or null if
+      *         the data wasn't set or the data is stored as Uri and hasn't
+      *         been loaded yet.
+      */
+     public ByteBuffer getDataBuffer() {
+         byte[] partData = mPartData;
+         if (partData != null) {
+             return ByteBuffer.wrap(partData).asReadOnlyBuffer();
+         }
+         if (mPartDataBuffer != null) {
+             return mPartDataBuffer.asReadOnlyBuffer();
+         }
+         return null;
      }
 
      /**
@@ -148,27 +341,72 @@ public class PduPart {
       * @see #getDataUri
       */
      public byte[] getData() {
-         if(mPartData == null) {
+         if (mPartDataBuffer != null) {
+             // Materialize the view; the duplicate keeps the shared position intact.
+             byte[] byteArray = new byte[mPartDataBuffer.remaining()];
+             mPartDataBuffer.duplicate().get(byteArray);
+             return byteArray;
+         }
+         byte[] partData = mDataResolver != null ? loadData() : mPartData;
+         if(partData == null) {
             return null;
          }
 
-         byte[] byteArray = new byte[mPartData.length];
-         System.arraycopy(mPartData, 0, byteArray, 0, mPartData.length);
+         byte[] byteArray = new byte[partData.length];
+         System.arraycopy(partData, 0, byteArray, 0, partData.length);
          return byteArray;
      }
 
     /**
      * @return The length of the data, if this object have data, else 0.
+     *         Loads the data of a lazily loaded part.
      */
      public int getDataLength() {
-         if(mPartData != null){
-             return mPartData.length;
+         byte[] partData = mDataResolver != null ? loadData() : mPartData;
+         if(partData != null){
+             return partData.length;
+         } else if (mPartDataBuffer != null) {
+             return mPartDataBuffer.remaining();
          } else {
              return 0;
          }
      }
 
 
+     /**
+      * @return The length of the data, taken from the file behind the Uri of a
+      *         lazily loaded part without loading it, or -1 if that length is
+      *         unknown until the data is read.
+      */
+     long peekDataLength() {
+         ContentResolver resolver = mDataResolver;
+         if (resolver == null) {
+             return getDataLength();
+         }
+         AssetFileDescriptor afd = null;
+         try {
+             afd = resolver.openAssetFileDescriptor(mUri, "r");
+             long length = afd.getLength();
+             if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                 length = afd.getParcelFileDescriptor().getStatSize();
+             }
+             return length;
+         } catch (IOException e) {
+             Log.e(TAG, "Failed to get part data length", e);
+         } catch (RuntimeException e) {
+             Log.e(TAG, "Failed to get part data length", e);
+         } finally {
+             try {
+                 if (afd != null) {
+                     afd.close();
+                 }
+             } catch (IOException e) {
+                 Log.e(TAG, "Failed to close stream", e);
+             }
+         }
+         return -1;
+     }
+
      /**
       * Set data uri. The data are stored as Uri.
       *
@@ -176,6 +414,7 @@ public class PduPart {
       */
      public void setDataUri(Uri uri) {
          mUri = uri;
+         mDataResolver = null;
      }
 
      /**
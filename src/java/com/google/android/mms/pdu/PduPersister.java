@@ -26,15 +26,20 @@ import com.google.android.mms.util.PduCache;
 import com.google.android.mms.util.PduCacheEntry;
 import com.google.android.mms.util.SqliteWrapper;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteException;
 import android.drm.DrmManagerClient;
 import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
@@ -54,6 +59,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -277,6 +283,15 @@ public class PduPersister {
         PDU_CACHE_INSTANCE = PduCache.getInstance();
      }
 
+    // Latency of persist(), across all instances.
+    private static final Object sPersistStatsLock = new Object();
+    private static long sPersistCount;
+    private static long sPersistTotalMillis;
+    private static long sPersistMaxMillis;
+    private static long sPersistLastMillis;
+    private static int sPersistLastParts;
+    private static int sPersistLastAddresses;
+
     private final Context mContext;
     private final ContentResolver mContentResolver;
     private final DrmManagerClient mDrmManagerClient;
@@ -356,7 +371,7 @@ public class PduPersister {
         return null;
     }
 
-    private PduPart[] loadParts(long msgId) throws MmsException {
+    private PduPart[] loadParts(long msgId, boolean lazyParts) throws MmsException {
         Cursor c = SqliteWrapper.query(mContext, mContentResolver,
                 Uri.parse("content://mms/" + msgId + "/part"),
                 PART_PROJECTION, null, null, null);
@@ -443,12 +458,17 @@ public class PduPersister {
                         // we will use default encoding when charset is null or not supported
                         byte [] blob = getBlob(getCharsetName(charset) != null, charset, text);
                         baos.write(blob, 0, blob.length);
+                    } else if (lazyParts) {
+                        // Read from the part file when someone asks for the data.
+                        part.setLazyDataUri(mContentResolver, partURI);
+                        parts[partIdx++] = part;
+                        continue;
                     } else {
 
                         try {
                             is = mContentResolver.openInputStream(partURI);
 
-                            byte[] buffer = new byte[256];
+                            byte[] buffer = new byte[8192];
                             int len = is.read(buffer);
                             while (len >= 0) {
                                 baos.write(buffer, 0, len);
@@ -552,6 +572,25 @@ public class PduPersister {
      * @throws MmsException Failed to load some fields of a PDU.
      */
     public GenericPdu load(Uri uri) throws MmsException {
+        return load(uri, false);
+    }
+
+    /**
+     * Load a PDU from storage by given Uri.
+     *
+     * With lazyParts set, the data of parts that are kept in files is not read
+     * here. Those parts are backed by their Uri and read the first time
+     * {@link PduPart#getData} is called, so listing or displaying messages
+     * doesn't touch the part payloads. A part whose file can't be read then
+     * returns null data instead of failing the load. Text, SMIL and HTML parts
+     * come from the part table and are always loaded.
+     *
+     * @param uri The Uri of the PDU to be loaded.
+     * @param lazyParts whether to defer reading the part data until it is used.
+     * @return A generic PDU object, it may be cast to dedicated PDU.
+     * @throws MmsException Failed to load some fields of a PDU.
+     */
+    public GenericPdu load(Uri uri, boolean lazyParts) throws MmsException {
         GenericPdu pdu = null;
         PduCacheEntry cacheEntry = null;
         int msgBox = 0;
@@ -635,7 +674,7 @@ public class PduPersister {
             // load multiparts and put them into the body of the PDU.
             if ((msgType == PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF)
                     || (msgType == PduHeaders.MESSAGE_TYPE_SEND_REQ)) {
-                PduPart[] parts = loadParts(msgId);
+                PduPart[] parts = loadParts(msgId, lazyParts);
                 if (parts != null) {
                     int partsNum = parts.length;
                     for (int i = 0; i < partsNum; i++) {
@@ -709,17 +748,32 @@ public class PduPersister {
 
     private void persistAddress(
             long msgId, int type, EncodedStringValue[] array) {
-        ContentValues values = new ContentValues(3);
+        ArrayList<ContentValues> values = new ArrayList<ContentValues>(array.length);
+        addAddressValues(values, type, array);
+        insertAddresses(msgId, values);
+    }
 
+    private static void addAddressValues(ArrayList<ContentValues> out,
+            int type, EncodedStringValue[] array) {
         for (EncodedStringValue addr : array) {
-            values.clear(); // Clear all values first.
+            ContentValues values = new ContentValues(3);
             values.put(Addr.ADDRESS, toIsoString(addr.getTextString()));
             values.put(Addr.CHARSET, addr.getCharacterSet());
             values.put(Addr.TYPE, type);
+            out.add(values);
+        }
+    }
 
-            Uri uri = Uri.parse("content://mms/" + msgId + "/addr");
-            SqliteWrapper.insert(mContext, mContentResolver, uri, values);
+    /**
+     * Insert the addresses of a message with a single call to the provider.
+     */
+    private void insertAddresses(long msgId, ArrayList<ContentValues> values) {
+        if (values.isEmpty()) {
+            return;
         }
+        Uri uri = Uri.parse("content://mms/" + msgId + "/addr");
+        SqliteWrapper.bulkInsert(mContext, mContentResolver, uri,
+                values.toArray(new ContentValues[values.size()]));
     }
 
     private static String getPartContentType(PduPart part) {
@@ -729,6 +783,26 @@ public class PduPersister {
     public Uri persistPart(PduPart part, long msgId, HashMap<Uri, InputStream> preOpenedFiles)
             throws MmsException {
         Uri uri = Uri.parse("content://mms/" + msgId + "/part");
+        ContentValues values = makePartValues(part);
+        String contentType = values.getAsString(Part.CONTENT_TYPE);
+
+        Uri res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
+        if (res == null) {
+            throw new MmsException("Failed to persist part, return null.");
+        }
+
+        persistData(part, res, contentType, preOpenedFiles);
+        // After successfully store the data, we should update
+        // the dataUri of the part.
+        part.setDataUri(res);
+
+        return res;
+    }
+
+    /**
+     * Build the part table row of a part, without its data.
+     */
+    private static ContentValues makePartValues(PduPart part) throws MmsException {
         ContentValues values = new ContentValues(8);
 
         int charset = part.getCharset();
@@ -779,17 +853,41 @@ public class PduPersister {
             values.put(Part.CONTENT_LOCATION, (String) value);
         }
 
-        Uri res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
-        if (res == null) {
-            throw new MmsException("Failed to persist part, return null.");
-        }
+        return values;
+    }
 
-        persistData(part, res, contentType, preOpenedFiles);
-        // After successfully store the data, we should update
-        // the dataUri of the part.
-        part.setDataUri(res);
+    /**
+     * Text, SMIL and HTML parts are stored in the part table instead of a file.
+     */
+    private static boolean isTextPartType(String contentType) {
+        return ContentType.TEXT_PLAIN.equals(contentType)
+                || ContentType.APP_SMIL.equals(contentType)
+                || ContentType.TEXT_HTML.equals(contentType);
+    }
 
-        return res;
+    /**
+     * Put the data of a text part into the values of its row.
+     */
+    private void putTextPartData(PduPart part, byte[] data, String contentType,
+            ContentValues cv) throws UnsupportedEncodingException {
+        if (data == null) {
+            data = new String("").getBytes(CharacterSets.DEFAULT_CHARSET_NAME);
+            cv.put(Telephony.Mms.Part.TEXT, new EncodedStringValue(data).getString());
+            Log.w(TAG, "Part data is null. contentType: " + contentType);
+        } else {
+            // we will use default encoding when charset is 0 or not supported
+            int charset = part.getCharset();
+            if (charset == CharacterSets.US_ASCII
+                    && ContentType.APP_SMIL.equals(contentType)) {
+                charset = CharacterSets.UTF_8;
+            }
+
+            EncodedStringValue ev = getEncodedStringValue(charset, data);
+
+            // Update the charset in database, make sure part have the right charset.
+            cv.put(Telephony.Mms.Part.CHARSET, ev.getCharacterSet());
+            cv.put(Telephony.Mms.Part.TEXT, ev.getString());
+        }
     }
 
     private EncodedStringValue getEncodedStringValue(int charset, byte[] data) {
@@ -827,28 +925,9 @@ public class PduPersister {
 
         try {
             byte[] data = part.getData();
-            if (ContentType.TEXT_PLAIN.equals(contentType)
-                    || ContentType.APP_SMIL.equals(contentType)
-                    || ContentType.TEXT_HTML.equals(contentType)) {
+            if (isTextPartType(contentType)) {
                 ContentValues cv = new ContentValues();
-                if (data == null) {
-                    data = new String("").getBytes(CharacterSets.DEFAULT_CHARSET_NAME);
-                    cv.put(Telephony.Mms.Part.TEXT, new EncodedStringValue(data).getString());
-                    Log.w(TAG, "Part data is null. contentType: " + contentType);
-                } else {
-                    // we will use default encoding when charset is 0 or not supported
-                    int charset = part.getCharset();
-                    if (charset == CharacterSets.US_ASCII
-                            && ContentType.APP_SMIL.equals(contentType)) {
-                        charset = CharacterSets.UTF_8;
-                    }
-
-                    EncodedStringValue ev = getEncodedStringValue(charset, data);
-
-                    // Update the charset in database, make sure part have the right charset.
-                    cv.put(Telephony.Mms.Part.CHARSET, ev.getCharacterSet());
-                    cv.put(Telephony.Mms.Part.TEXT, ev.getString());
-                }
+                putTextPartData(part, data, contentType, cv);
                 if (mContentResolver.update(uri, cv, null, null) != 1) {
                     throw new MmsException("unable to update " + uri.toString());
                 }
@@ -1294,6 +1373,7 @@ public class PduPersister {
         if (uri == null) {
             throw new MmsException("Uri may not be null.");
         }
+        long startTime = SystemClock.elapsedRealtime();
         long msgId = -1;
         try {
             msgId = ContentUris.parseId(uri);
@@ -1427,6 +1507,15 @@ public class PduPersister {
         // Save parts first to avoid inconsistent message is loaded
         // while saving the parts.
         long dummyId = System.currentTimeMillis(); // Dummy ID of the msg.
+        Uri dummyPartUri = Uri.parse("content://mms/" + dummyId + "/part");
+
+        // Rows that don't need a follow-up write are sent to the provider in one
+        // batch together with the PDU row, instead of one call each. Parts are
+        // read back in row order, so the batch is flushed before any part that
+        // has to be inserted on its own.
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        ArrayList<PduPart> batchedParts = new ArrayList<PduPart>();
+        int partCount = 0;
 
         // Figure out if this PDU is a text-only message
         boolean textOnly = true;
@@ -1447,10 +1536,35 @@ public class PduPersister {
                     // Otherwise, a slideshow with two text slides would be marked as textOnly.
                     textOnly = false;
                 }
+                partCount = partsNum;
                 for (int i = 0; i < partsNum; i++) {
                     PduPart part = body.getPart(i);
-                    messageSize += part.getDataLength();
-                    persistPart(part, dummyId, preOpenedFiles);
+                    // Don't read a lazily loaded part just to size it.
+                    long partSize = part.peekDataLength();
+                    messageSize += partSize >= 0 && partSize <= Integer.MAX_VALUE
+                            ? (int) partSize : part.getDataLength();
+                    ContentValues partValues = makePartValues(part);
+                    String partType = partValues.getAsString(Part.CONTENT_TYPE);
+                    if (isTextPartType(partType)) {
+                        // The text goes into the part row itself, so the row can be
+                        // inserted with the rest of the batch.
+                        try {
+                            putTextPartData(part, part.getData(), partType, partValues);
+                        } catch (UnsupportedEncodingException e) {
+                            throw new MmsException(e);
+                        }
+                        ops.add(ContentProviderOperation.newInsert(dummyPartUri)
+                                .withValues(partValues).build());
+                        batchedParts.add(part);
+                    } else {
+                        // Needs the part Uri to write the data file.
+                        if (!ops.isEmpty()) {
+                            applyBatch(ops, batchedParts);
+                            ops.clear();
+                            batchedParts.clear();
+                        }
+                        persistPart(part, dummyId, preOpenedFiles);
+                    }
 
                     // If we've got anything besides text/plain or SMIL part, then we've got
                     // an mms message with some other type of attachment.
@@ -1471,25 +1585,33 @@ public class PduPersister {
             values.put(Mms.MESSAGE_SIZE, messageSize);
         }
 
+        // Then the PDU row, and move all parts which were saved with the
+        // dummy ID to the real ID of the PDU.
+        int pduOp = ops.size();
+        ContentProviderOperation.Builder partUpdate =
+                ContentProviderOperation.newUpdate(dummyPartUri);
+        if (existingUri) {
+            ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
+            partUpdate.withValue(Part.MSG_ID, msgId);
+        } else {
+            ops.add(ContentProviderOperation.newInsert(uri).withValues(values).build());
+            partUpdate.withValueBackReference(Part.MSG_ID, pduOp);
+        }
+        ops.add(partUpdate.build());
+
+        ContentProviderResult[] results = applyBatch(ops, batchedParts);
+
         Uri res = null;
         if (existingUri) {
             res = uri;
-            SqliteWrapper.update(mContext, mContentResolver, res, values, null, null);
         } else {
-            res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
+            res = results[pduOp].uri;
             if (res == null) {
                 throw new MmsException("persist() failed: return null.");
             }
-            // Get the real ID of the PDU and update all parts which were
-            // saved with the dummy ID.
+            // Get the real ID of the PDU.
             msgId = ContentUris.parseId(res);
         }
-
-        values = new ContentValues(1);
-        values.put(Part.MSG_ID, msgId);
-        SqliteWrapper.update(mContext, mContentResolver,
-                             Uri.parse("content://mms/" + dummyId + "/part"),
-                             values, null, null);
         // We should return the longest URI of the persisted PDU, for
         // example, if input URI is "content://mms/inbox" and the _ID of
         // persisted PDU is '8', we should return "content://mms/inbox/8"
@@ -1500,16 +1622,79 @@ public class PduPersister {
         }
 
         // Save address information.
+        ArrayList<ContentValues> addrValues = new ArrayList<ContentValues>();
         for (int addrType : ADDRESS_FIELDS) {
             EncodedStringValue[] array = addressMap.get(addrType);
             if (array != null) {
-                persistAddress(msgId, addrType, array);
+                addAddressValues(addrValues, addrType, array);
             }
         }
+        insertAddresses(msgId, addrValues);
 
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        recordPersistLatency(elapsed, partCount, addrValues.size());
+        if (LOCAL_LOGV) {
+            Log.v(TAG, "persist: " + res + " parts=" + partCount
+                    + " addresses=" + addrValues.size() + " took " + elapsed + "ms");
+        }
         return res;
     }
 
+    /**
+     * Apply a batch of MMS provider operations that starts with the part inserts of
+     * batchedParts, and set the data Uri of those parts.
+     */
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> ops,
+            ArrayList<PduPart> batchedParts) throws MmsException {
+        ContentProviderResult[] results;
+        try {
+            results = SqliteWrapper.applyBatch(mContext, mContentResolver,
+                    Mms.CONTENT_URI.getAuthority(), ops);
+        } catch (RemoteException e) {
+            throw new MmsException(e);
+        } catch (OperationApplicationException e) {
+            throw new MmsException(e);
+        }
+        if (results == null) {
+            throw new MmsException("persist() failed: return null.");
+        }
+
+        for (int i = 0; i < batchedParts.size(); i++) {
+            if (results[i].uri == null) {
+                throw new MmsException("Failed to persist part, return null.");
+            }
+            batchedParts.get(i).setDataUri(results[i].uri);
+        }
+        return results;
+    }
+
+    private static void recordPersistLatency(long millis, int parts, int addresses) {
+        synchronized (sPersistStatsLock) {
+            sPersistCount++;
+            sPersistTotalMillis += millis;
+            if (millis > sPersistMaxMillis) {
+                sPersistMaxMillis = millis;
+            }
+            sPersistLastMillis = millis;
+            sPersistLastParts = parts;
+            sPersistLastAddresses = addresses;
+        }
+    }
+
+    /**
+     * Print the persist latency statistics of this process.
+     */
+    public static void dump(PrintWriter pw) {
+        synchronized (sPersistStatsLock) {
+            pw.println(" PduPersister: persisted=" + sPersistCount
+                    + ((sPersistCount > 0)
+                            ? (" avgMs=" + (sPersistTotalMillis / sPersistCount)) : "")
+                    + " maxMs=" + sPersistMaxMillis);
+            pw.println("  last: ms=" + sPersistLastMillis + " parts=" + sPersistLastParts
+                    + " addresses=" + sPersistLastAddresses);
+        }
+    }
+
     /**
      * For a given address type, extract the recipients from the headers.
      *
@@ -19,8 +19,22 @@ package com.google.android.mms.util;
 
 import android.util.Log;
 
-import java.util.HashMap;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A bounded cache. Once either the item limit or the size budget is exceeded,
+ * entries that were never read back are evicted first, then the least recently
+ * used ones.
+ *
+ * get() does not take a lock, so readers don't block each other or writers.
+ * Modifications are synchronized on the cache, which subclasses and callers
+ * rely on for their own bookkeeping.
+ */
 public abstract class AbstractCache<K, V> {
     private static final String TAG = "AbstractCache";
     private static final boolean DEBUG = false;
@@ -28,37 +42,150 @@ public abstract class AbstractCache<K, V> {
 
     private static final int MAX_CACHED_ITEMS  = 500;
 
-    private final HashMap<K, CacheEntry<V>> mCacheMap;
+    /**
+     * Eviction runs down to this share of the limits, so that its cost is spread
+     * over several puts instead of being paid on each one.
+     */
+    private static final int TRIM_PERCENT = 90;
+
+    private final ConcurrentHashMap<K, CacheEntry<V>> mCacheMap;
+    private final int mMaxItems;
+    private final long mMaxSize;
+
+    /** Logical clock used to order entries by their last access. */
+    private final AtomicLong mClock = new AtomicLong();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    // Guarded by this.
+    private long mSize;
+    private long mEvictions;
+    private long mRejected;
 
     protected AbstractCache() {
-        mCacheMap = new HashMap<K, CacheEntry<V>>();
+        this(MAX_CACHED_ITEMS, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxItems the maximum number of entries
+     * @param maxSize the budget for the sum of {@link #sizeOf} over all entries
+     */
+    protected AbstractCache(int maxItems, long maxSize) {
+        mCacheMap = new ConcurrentHashMap<K, CacheEntry<V>>();
+        mMaxItems = maxItems;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the estimated size of an entry in the units of the size budget.
+     * It is computed when the entry is put and again by {@link #resize}. The
+     * default is 0, so that only the item limit applies.
+     */
+    protected long sizeOf(K key, V value) {
+        return 0;
+    }
+
+    /**
+     * Called with the cache locked when an entry is evicted to make room.
+     * It is not called for entries removed by purge() or purgeAll().
+     */
+    protected void onEvicted(K key, V value) {
     }
 
-    public boolean put(K key, V value) {
+    public synchronized boolean put(K key, V value) {
         if (LOCAL_LOGV) {
             Log.v(TAG, "Trying to put " + key + " into cache.");
         }
 
-        if (mCacheMap.size() >= MAX_CACHED_ITEMS) {
-            // TODO Should remove the oldest or least hit cached entry
-            // and then cache the new one.
+        if (key == null) {
+            return false;
+        }
+
+        long size = sizeOf(key, value);
+        if (size > mMaxSize) {
+            // Caching it would flush everything else.
+            mRejected++;
             if (LOCAL_LOGV) {
-                Log.v(TAG, "Failed! size limitation reached.");
+                Log.v(TAG, "Failed! " + key + " is larger than the cache.");
             }
             return false;
         }
 
-        if (key != null) {
-            CacheEntry<V> cacheEntry = new CacheEntry<V>();
-            cacheEntry.value = value;
-            mCacheMap.put(key, cacheEntry);
+        CacheEntry<V> cacheEntry = new CacheEntry<V>();
+        cacheEntry.value = value;
+        cacheEntry.size = size;
+        cacheEntry.lastAccess = mClock.incrementAndGet();
+        CacheEntry<V> old = mCacheMap.put(key, cacheEntry);
+        if (old != null) {
+            mSize -= old.size;
+        }
+        mSize += size;
 
+        if (mCacheMap.size() > mMaxItems || mSize > mMaxSize) {
+            trim(key);
+        }
+
+        if (LOCAL_LOGV) {
+            Log.v(TAG, key + " cached, " + mCacheMap.size() + " items total.");
+        }
+        return true;
+    }
+
+    /**
+     * Evicts entries until the cache is back under TRIM_PERCENT of its limits.
+     * The entry just put is never evicted.
+     */
+    private void trim(K newKey) {
+        // newKey is null when an existing entry grew; nothing is spared then.
+        // Snapshot the ordering keys, readers keep updating them while we sort.
+        ArrayList<EvictionCandidate<K>> candidates =
+                new ArrayList<EvictionCandidate<K>>(mCacheMap.size());
+        for (Map.Entry<K, CacheEntry<V>> e : mCacheMap.entrySet()) {
+            CacheEntry<V> entry = e.getValue();
+            candidates.add(new EvictionCandidate<K>(e.getKey(), entry.hit > 0, entry.lastAccess));
+        }
+        Collections.sort(candidates);
+
+        long maxItems = (long) mMaxItems * TRIM_PERCENT / 100;
+        long maxSize = (mMaxSize == Long.MAX_VALUE) ? mMaxSize : mMaxSize / 100 * TRIM_PERCENT;
+        for (EvictionCandidate<K> candidate : candidates) {
+            if (mCacheMap.size() <= maxItems && mSize <= maxSize) {
+                break;
+            }
+            K key = candidate.key;
+            if (newKey != null && key.equals(newKey)) {
+                continue;
+            }
+            CacheEntry<V> victim = mCacheMap.remove(key);
+            if (victim == null) {
+                continue;
+            }
+            mSize -= victim.size;
+            mEvictions++;
             if (LOCAL_LOGV) {
-                Log.v(TAG, key + " cached, " + mCacheMap.size() + " items total.");
+                Log.v(TAG, "Evicted " + key + " hit " + victim.hit + " times.");
             }
-            return true;
+            onEvicted(key, victim.value);
+        }
+    }
+
+    /**
+     * Recomputes the size of an entry whose value grew or shrank after it was
+     * put, evicting entries if the cache is now over its budget. Nothing happens
+     * if the key no longer maps to this value.
+     */
+    protected synchronized void resize(K key, V value) {
+        CacheEntry<V> entry = mCacheMap.get(key);
+        if (entry == null || entry.value != value) {
+            return;
+        }
+        long size = sizeOf(key, value);
+        mSize += size - entry.size;
+        entry.size = size;
+        if (mSize > mMaxSize) {
+            trim(null);
         }
-        return false;
     }
 
     public V get(K key) {
@@ -69,22 +196,32 @@ public abstract class AbstractCache<K, V> {
         if (key != null) {
             CacheEntry<V> cacheEntry = mCacheMap.get(key);
             if (cacheEntry != null) {
+                // Racy updates are fine, both only steer eviction.
                 cacheEntry.hit++;
+                cacheEntry.lastAccess = mClock.incrementAndGet();
+                mHits.incrementAndGet();
                 if (LOCAL_LOGV) {
                     Log.v(TAG, key + " hit " + cacheEntry.hit + " times.");
                 }
                 return cacheEntry.value;
             }
         }
+        mMisses.incrementAndGet();
         return null;
     }
 
-    public V purge(K key) {
+    public synchronized V purge(K key) {
         if (LOCAL_LOGV) {
             Log.v(TAG, "Trying to purge " + key);
         }
 
+        if (key == null) {
+            return null;
+        }
         CacheEntry<V> v = mCacheMap.remove(key);
+        if (v != null) {
+            mSize -= v.size;
+        }
 
         if (LOCAL_LOGV) {
             Log.v(TAG, mCacheMap.size() + " items cached.");
@@ -93,20 +230,56 @@ public abstract class AbstractCache<K, V> {
         return v != null ? v.value : null;
     }
 
-    public void purgeAll() {
+    public synchronized void purgeAll() {
         if (LOCAL_LOGV) {
             Log.v(TAG, "Purging cache, " + mCacheMap.size()
                     + " items dropped.");
         }
         mCacheMap.clear();
+        mSize = 0;
     }
 
     public int size() {
         return mCacheMap.size();
     }
 
+    public synchronized void dump(PrintWriter pw) {
+        long hits = mHits.get();
+        long misses = mMisses.get();
+        pw.println(" " + getClass().getSimpleName() + ": items=" + mCacheMap.size()
+                + "/" + mMaxItems + " size=" + mSize
+                + ((mMaxSize == Long.MAX_VALUE) ? "" : ("/" + mMaxSize)));
+        pw.println("  hits=" + hits + " misses=" + misses
+                + ((hits + misses > 0) ? (" hitRate=" + ((float) hits / (hits + misses))) : "")
+                + " evictions=" + mEvictions + " rejected=" + mRejected);
+    }
+
+    /** Entries that were never hit go first, each group from least recently used. */
+    private static class EvictionCandidate<K> implements Comparable<EvictionCandidate<K>> {
+        final K key;
+        final boolean hit;
+        final long lastAccess;
+
+        EvictionCandidate(K key, boolean hit, long lastAccess) {
+            this.key = key;
+            this.hit = hit;
+            this.lastAccess = lastAccess;
+        }
+
+        @Override
+        public int compareTo(EvictionCandidate<K> other) {
+            if (hit != other.hit) {
+                return hit ? 1 : -1;
+            }
+            return (lastAccess < other.lastAccess) ? -1
+                    : ((lastAccess == other.lastAccess) ? 0 : 1);
+        }
+    }
+
     private static class CacheEntry<V> {
-        int hit;
+        volatile int hit;
+        volatile long lastAccess;
+        long size;
         V value;
     }
 }
@@ -23,6 +23,8 @@ import android.net.Uri;
 import android.provider.Telephony.Mms;
 import android.util.Log;
 
+import com.google.android.mms.pdu.PduPart;
+
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -31,6 +33,10 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     private static final boolean DEBUG = false;
     private static final boolean LOCAL_LOGV = false;
 
+    private static final int MAX_CACHED_ITEMS = 500;
+    /** Budget for the estimated memory held by cached PDUs. */
+    private static final long MAX_CACHED_BYTES = 4 * 1024 * 1024;
+
     private static final int MMS_ALL             = 0;
     private static final int MMS_ALL_ID          = 1;
     private static final int MMS_INBOX           = 2;
@@ -76,6 +82,7 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     private final HashSet<Uri> mUpdating;
 
     private PduCache() {
+        super(MAX_CACHED_ITEMS, MAX_CACHED_BYTES);
         mMessageBoxes = new HashMap<Integer, HashSet<Uri>>();
         mThreads = new HashMap<Long, HashSet<Uri>>();
         mUpdating = new HashSet<Uri>();
@@ -92,7 +99,7 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     }
 
     @Override
-    synchronized public boolean put(Uri uri, PduCacheEntry entry) {
+    synchronized public boolean put(Uri uri, final PduCacheEntry entry) {
         int msgBoxId = entry.getMessageBox();
         HashSet<Uri> msgBox = mMessageBoxes.get(msgBoxId);
         if (msgBox == null) {
@@ -107,7 +114,14 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
             mThreads.put(threadId, thread);
         }
 
-        Uri finalKey = normalizeKey(uri);
+        final Uri finalKey = normalizeKey(uri);
+        // Registered before the entry is sized, so no part can load unaccounted.
+        entry.setDataLoadedListener(new PduPart.DataLoadedListener() {
+            @Override
+            public void onDataLoaded(PduPart part) {
+                resize(finalKey, entry);
+            }
+        });
         boolean result = super.put(finalKey, entry);
         if (result) {
             msgBox.add(finalKey);
@@ -117,6 +131,17 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         return result;
     }
 
+    @Override
+    protected long sizeOf(Uri uri, PduCacheEntry entry) {
+        return entry.getEstimatedSize();
+    }
+
+    @Override
+    protected void onEvicted(Uri key, PduCacheEntry entry) {
+        removeFromThreads(key, entry);
+        removeFromMessageBoxes(key, entry);
+    }
+
     synchronized public void setUpdating(Uri uri, boolean updating) {
         if (updating) {
             mUpdating.add(uri);
@@ -253,7 +278,7 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     }
 
     private void removeFromMessageBoxes(Uri key, PduCacheEntry entry) {
-        HashSet<Uri> msgBox = mThreads.get(Long.valueOf(entry.getMessageBox()));
+        HashSet<Uri> msgBox = mMessageBoxes.get(entry.getMessageBox());
         if (msgBox != null) {
             msgBox.remove(key);
         }
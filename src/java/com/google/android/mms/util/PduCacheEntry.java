@@ -18,18 +18,49 @@
 package com.google.android.mms.util;
 
 import com.google.android.mms.pdu.GenericPdu;
+import com.google.android.mms.pdu.MultimediaMessagePdu;
+import com.google.android.mms.pdu.PduBody;
+import com.google.android.mms.pdu.PduPart;
+
+import java.nio.ByteBuffer;
 
 public final class PduCacheEntry {
     private final GenericPdu mPdu;
     private final int mMessageBox;
     private final long mThreadId;
 
+    /** Rough memory held by a PDU's headers and addresses. */
+    private static final int PDU_OVERHEAD = 1024;
+    /** Rough memory held by a part's headers. */
+    private static final int PART_OVERHEAD = 256;
+
     public PduCacheEntry(GenericPdu pdu, int msgBox, long threadId) {
         mPdu = pdu;
         mMessageBox = msgBox;
         mThreadId = threadId;
     }
 
+    /**
+     * Estimates the memory held by a PDU. Part data that is only referenced by
+     * Uri, or not loaded yet, is not counted.
+     */
+    private static int estimateSize(GenericPdu pdu) {
+        int size = PDU_OVERHEAD;
+        if (pdu instanceof MultimediaMessagePdu) {
+            PduBody body = ((MultimediaMessagePdu) pdu).getBody();
+            if (body != null) {
+                for (int i = 0; i < body.getPartsNum(); i++) {
+                    size += PART_OVERHEAD;
+                    ByteBuffer data = body.getPart(i).getDataBuffer();
+                    if (data != null) {
+                        size += data.remaining();
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
     public GenericPdu getPdu() {
         return mPdu;
     }
@@ -41,4 +72,29 @@ public final class PduCacheEntry {
     public long getThreadId() {
         return mThreadId;
     }
+
+    /**
+     * @return the estimated memory held by the PDU, including the lazily loaded
+     * part data read so far
+     */
+    public int getEstimatedSize() {
+        return estimateSize(mPdu);
+    }
+
+    /**
+     * Sets the listener of every part whose data is still to be loaded lazily.
+     */
+    void setDataLoadedListener(PduPart.DataLoadedListener listener) {
+        if (mPdu instanceof MultimediaMessagePdu) {
+            PduBody body = ((MultimediaMessagePdu) mPdu).getBody();
+            if (body != null) {
+                for (int i = 0; i < body.getPartsNum(); i++) {
+                    PduPart part = body.getPart(i);
+                    if (part.isDataPending()) {
+                        part.setDataLoadedListener(listener);
+                    }
+                }
+            }
+        }
+    }
 }
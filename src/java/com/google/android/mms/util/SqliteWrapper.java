@@ -18,15 +18,21 @@
 package com.google.android.mms.util;
 
 import android.app.ActivityManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.util.ArrayList;
+
 public final class SqliteWrapper {
     private static final String TAG = "SqliteWrapper";
     private static final String SQLITE_EXCEPTION_DETAIL_MESSAGE
@@ -117,4 +123,27 @@ public final class SqliteWrapper {
             return null;
         }
     }
+
+    public static int bulkInsert(Context context, ContentResolver resolver,
+            Uri uri, ContentValues[] values) {
+        try {
+            return resolver.bulkInsert(uri, values);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Catch a SQLiteException when bulkInsert: ", e);
+            checkSQLiteException(context, e);
+            return -1;
+        }
+    }
+
+    public static ContentProviderResult[] applyBatch(Context context, ContentResolver resolver,
+            String authority, ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        try {
+            return resolver.applyBatch(authority, operations);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Catch a SQLiteException when applyBatch: ", e);
+            checkSQLiteException(context, e);
+            return null;
+        }
+    }
 }
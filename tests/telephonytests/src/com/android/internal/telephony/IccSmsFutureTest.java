@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for the result of asynchronous SIM SMS operations.
+ */
+public class IccSmsFutureTest extends AndroidTestCase {
+
+    @SmallTest
+    public void testListenersAndGet() throws Exception {
+        final ArrayList<Boolean> results = new ArrayList<Boolean>();
+        IccSmsFuture.Listener<Boolean> listener = new IccSmsFuture.Listener<Boolean>() {
+            @Override
+            public void onComplete(Boolean result) {
+                results.add(result);
+            }
+        };
+
+        IccSmsFuture<Boolean> future = new IccSmsFuture<Boolean>();
+        future.addListener(listener);
+        assertFalse(future.isDone());
+        assertTrue(results.isEmpty());
+
+        future.complete(true);
+        future.complete(false);
+        assertTrue(future.isDone());
+        assertEquals(Boolean.TRUE, future.get());
+        assertEquals(1, results.size());
+
+        // added after completion: called right away
+        future.addListener(listener);
+        assertEquals(2, results.size());
+        assertEquals(Boolean.TRUE, results.get(1));
+    }
+
+    @SmallTest
+    public void testGetBlocksUntilComplete() throws Exception {
+        final IccSmsFuture<String> future = new IccSmsFuture<String>();
+        Thread completer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                }
+                future.complete("done");
+            }
+        };
+        completer.start();
+        assertEquals("done", future.get());
+        completer.join();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.IccSmsInterfaceManager.IccSmsRecordListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for a shared load of all SMS records on the Icc.
+ */
+public class IccSmsLoadOperationTest extends AndroidTestCase {
+
+    private static class Recorder implements IccSmsRecordListener {
+        final ArrayList<Integer> mIndices = new ArrayList<Integer>();
+        final ArrayList<SmsRawData> mRecords = new ArrayList<SmsRawData>();
+
+        @Override
+        public void onRecord(int index, SmsRawData record) {
+            mIndices.add(index);
+            mRecords.add(record);
+        }
+    }
+
+    private static SmsRawData record(int id) {
+        return new SmsRawData(new byte[] {1, (byte) id});
+    }
+
+    @SmallTest
+    public void testStreamsRecordsInOrder() {
+        IccSmsLoadOperation op = new IccSmsLoadOperation();
+        Recorder recorder = new Recorder();
+        op.join(recorder);
+        assertTrue(recorder.mIndices.isEmpty());
+
+        SmsRawData first = record(1);
+        op.addRecord(1, first);
+        op.addRecord(2, null);
+        SmsRawData third = record(3);
+        op.addRecord(3, third);
+
+        assertEquals(3, recorder.mIndices.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, (int) recorder.mIndices.get(i));
+        }
+        assertSame(first, recorder.mRecords.get(0));
+        assertNull(recorder.mRecords.get(1));
+        assertSame(third, recorder.mRecords.get(2));
+
+        List<SmsRawData> records = op.getRecords();
+        assertEquals(3, records.size());
+        assertSame(third, records.get(2));
+    }
+
+    @SmallTest
+    public void testJoinInProgressReplaysThenStreams() {
+        IccSmsLoadOperation op = new IccSmsLoadOperation();
+        Recorder early = new Recorder();
+        op.join(early);
+        op.addRecord(1, record(1));
+        op.addRecord(2, null);
+
+        Recorder late = new Recorder();
+        op.join(late);
+        assertEquals(2, late.mIndices.size());
+        assertEquals(1, (int) late.mIndices.get(0));
+        assertEquals(2, (int) late.mIndices.get(1));
+        assertNull(late.mRecords.get(1));
+
+        op.addRecord(3, record(3));
+        assertEquals(3, early.mIndices.size());
+        assertEquals(3, late.mIndices.size());
+        assertEquals(3, (int) late.mIndices.get(2));
+        assertSame(early.mRecords.get(2), late.mRecords.get(2));
+    }
+
+    @SmallTest
+    public void testJoinAfterLoadReplaysEverything() {
+        IccSmsLoadOperation op = new IccSmsLoadOperation();
+        op.addRecord(1, record(1));
+        op.addRecord(2, record(2));
+        op.mFuture.complete(op.getRecords());
+
+        Recorder recorder = new Recorder();
+        op.join(recorder);
+        assertEquals(2, recorder.mIndices.size());
+        assertTrue(op.mFuture.isDone());
+    }
+
+    /**
+     * A listener that waits for another thread using the operation must not deadlock,
+     * so listeners can't be called with the operation's lock held.
+     */
+    @SmallTest
+    public void testListenerCalledWithoutLock() throws Exception {
+        final IccSmsLoadOperation op = new IccSmsLoadOperation();
+        final int[] seen = new int[1];
+        IccSmsRecordListener listener = new IccSmsRecordListener() {
+            @Override
+            public void onRecord(int index, SmsRawData record) {
+                Thread reader = new Thread() {
+                    @Override
+                    public void run() {
+                        seen[0] = op.getRecords().size();
+                    }
+                };
+                reader.start();
+                try {
+                    reader.join(5000);
+                } catch (InterruptedException e) {
+                }
+                assertFalse("listener called with the operation locked", reader.isAlive());
+            }
+        };
+        op.addRecord(1, record(1));
+        op.join(listener);
+        assertEquals(1, seen[0]);
+        op.addRecord(2, record(2));
+        assertEquals(2, seen[0]);
+    }
+}
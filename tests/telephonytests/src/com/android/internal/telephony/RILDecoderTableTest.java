@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the RIL response decoder table and decoder workers.
+ */
+public class RILDecoderTableTest extends AndroidTestCase {
+
+    private static class ConstantDecoder implements RILResponseDecoder {
+        final Object mValue;
+
+        ConstantDecoder(Object value) {
+            mValue = value;
+        }
+
+        @Override
+        public Object decode(Parcel p) {
+            return mValue;
+        }
+    }
+
+    @SmallTest
+    public void testLookupInsideAndOutsideArray() {
+        RILDecoderTable table = new RILDecoderTable(1000, 16);
+        RILResponseDecoder inside = new ConstantDecoder("inside");
+        RILResponseDecoder vendor = new ConstantDecoder("vendor");
+        table.register(1003, inside);
+        table.register(11000, vendor, true);
+
+        assertSame(inside, table.get(1003));
+        assertFalse(table.isHeavy(1003));
+        assertSame(vendor, table.get(11000));
+        assertTrue(table.isHeavy(11000));
+        assertNull(table.get(1004));
+        assertNull(table.get(5));
+        assertFalse(table.isHeavy(5));
+    }
+
+    @SmallTest
+    public void testRegisterReplaces() {
+        RILDecoderTable table = new RILDecoderTable(0, 16);
+        RILResponseDecoder replacement = new ConstantDecoder("replacement");
+        table.register(3, new ConstantDecoder("original"), true);
+        table.register(3, replacement);
+
+        assertSame(replacement, table.get(3));
+        assertFalse(table.isHeavy(3));
+    }
+
+    @SmallTest
+    public void testPoolKeepsOrderPerKey() throws Exception {
+        RILDecoderPool pool = new RILDecoderPool("RILDecoderTableTest", 4);
+        final int tasks = 200;
+        final ArrayList<Integer> first = new ArrayList<Integer>();
+        final ArrayList<Integer> second = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(2 * tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            final int value = i;
+            pool.execute(1, new Runnable() {
+                @Override
+                public void run() {
+                    first.add(value);
+                    done.countDown();
+                }
+            });
+            pool.execute(2, new Runnable() {
+                @Override
+                public void run() {
+                    second.add(value);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < tasks; i++) {
+            assertEquals(i, (int) first.get(i));
+            assertEquals(i, (int) second.get(i));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.CommandsInterface.RadioState;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test cases for the RILEventLog ring buffer.
+ */
+public class RILEventLogTest extends AndroidTestCase {
+
+    private static String dump(RILEventLog log) {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        log.dump(pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+    @SmallTest
+    public void testWrapAroundKeepsNewest() {
+        RILEventLog log = new RILEventLog(4);
+        for (int serial = 1; serial <= 10; serial++) {
+            log.log(RILEventLog.TYPE_REQUEST, RILConstants.RIL_REQUEST_DIAL, serial, 0);
+        }
+        String out = dump(log);
+        assertTrue(out, out.contains("events=10 retained=4"));
+        for (int serial = 1; serial <= 6; serial++) {
+            assertFalse(out, out.contains("[" + serial + "] "));
+        }
+        int last = -1;
+        for (int serial = 7; serial <= 10; serial++) {
+            int index = out.indexOf("[" + serial + "] ");
+            assertTrue(out, index > last);
+            last = index;
+        }
+    }
+
+    @SmallTest
+    public void testCapacityRoundedUp() {
+        RILEventLog log = new RILEventLog(5);
+        for (int serial = 1; serial <= 8; serial++) {
+            log.log(RILEventLog.TYPE_REQUEST, RILConstants.RIL_REQUEST_DIAL, serial, 0);
+        }
+        assertTrue(dump(log).contains("events=8 retained=8"));
+    }
+
+    @SmallTest
+    public void testRadioStateChange() {
+        RILEventLog log = new RILEventLog(4);
+        log.log(RILEventLog.TYPE_RADIO_STATE, RadioState.RADIO_ON.ordinal(), 0,
+                RadioState.RADIO_OFF.ordinal());
+        assertTrue(dump(log).contains("radioState RADIO_OFF -> RADIO_ON"));
+    }
+
+    /**
+     * Dumps while another thread keeps lapping the ring. Every record that is
+     * printed must be one a writer published in full, never a mix of two.
+     */
+    @MediumTest
+    public void testConcurrentDumpSkipsTornRecords() throws Exception {
+        final RILEventLog log = new RILEventLog(8);
+        final int events = 200000;
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int serial = 1; serial <= events; serial++) {
+                    // The error mirrors the serial so a torn record is detectable.
+                    log.log(RILEventLog.TYPE_RESPONSE, RILConstants.RIL_REQUEST_DIAL,
+                            serial, serial);
+                }
+            }
+        };
+        writer.start();
+
+        Pattern record = Pattern.compile("\\[(\\d+)\\] < \\S+ error=(\\d+)");
+        int records = 0;
+        while (writer.isAlive()) {
+            Matcher m = record.matcher(dump(log));
+            while (m.find()) {
+                assertEquals(m.group(0), m.group(1), m.group(2));
+                records++;
+            }
+        }
+        writer.join();
+        assertTrue(records > 0 || dump(log).contains("events=" + events));
+    }
+}
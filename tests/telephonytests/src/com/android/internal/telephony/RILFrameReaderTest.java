@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Test cases for RILFrameReader framing of the RIL socket stream.
+ */
+public class RILFrameReaderTest extends AndroidTestCase {
+
+    /**
+     * Hands out the stream in reads of the given sizes, like a socket that
+     * delivers whatever has arrived so far.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] mData;
+        private final int[] mChunks;
+        private int mPos;
+        private int mChunk;
+
+        ChunkedInputStream(byte[] data, int... chunks) {
+            mData = data;
+            mChunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (mPos == mData.length) {
+                return -1;
+            }
+            int chunk = mChunk < mChunks.length ? mChunks[mChunk++] : mData.length;
+            int count = Math.min(Math.min(chunk, len), mData.length - mPos);
+            System.arraycopy(mData, mPos, b, off, count);
+            mPos += count;
+            return count;
+        }
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    private static byte[] stream(byte[]... frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            out.write(frame.length >>> 24);
+            out.write(frame.length >>> 16);
+            out.write(frame.length >>> 8);
+            out.write(frame.length);
+            out.write(frame, 0, frame.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertFrame(RILFrameReader reader, InputStream is, byte[] expected)
+            throws IOException {
+        assertEquals(expected.length, reader.nextFrame(is));
+        byte[] actual = Arrays.copyOfRange(reader.getBuffer(), reader.getFrameOffset(),
+                reader.getFrameOffset() + expected.length);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    @SmallTest
+    public void testSeveralFramesFromOneRead() throws IOException {
+        byte[] a = payload(10, 1);
+        byte[] b = payload(3, 50);
+        byte[] c = payload(0, 0);
+        RILFrameReader reader = new RILFrameReader(128, 64);
+        InputStream is = new ChunkedInputStream(stream(a, b, c));
+        assertFrame(reader, is, a);
+        assertFrame(reader, is, b);
+        assertFrame(reader, is, c);
+        assertEquals(-1, reader.nextFrame(is));
+    }
+
+    @SmallTest
+    public void testFramesSplitAcrossReads() throws IOException {
+        byte[] a = payload(20, 7);
+        byte[] b = payload(9, 90);
+        RILFrameReader reader = new RILFrameReader(128, 64);
+        // Split inside the first header, inside the first payload and inside
+        // the second header.
+        InputStream is = new ChunkedInputStream(stream(a, b), 2, 5, 18, 1, 2, 100);
+        assertFrame(reader, is, a);
+        assertFrame(reader, is, b);
+        assertEquals(-1, reader.nextFrame(is));
+    }
+
+    @SmallTest
+    public void testCarryOverCompactsPartialFrame() throws IOException {
+        byte[] a = payload(20, 3);
+        byte[] b = payload(20, 40);
+        byte[] c = payload(20, 80);
+        // Room for one frame and a bit: the second frame's tail does not fit
+        // after the first, so the partial frame must move to the front.
+        RILFrameReader reader = new RILFrameReader(40, 20);
+        InputStream is = new ChunkedInputStream(stream(a, b, c), 30, 30, 30);
+        assertFrame(reader, is, a);
+        assertFrame(reader, is, b);
+        assertFrame(reader, is, c);
+        assertEquals(-1, reader.nextFrame(is));
+        assertTrue(reader.getCarryOverCount() > 0);
+    }
+
+    @SmallTest
+    public void testEndOfStreamInsideFrame() throws IOException {
+        byte[] data = stream(payload(16, 0));
+        RILFrameReader reader = new RILFrameReader(64, 32);
+        InputStream is = new ChunkedInputStream(Arrays.copyOf(data, data.length - 1));
+        assertEquals(-1, reader.nextFrame(is));
+    }
+
+    @SmallTest
+    public void testInvalidLength() {
+        RILFrameReader reader = new RILFrameReader(64, 32);
+        InputStream is = new ChunkedInputStream(stream(payload(33, 0)));
+        try {
+            reader.nextFrame(is);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testCapacityTooSmall() {
+        try {
+            new RILFrameReader(35, 32);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testPeekUnsolResponse() {
+        // Parcel ints are little endian.
+        byte[] unsol = {
+            9, 9, 1, 0, 0, 0, (byte) 0xeb, 0x03, 0, 0, 5, 0, 0, 0
+        };
+        assertEquals(1003, RIL.peekUnsolResponse(unsol, 2, unsol.length - 2));
+
+        byte[] solicited = {0, 0, 0, 0, 0x2a, 0, 0, 0};
+        assertEquals(-1, RIL.peekUnsolResponse(solicited, 0, solicited.length));
+
+        // Too short to hold the response type and code.
+        assertEquals(-1, RIL.peekUnsolResponse(unsol, 2, 7));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Test cases for RILFrameWriter request coalescing.
+ */
+public class RILFrameWriterTest extends AndroidTestCase {
+
+    /** Records every write() call separately. */
+    private static class RecordingOutputStream extends OutputStream {
+        int writes;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+            writes++;
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            bytes.write(b, off, len);
+        }
+    }
+
+    private static class FailingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("broken pipe");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            throw new IOException("broken pipe");
+        }
+    }
+
+    private static byte[] frame(int length, int fill) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) fill);
+        return data;
+    }
+
+    @SmallTest
+    public void testFlushWritesAllFramesOnce() throws IOException {
+        RILFrameWriter writer = new RILFrameWriter(64);
+        assertTrue(writer.isEmpty());
+        assertTrue(writer.append(new byte[] {1, 2, 3}));
+        assertTrue(writer.append(new byte[] {4}));
+        assertEquals(2, writer.getPendingFrames());
+
+        RecordingOutputStream os = new RecordingOutputStream();
+        writer.flush(os);
+        assertEquals(1, os.writes);
+        assertTrue(Arrays.equals(new byte[] {0, 0, 0, 3, 1, 2, 3, 0, 0, 0, 1, 4},
+                os.bytes.toByteArray()));
+        assertTrue(writer.isEmpty());
+
+        // Flushing an empty writer does not touch the stream.
+        writer.flush(os);
+        assertEquals(1, os.writes);
+    }
+
+    @SmallTest
+    public void testAppendWhenFull() throws IOException {
+        RILFrameWriter writer = new RILFrameWriter(16);
+        // 4 byte header + 8 bytes leaves 4 bytes, enough for an empty frame only.
+        assertTrue(writer.append(frame(8, 0x11)));
+        assertFalse(writer.append(frame(1, 0x22)));
+        assertEquals(1, writer.getPendingFrames());
+
+        RecordingOutputStream os = new RecordingOutputStream();
+        writer.flush(os);
+        assertEquals(12, os.bytes.size());
+
+        // After the flush the frame that did not fit goes in.
+        assertTrue(writer.append(frame(1, 0x22)));
+        writer.flush(os);
+        assertEquals(2, os.writes);
+        byte[] written = os.bytes.toByteArray();
+        assertEquals(17, written.length);
+        assertEquals(1, written[15]);
+        assertEquals(0x22, written[16]);
+    }
+
+    @SmallTest
+    public void testFrameExactlyFillsBuffer() throws IOException {
+        RILFrameWriter writer = new RILFrameWriter(16);
+        assertTrue(writer.append(frame(16 - RILFrameWriter.HEADER_SIZE, 0x33)));
+        assertFalse(writer.append(new byte[0]));
+
+        RecordingOutputStream os = new RecordingOutputStream();
+        writer.flush(os);
+        assertEquals(16, os.bytes.size());
+    }
+
+    @SmallTest
+    public void testFailedFlushResets() {
+        RILFrameWriter writer = new RILFrameWriter(32);
+        writer.append(frame(4, 0x44));
+        try {
+            writer.flush(new FailingOutputStream());
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        assertTrue(writer.isEmpty());
+        assertTrue(writer.append(frame(28, 0x55)));
+    }
+}
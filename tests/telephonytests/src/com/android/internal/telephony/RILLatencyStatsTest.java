@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for the RILLatencyStats histograms.
+ */
+public class RILLatencyStatsTest extends AndroidTestCase {
+
+    private static final int REQUEST_FAST = 1;
+    private static final int REQUEST_SLOW = 2;
+    private static final int REQUEST_VENDOR = 0x80000;
+
+    @SmallTest
+    public void testEmpty() {
+        RILLatencyStats stats = new RILLatencyStats();
+        assertNull(stats.getSnapshot(REQUEST_FAST));
+        assertEquals(0, stats.getSnapshots().size());
+    }
+
+    @SmallTest
+    public void testPercentiles() {
+        RILLatencyStats stats = new RILLatencyStats();
+        // 99 samples of 100us and one of 50ms
+        for (int i = 0; i < 99; i++) {
+            stats.record(REQUEST_FAST, 100 * 1000L);
+        }
+        stats.record(REQUEST_FAST, 50 * 1000 * 1000L);
+
+        RILLatencyStats.Snapshot s = stats.getSnapshot(REQUEST_FAST);
+        assertEquals(100, s.count);
+        assertEquals(50000, s.maxMicros);
+        // 100us falls in the [64, 128) bucket
+        assertTrue("p50=" + s.p50Micros, s.p50Micros >= 100 && s.p50Micros < 128);
+        assertTrue("p99=" + s.p99Micros, s.p99Micros >= 100 && s.p99Micros < 128);
+        assertEquals((99 * 100 + 50000) / 100, s.meanMicros);
+    }
+
+    @SmallTest
+    public void testSnapshotsSortedByP99() {
+        RILLatencyStats stats = new RILLatencyStats();
+        stats.record(REQUEST_FAST, 1000L);
+        stats.record(REQUEST_SLOW, 10 * 1000 * 1000L);
+        stats.record(REQUEST_VENDOR, 1000 * 1000L);
+
+        ArrayList<RILLatencyStats.Snapshot> list = stats.getSnapshots();
+        assertEquals(3, list.size());
+        assertEquals(REQUEST_SLOW, list.get(0).request);
+        assertEquals(REQUEST_VENDOR, list.get(1).request);
+        assertEquals(REQUEST_FAST, list.get(2).request);
+    }
+
+    @SmallTest
+    public void testNegativeSampleIgnored() {
+        RILLatencyStats stats = new RILLatencyStats();
+        stats.record(REQUEST_FAST, -1L);
+        assertNull(stats.getSnapshot(REQUEST_FAST));
+    }
+}
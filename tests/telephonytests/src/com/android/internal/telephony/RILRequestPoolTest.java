@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Debug;
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test cases and a multi-threaded microbenchmark for RILRequest pooling.
+ */
+public class RILRequestPoolTest extends AndroidTestCase {
+    private static final String TAG = "RILRequestPoolTest";
+
+    private static final int BENCH_THREADS = 4;
+    private static final int BENCH_WARMUP_OPS = 10000;
+    private static final int BENCH_OPS = 200000;
+
+    @SmallTest
+    public void testPoolBound() {
+        RILRequestPool pool = new RILRequestPool(4, 2);
+        assertNull(pool.obtain());
+
+        int kept = 0;
+        for (int i = 0; i < 10; i++) {
+            RILRequest rr = RILRequest.obtain(RILConstants.RIL_REQUEST_GET_SIM_STATUS, null);
+            rr.mParcel.recycle();
+            rr.mParcel = null;
+            if (pool.release(rr)) kept++;
+        }
+        assertEquals(4, kept);
+
+        long[] counters = pool.getCounters();
+        assertEquals(6, counters[4]);   // dropped
+        assertEquals(4, counters[5]);   // pooled
+
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(pool.obtain());
+        }
+        assertNull(pool.obtain());
+        counters = pool.getCounters();
+        assertEquals(4, counters[0]);   // hits
+        assertEquals(2, counters[1]);   // misses
+    }
+
+    @SmallTest
+    public void testParcelReused() {
+        RILRequest rr = RILRequest.obtain(RILConstants.RIL_REQUEST_GET_SIM_STATUS, null);
+        rr.mParcel.writeString("payload");
+        rr.releaseParcel();
+        assertNull(rr.mParcel);
+        assertNotNull(rr.mSpareParcel);
+        rr.release();
+
+        long[] before = RILRequest.sPool.getCounters();
+        RILRequest again = RILRequest.obtain(RILConstants.RIL_REQUEST_GET_SIM_STATUS, null);
+        long[] after = RILRequest.sPool.getCounters();
+        // Either this thread got a request back with its Parcel, or another
+        // thread raced us for it; both are counted.
+        assertEquals(before[2] + before[3] + 1, after[2] + after[3]);
+        // The header must have been written to a cleared Parcel.
+        assertEquals(8, again.mParcel.dataSize());
+        again.release();
+    }
+
+    /**
+     * Drives obtain()/release() from several threads, the way Binder callers and
+     * RILReceiver do, and logs throughput, pool hit rate and allocations per op.
+     */
+    @LargeTest
+    public void testConcurrentObtainReleaseBenchmark() throws Exception {
+        runBenchmark(BENCH_WARMUP_OPS);
+
+        long[] before = RILRequest.sPool.getCounters();
+        int allocsBefore = Debug.getGlobalAllocCount();
+        Debug.startAllocCounting();
+        long nanos = runBenchmark(BENCH_OPS);
+        Debug.stopAllocCounting();
+        int allocs = Debug.getGlobalAllocCount() - allocsBefore;
+        long[] after = RILRequest.sPool.getCounters();
+
+        long ops = (long) BENCH_THREADS * BENCH_OPS;
+        long hits = after[0] - before[0];
+        long misses = after[1] - before[1];
+        long parcelHits = after[2] - before[2];
+        Rlog.d(TAG, "threads=" + BENCH_THREADS + " ops=" + ops
+                + " nsPerOp=" + (nanos / ops)
+                + " poolHitRate=" + ((float) hits / (hits + misses))
+                + " parcelHitRate=" + ((float) parcelHits / ops)
+                + " allocsPerOp=" + ((float) allocs / ops));
+
+        // With the pool bound above the number of threads, almost every obtain
+        // should be served from the pool.
+        assertTrue("pool hit rate too low: hits=" + hits + " misses=" + misses,
+                hits > misses * 10);
+    }
+
+    private static long runBenchmark(final int opsPerThread) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(BENCH_THREADS);
+        for (int t = 0; t < BENCH_THREADS; t++) {
+            new Thread("RILRequestPoolBench" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < opsPerThread; i++) {
+                        RILRequest rr = RILRequest.obtain(
+                                RILConstants.RIL_REQUEST_SIGNAL_STRENGTH, null);
+                        rr.mParcel.writeInt(i);
+                        rr.releaseParcel();
+                        rr.release();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for the RILRequestTable pending request registry.
+ */
+public class RILRequestTableTest extends AndroidTestCase {
+
+    private static RILRequest newRequest(int serial) {
+        RILRequest rr = RILRequest.obtain(RILConstants.RIL_REQUEST_GET_SIM_STATUS, null);
+        rr.mSerial = serial;
+        return rr;
+    }
+
+    @SmallTest
+    public void testPutRemove() {
+        RILRequestTable table = new RILRequestTable(16);
+        RILRequest a = newRequest(100);
+        RILRequest b = newRequest(101);
+        table.put(a);
+        table.put(b);
+        assertEquals(2, table.size());
+        assertSame(a, table.get(100));
+        assertSame(b, table.remove(101));
+        assertNull(table.remove(101));
+        assertNull(table.get(101));
+        assertSame(a, table.remove(100));
+        assertEquals(0, table.size());
+    }
+
+    @SmallTest
+    public void testNegativeSerials() {
+        RILRequestTable table = new RILRequestTable(16);
+        RILRequest rr = newRequest(Integer.MIN_VALUE + 3);
+        table.put(rr);
+        assertSame(rr, table.remove(Integer.MIN_VALUE + 3));
+    }
+
+    @SmallTest
+    public void testCollidingSerialsOverflow() {
+        RILRequestTable table = new RILRequestTable(8);
+        ArrayList<RILRequest> requests = new ArrayList<RILRequest>();
+        // Every serial maps to the same home slot of an 8 slot table.
+        for (int i = 0; i < 12; i++) {
+            RILRequest rr = newRequest(i * 8);
+            requests.add(rr);
+            table.put(rr);
+        }
+        assertEquals(12, table.size());
+        assertEquals(4, table.overflowSize());
+        for (RILRequest rr : requests) {
+            assertSame(rr, table.remove(rr.mSerial));
+        }
+        assertEquals(0, table.size());
+        assertEquals(0, table.overflowSize());
+    }
+
+    @SmallTest
+    public void testRemoveAll() {
+        RILRequestTable table = new RILRequestTable(8);
+        for (int i = 0; i < 10; i++) {
+            table.put(newRequest(i * 8));
+        }
+        ArrayList<RILRequest> all = new ArrayList<RILRequest>();
+        table.removeAll(all);
+        assertEquals(10, all.size());
+        assertEquals(0, table.size());
+    }
+
+    @SmallTest
+    public void testRemoveByResult() {
+        RILRequestTable table = new RILRequestTable(8);
+        Message result = Message.obtain();
+        RILRequest a = newRequest(1);
+        RILRequest b = newRequest(2);
+        b.mResult = result;
+        table.put(a);
+        table.put(b);
+        assertSame(b, table.removeByResult(result));
+        assertNull(table.removeByResult(result));
+        assertEquals(1, table.size());
+    }
+
+    @SmallTest
+    public void testRecycledRequestKeepsNewSerial() {
+        RILRequestTable table = new RILRequestTable(8);
+        RILRequest rr = newRequest(5);
+        table.put(rr);
+        assertSame(rr, table.remove(5));
+
+        // The pooled request comes back under a serial with the same home slot.
+        rr.mSerial = 13;
+        table.put(rr);
+        assertNull(table.remove(5));
+        assertNull(table.get(5));
+        assertEquals(1, table.size());
+        assertSame(rr, table.remove(13));
+        assertEquals(0, table.size());
+    }
+}
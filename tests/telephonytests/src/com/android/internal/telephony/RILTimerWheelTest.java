@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for the RILTimerWheel request deadlines.
+ */
+public class RILTimerWheelTest extends AndroidTestCase {
+
+    private static class Recorder implements RILTimerWheel.Callback {
+        final ArrayList<Integer> mExpired = new ArrayList<Integer>();
+
+        @Override
+        public void onExpired(int serial) {
+            mExpired.add(serial);
+        }
+    }
+
+    @SmallTest
+    public void testExpiresInOrderOfTicks() {
+        RILTimerWheel wheel = new RILTimerWheel(16, 100);
+        Recorder recorder = new Recorder();
+        long now = 10000;
+        wheel.add(1, now + 250, now);
+        wheel.add(2, now + 500, now);
+        assertEquals(2, wheel.size());
+
+        wheel.advance(now + 200, recorder);
+        assertEquals(0, recorder.mExpired.size());
+
+        wheel.advance(now + 300, recorder);
+        assertEquals(1, recorder.mExpired.size());
+        assertEquals(1, (int) recorder.mExpired.get(0));
+
+        wheel.advance(now + 600, recorder);
+        assertEquals(2, recorder.mExpired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @SmallTest
+    public void testDeadlineBeyondOneRotation() {
+        // 8 slots of 100ms is an 800ms rotation.
+        RILTimerWheel wheel = new RILTimerWheel(8, 100);
+        Recorder recorder = new Recorder();
+        long now = 0;
+        wheel.add(7, now + 2000, now);
+        for (long t = 100; t < 2000; t += 100) {
+            wheel.advance(t, recorder);
+        }
+        assertEquals(0, recorder.mExpired.size());
+        wheel.advance(2000, recorder);
+        assertEquals(1, recorder.mExpired.size());
+    }
+
+    @SmallTest
+    public void testLongGapExpiresEverything() {
+        RILTimerWheel wheel = new RILTimerWheel(8, 100);
+        Recorder recorder = new Recorder();
+        for (int i = 0; i < 100; i++) {
+            wheel.add(i, 1000 + i * 10, 0);
+        }
+        wheel.advance(100000, recorder);
+        assertEquals(100, recorder.mExpired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @SmallTest
+    public void testPastDeadlineFiresOnNextTick() {
+        RILTimerWheel wheel = new RILTimerWheel(8, 100);
+        Recorder recorder = new Recorder();
+        wheel.add(1, 500, 500);
+        wheel.advance(500, recorder);
+        wheel.add(2, 100, 550);
+        wheel.advance(600, recorder);
+        assertEquals(2, recorder.mExpired.size());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for coalescing of unsolicited RIL responses.
+ */
+public class RILUnsolCoalescerTest extends AndroidTestCase {
+    private static final int WINDOW_MILLIS = 100;
+
+    private HandlerThread mThread;
+
+    private static class Recorder implements RILUnsolCoalescer.Sink {
+        final ArrayList<Object> mDelivered = new ArrayList<Object>();
+        CountDownLatch mLatch = new CountDownLatch(1);
+
+        @Override
+        public synchronized void deliverUnsolicited(int response, Object ret) {
+            mDelivered.add(ret);
+            mLatch.countDown();
+        }
+
+        synchronized int count() {
+            return mDelivered.size();
+        }
+
+        synchronized Object last() {
+            return mDelivered.get(mDelivered.size() - 1);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("RILUnsolCoalescerTest");
+        mThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testDisabledByDefault() {
+        RILUnsolCoalescer coalescer =
+                new RILUnsolCoalescer(mThread.getLooper(), new Recorder(), 0);
+        assertFalse(coalescer.isCoalescable(RIL_UNSOL_SIGNAL_STRENGTH));
+    }
+
+    @SmallTest
+    public void testSmsNeverCoalesced() {
+        RILUnsolCoalescer coalescer =
+                new RILUnsolCoalescer(mThread.getLooper(), new Recorder(), WINDOW_MILLIS);
+        assertTrue(coalescer.isCoalescable(RIL_UNSOL_SIGNAL_STRENGTH));
+        assertTrue(coalescer.isCoalescable(RIL_UNSOL_NITZ_TIME_RECEIVED));
+        assertFalse(coalescer.isCoalescable(RIL_UNSOL_RESPONSE_NEW_SMS));
+        assertFalse(coalescer.isCoalescable(RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE));
+    }
+
+    @SmallTest
+    public void testBurstDeliversFirstAndLatest() throws Exception {
+        Recorder recorder = new Recorder();
+        RILUnsolCoalescer coalescer =
+                new RILUnsolCoalescer(mThread.getLooper(), recorder, WINDOW_MILLIS);
+
+        coalescer.submit(RIL_UNSOL_SIGNAL_STRENGTH, "first");
+        assertEquals(1, recorder.count());
+        assertEquals("first", recorder.last());
+
+        recorder.mLatch = new CountDownLatch(1);
+        coalescer.submit(RIL_UNSOL_SIGNAL_STRENGTH, "second");
+        coalescer.submit(RIL_UNSOL_SIGNAL_STRENGTH, "third");
+        assertEquals(1, recorder.count());
+
+        assertTrue(recorder.mLatch.await(10 * WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(2, recorder.count());
+        assertEquals("third", recorder.last());
+    }
+
+    @SmallTest
+    public void testTypesHaveIndependentWindows() {
+        Recorder recorder = new Recorder();
+        RILUnsolCoalescer coalescer =
+                new RILUnsolCoalescer(mThread.getLooper(), recorder, WINDOW_MILLIS);
+
+        coalescer.submit(RIL_UNSOL_SIGNAL_STRENGTH, "signal");
+        coalescer.submit(RIL_UNSOL_CELL_INFO_LIST, "cells");
+        assertEquals(2, recorder.count());
+        assertEquals("cells", recorder.last());
+    }
+}
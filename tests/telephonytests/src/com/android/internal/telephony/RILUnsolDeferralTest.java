@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for holding unsolicited RIL responses while the screen is off.
+ */
+public class RILUnsolDeferralTest extends AndroidTestCase {
+
+    private static class Recorder implements RILUnsolDeferral.Replayer {
+        final ArrayList<Integer> mResponses = new ArrayList<Integer>();
+        final ArrayList<Integer> mValues = new ArrayList<Integer>();
+
+        @Override
+        public void replayUnsolicited(int response, Parcel p) {
+            mResponses.add(response);
+            mValues.add(p.readInt());
+        }
+    }
+
+    private static Parcel unsol(int response, int value) {
+        Parcel p = Parcel.obtain();
+        p.writeInt(RIL.RESPONSE_UNSOLICITED);
+        p.writeInt(response);
+        p.writeInt(value);
+        p.setDataPosition(0);
+        p.readInt();
+        p.readInt();
+        return p;
+    }
+
+    private static int hold(RILUnsolDeferral deferral, int response, int value) {
+        Parcel p = unsol(response, value);
+        try {
+            return deferral.hold(response, p);
+        } finally {
+            p.recycle();
+        }
+    }
+
+    @SmallTest
+    public void testDisabledByDefault() {
+        RILUnsolDeferral deferral = new RILUnsolDeferral(false);
+        assertFalse(deferral.isDeferrable(RIL_UNSOL_SIGNAL_STRENGTH));
+    }
+
+    @SmallTest
+    public void testOnlyLowPriorityResponsesDeferred() {
+        RILUnsolDeferral deferral = new RILUnsolDeferral(true);
+        assertTrue(deferral.isDeferrable(RIL_UNSOL_SIGNAL_STRENGTH));
+        assertTrue(deferral.isDeferrable(RIL_UNSOL_CELL_INFO_LIST));
+        assertFalse(deferral.isDeferrable(RIL_UNSOL_RESPONSE_NEW_SMS));
+        assertFalse(deferral.isDeferrable(RIL_UNSOL_NITZ_TIME_RECEIVED));
+    }
+
+    @SmallTest
+    public void testNotHeldWhileScreenOn() {
+        RILUnsolDeferral deferral = new RILUnsolDeferral(true);
+        assertEquals(RILUnsolDeferral.PROCESS, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 1));
+
+        Recorder recorder = new Recorder();
+        deferral.replay(recorder);
+        assertEquals(0, recorder.mResponses.size());
+    }
+
+    @SmallTest
+    public void testReplaysLatestPerType() {
+        RILUnsolDeferral deferral = new RILUnsolDeferral(true);
+        deferral.setScreenOff(true);
+        assertEquals(RILUnsolDeferral.HOLD, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 1));
+        assertEquals(RILUnsolDeferral.HOLD, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 2));
+        assertEquals(RILUnsolDeferral.HOLD, hold(deferral, RIL_UNSOL_CELL_INFO_LIST, 3));
+
+        assertTrue(deferral.setScreenOff(false));
+        Recorder recorder = new Recorder();
+        deferral.replay(recorder);
+        assertEquals(2, recorder.mResponses.size());
+        assertEquals(RIL_UNSOL_SIGNAL_STRENGTH, (int) recorder.mResponses.get(0));
+        assertEquals(2, (int) recorder.mValues.get(0));
+        assertEquals(RIL_UNSOL_CELL_INFO_LIST, (int) recorder.mResponses.get(1));
+        assertEquals(3, (int) recorder.mValues.get(1));
+
+        recorder = new Recorder();
+        deferral.replay(recorder);
+        assertEquals(0, recorder.mResponses.size());
+    }
+
+    @SmallTest
+    public void testFreshResponseDropsHeldOne() {
+        RILUnsolDeferral deferral = new RILUnsolDeferral(true);
+        deferral.setScreenOff(true);
+        assertEquals(RILUnsolDeferral.HOLD, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 1));
+
+        assertTrue(deferral.setScreenOff(false));
+        assertEquals(RILUnsolDeferral.HAND_OFF, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 2));
+
+        Recorder recorder = new Recorder();
+        deferral.replay(recorder);
+        assertEquals(0, recorder.mResponses.size());
+    }
+
+    @SmallTest
+    public void testNoReplayWhenNothingHeld() {
+        RILUnsolDeferral deferral = new RILUnsolDeferral(true);
+        deferral.setScreenOff(true);
+        assertFalse(deferral.setScreenOff(false));
+        assertEquals(RILUnsolDeferral.PROCESS, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 1));
+    }
+
+    @SmallTest
+    public void testHandsOffUntilReplayAndHandOffsDone() {
+        RILUnsolDeferral deferral = new RILUnsolDeferral(true);
+        deferral.setScreenOff(true);
+        assertEquals(RILUnsolDeferral.HOLD, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 1));
+        assertTrue(deferral.setScreenOff(false));
+
+        assertEquals(RILUnsolDeferral.HAND_OFF, hold(deferral, RIL_UNSOL_CELL_INFO_LIST, 2));
+        deferral.replay(new Recorder());
+        // Still behind the first hand-off, which has not been processed yet
+        assertEquals(RILUnsolDeferral.HAND_OFF, hold(deferral, RIL_UNSOL_CELL_INFO_LIST, 3));
+
+        deferral.onHandOffDone();
+        deferral.onHandOffDone();
+        assertEquals(RILUnsolDeferral.PROCESS, hold(deferral, RIL_UNSOL_CELL_INFO_LIST, 4));
+    }
+
+    @SmallTest
+    public void testReplayerCalledWithoutLock() throws Exception {
+        final RILUnsolDeferral deferral = new RILUnsolDeferral(true);
+        deferral.setScreenOff(true);
+        assertEquals(RILUnsolDeferral.HOLD, hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 1));
+        assertTrue(deferral.setScreenOff(false));
+
+        final int[] result = { -1 };
+        deferral.replay(new RILUnsolDeferral.Replayer() {
+            @Override
+            public void replayUnsolicited(int response, Parcel p) {
+                // A receiver thread must not block on the deferral meanwhile
+                Thread receiver = new Thread() {
+                    @Override
+                    public void run() {
+                        result[0] = hold(deferral, RIL_UNSOL_SIGNAL_STRENGTH, 2);
+                    }
+                };
+                receiver.start();
+                try {
+                    receiver.join(1000);
+                } catch (InterruptedException e) {
+                    // fall through to the check below
+                }
+            }
+        });
+        assertEquals(RILUnsolDeferral.HAND_OFF, result[0]);
+    }
+}
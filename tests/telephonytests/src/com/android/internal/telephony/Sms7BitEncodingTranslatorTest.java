@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Test cases for the 7-bit translation of outgoing SMS text.
+ */
+public class Sms7BitEncodingTranslatorTest extends AndroidTestCase {
+    private static final String TAG = "Sms7BitEncodingTranslatorTest";
+
+    private static final String GSM_TEXT = "Hello @ world! 1234 äöüÄÖÜ £$¥";
+
+    @SmallTest
+    public void testEmptyAndNull() {
+        assertNull(Sms7BitEncodingTranslator.translate(null));
+        assertEquals("", Sms7BitEncodingTranslator.translate(""));
+    }
+
+    @SmallTest
+    public void testGsmTextUnchanged() {
+        String translated = Sms7BitEncodingTranslator.translate(GSM_TEXT, false);
+        if (translated == null) {
+            // no translation table in this build
+            return;
+        }
+        assertEquals(GSM_TEXT, translated);
+    }
+
+    @SmallTest
+    public void testUnknownCharactersBecomeSpaces() {
+        // characters outside of every table, including a surrogate pair
+        String text = "a中😀b";
+        String gsm = Sms7BitEncodingTranslator.translate(text, false);
+        if (gsm == null) {
+            return;
+        }
+        assertEquals("a   b", gsm);
+        assertEquals("a   b", Sms7BitEncodingTranslator.translate(text, true));
+    }
+
+    @SmallTest
+    public void testTranslationIsStable() {
+        String text = "Ça coûte 5€ – «très» cher…";
+        for (boolean cdma : new boolean[] {false, true}) {
+            String once = Sms7BitEncodingTranslator.translate(text, cdma);
+            if (once == null) {
+                return;
+            }
+            assertEquals(text.length(), once.length());
+            assertEquals(once, Sms7BitEncodingTranslator.translate(once, cdma));
+        }
+    }
+
+    @LargeTest
+    public void testTranslatePerformance() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1000) {
+            sb.append("Ça coûte 5€ – «très» cher… ");
+        }
+        String text = sb.toString();
+        final int iterations = 2000;
+
+        Sms7BitEncodingTranslator.translate(text, false);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Sms7BitEncodingTranslator.translate(text, false);
+        }
+        long elapsed = System.nanoTime() - start;
+        Rlog.d(TAG, "translate " + text.length() + " chars: " + (elapsed / iterations)
+                + " ns/op");
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Test cases for tracking sent messages awaiting a delivery status report.
+ */
+public class SmsDeliveryPendingListTest extends AndroidTestCase {
+    private static final long TIMEOUT = 1000;
+
+    @SmallTest
+    public void testMatchByReferenceAndSubscription() {
+        SmsDeliveryPendingList<String> list = new SmsDeliveryPendingList<String>(TIMEOUT, 10);
+        list.add(1, 7, "sub1", 0);
+        list.add(2, 7, "sub2", 0);
+
+        assertEquals("sub1", list.get(1, 7, 10));
+        assertEquals("sub2", list.get(2, 7, 10));
+        assertNull(list.get(1, 8, 10));
+        assertEquals(2, list.getMatchedCount());
+        assertEquals(1, list.getOrphanedCount());
+
+        // an intermediate status keeps the message pending until it is removed
+        assertEquals("sub1", list.get(1, 7, 20));
+        list.remove(1, 7);
+        assertNull(list.get(1, 7, 30));
+        assertEquals(1, list.size());
+    }
+
+    @SmallTest
+    public void testExpiry() {
+        SmsDeliveryPendingList<String> list = new SmsDeliveryPendingList<String>(TIMEOUT, 10);
+        list.add(1, 1, "first", 0);
+        list.add(1, 2, "second", 500);
+
+        assertNull(list.get(1, 1, TIMEOUT));
+        assertEquals("second", list.get(1, 2, TIMEOUT));
+        assertEquals(1, list.getExpiredCount());
+        assertEquals(1, list.size());
+    }
+
+    @SmallTest
+    public void testOldestEvictedWhenFull() {
+        SmsDeliveryPendingList<String> list = new SmsDeliveryPendingList<String>(TIMEOUT, 2);
+        list.add(1, 1, "first", 0);
+        list.add(1, 2, "second", 1);
+        // reusing a reference moves the message to the end
+        list.add(1, 1, "third", 2);
+        list.add(1, 3, "fourth", 3);
+
+        assertEquals(2, list.size());
+        assertEquals(1, list.getEvictedCount());
+        assertNull(list.get(1, 2, 4));
+        assertEquals("third", list.get(1, 1, 4));
+        assertEquals("fourth", list.get(1, 3, 4));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import com.android.internal.util.HexDump;
+
+/**
+ * Real-world SMS PDUs shared by the encode/decode benchmarks. Most samples come
+ * from network captures already used by the functional tests, so the parsers
+ * exercise the same paths they take on a live device.
+ */
+final class SmsPduCorpus {
+    private SmsPduCorpus() {}
+
+    /** GSM SMS-DELIVER PDUs, including the SMSC address prefix. */
+    static final String[] GSM_DELIVER = {
+        // 7-bit "(Subject)Test" with a TP-OA in international format
+        "07914151551512F2040B916105551511F100006060605130308A04D4F29C0E",
+        // UCS2 "™©®hello"
+        "07912160130300F4040B914151245584F600087010807121352B10212200A900AE00680065006C00"
+                + "6C006F",
+        // 7-bit segment 1 of 2 with an 8-bit concatenation header
+        "07916163838408F6440B816105224431F700007060217175830AA0050003"
+                + "00020162B1582C168BC562B1582C168BC562B1582C168BC562B1582C"
+                + "168BC562B1582C168BC562B1582C168BC562B1582C168BC562B1582C"
+                + "168BC562B1582C168BC562B1582C168BC562B1582C168BC562B1582C"
+                + "168BC562B1582C168BC562B1582C168BC562B1582C168BC562B1582C"
+                + "168BC562B1582C168BC562B1582C168BC562B1582C168BC562",
+        // 8-bit WAP push segment with concatenation and port addressing headers
+        "07914140279510F6440A8111110301003BF56080207130138A8C0B05040B8423F"
+                + "000032A02010106276170706C69636174696F6E2F766E642E7761702E6D6D732D"
+                + "6D65737361676500AF848D0185B4848C8298524E453955304A6D7135514141426"
+                + "66C414141414D7741414236514141414141008D908918802B3135313232393737"
+                + "3638332F545950453D504C4D4E008A808E022B918805810306977F83687474703"
+                + "A2F2F36",
+        // CPHS voice mail indicator with an alphanumeric originator
+        "07912160130310F20404D0110041006060627171118A0120",
+    };
+
+    /** GSM SMS-STATUS-REPORT PDUs. */
+    static final String[] GSM_STATUS_REPORT = {
+        "07912180958750F84401800500C87020026195702B06040102000200",
+    };
+
+    /** CDMA bearer data subparameters, as carried in the teleservice layer. */
+    static final String[] CDMA_BEARER_DATA = {
+        // 7-bit ASCII deliver
+        "00031040900112488ea794e074d69e1b7392c270326cde9e98",
+        // latin
+        "0003100160010610262d5ab500",
+        // GSM 7-bit default alphabet
+        "00031001d00109104539b4d052ebb3d0",
+        "00031002100109184539b4d052ebb3d0",
+        // submit carrying most of the optional subparameters
+        "0003200010010410168d2002010503060812011101590501c706069706180000000701c108"
+                + "01c00901800a01e00b01030c01c00d01070e05039acc13880f018011020566",
+    };
+
+    /** User data headers without the leading UDHL byte. */
+    static final String[] USER_DATA_HEADERS = {
+        // 16-bit application port addressing and 8-bit concatenation
+        "05040B8423F000032A0201",
+        // 8-bit concatenation only
+        "0003000201",
+        // 16-bit concatenation with national language locking and single shift
+        "08041234030225012401",
+    };
+
+    /** Cell broadcast pages in GSM format, then in UMTS format. */
+    static final String[] CB_GSM = {
+        "C0000032401141D071DA0491CBE6709D4D0785D97074585CA683DAE5F93C7C2E"
+                + "83EE693A1A340ECBE5E9F0B90C9297E975B91B040F93C969F7B9D168341A8D46"
+                + "A3D168341A8D46A3D168341A8D46A3D168341A8D46A3D100",
+    };
+
+    static final String[] CB_UMTS = {
+        "010032C000400141D071DA0491CBE6709D4D0785D97074585CA683DAE5F93C7C"
+                + "2E83EE693A1A340ECBE5E9F0B90C9297E975B91B040F93C969F7B9D168341A8D"
+                + "46A3D168341A8D46A3D168341A8D46A3D168341A8D46A3D10034",
+    };
+
+    /** Message bodies for the MO encode benchmarks. */
+    static final String TEXT_GSM_7BIT = "Running late, be there in 10 minutes. Order me a coffee"
+            + " @ the usual place? \u00a33.50 is fine.";
+    static final String TEXT_UCS2 = "\u4f60\u597d\uff0c\u6211\u4eec\u5341\u5206\u949f"
+            + "\u540e\u5230\u3002"
+            + "\u0417\u0434\u0440\u0430\u0432\u0441\u0442\u0432\u0443\u0439\u0442\u0435";
+    /** Turkish text that fits 7-bit only with the Turkish national language tables. */
+    static final String TEXT_NATIONAL = "Yar\u0131n \u00f6\u011fleden sonra "
+            + "g\u00f6r\u00fc\u015f\u00fcr\u00fcz, "
+            + "\u0130stanbul'da bulu\u015fal\u0131m. \u00c7ok te\u015fekk\u00fcrler!";
+    static final int NATIONAL_LANGUAGE_TURKISH = 1;
+
+    static byte[][] toBytes(String[] hex) {
+        byte[][] result = new byte[hex.length][];
+        for (int i = 0; i < hex.length; i++) {
+            result[i] = HexDump.hexStringToByteArray(hex[i]);
+        }
+        return result;
+    }
+}
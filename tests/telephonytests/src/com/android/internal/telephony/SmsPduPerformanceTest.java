@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Debug;
+import android.telephony.Rlog;
+import android.telephony.SmsCbLocation;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.cdma.sms.BearerData;
+import com.android.internal.telephony.gsm.GsmSmsCbMessage;
+import com.android.internal.telephony.gsm.SmsMessage;
+
+/**
+ * Microbenchmarks for the SMS PDU encoders and decoders, driven by the samples in
+ * {@link SmsPduCorpus}. Each benchmark logs ns/op and allocations/op under TAG so
+ * runs can be compared before and after a change to the parsers.
+ */
+public class SmsPduPerformanceTest extends AndroidTestCase {
+    private static final String TAG = "SmsPduPerformanceTest";
+
+    private static final int ITERATIONS = 20000;
+    private static final int WARMUP_ITERATIONS = 2000;
+
+    private static final String SC_ADDRESS = "+14155551212";
+    private static final String DEST_ADDRESS = "+16505551111";
+
+    private static final SmsCbLocation sTestLocation = new SmsCbLocation("94040", 1234, 5678);
+
+    private final byte[][] mGsmDeliver = SmsPduCorpus.toBytes(SmsPduCorpus.GSM_DELIVER);
+    private final byte[][] mGsmStatusReport =
+            SmsPduCorpus.toBytes(SmsPduCorpus.GSM_STATUS_REPORT);
+    private final byte[][] mCdmaBearerData = SmsPduCorpus.toBytes(SmsPduCorpus.CDMA_BEARER_DATA);
+    private final byte[][] mUserDataHeaders =
+            SmsPduCorpus.toBytes(SmsPduCorpus.USER_DATA_HEADERS);
+    private final byte[][] mCbGsm = SmsPduCorpus.toBytes(SmsPduCorpus.CB_GSM);
+    private final byte[][] mCbUmts = SmsPduCorpus.toBytes(SmsPduCorpus.CB_UMTS);
+
+    /** One benchmarked operation; the result is kept so the call can't be optimized away. */
+    private abstract static class Op {
+        abstract Object run(int i);
+    }
+
+    private static Object sSink;
+
+    private static void measure(String name, Op op) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sSink = op.run(i);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sSink = op.run(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        int allocs = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Rlog.d(TAG, name + ": " + (elapsed / ITERATIONS) + " ns/op "
+                + ((float) allocs / ITERATIONS) + " allocs/op");
+    }
+
+    /**
+     * Makes sure every sample in the corpus is accepted, so that the benchmarks
+     * measure the parsers and not their error paths.
+     */
+    @SmallTest
+    public void testCorpusDecodes() {
+        for (byte[] pdu : mGsmDeliver) {
+            SmsMessage sms = SmsMessage.createFromPdu(pdu);
+            assertNotNull(sms);
+            assertNotNull(sms.getOriginatingAddress());
+        }
+        for (byte[] pdu : mGsmStatusReport) {
+            assertTrue(SmsMessage.createFromPdu(pdu).isStatusReportMessage());
+        }
+        for (byte[] data : mCdmaBearerData) {
+            assertNotNull(BearerData.decode(data));
+        }
+        for (byte[] udh : mUserDataHeaders) {
+            assertNotNull(SmsHeader.fromByteArray(udh));
+        }
+        assertNotNull(GsmSmsCbMessage.createSmsCbMessage(sTestLocation, new byte[][] {mCbGsm[0]}));
+        assertNotNull(GsmSmsCbMessage.createSmsCbMessage(sTestLocation, new byte[][] {mCbUmts[0]}));
+    }
+
+    @LargeTest
+    public void testGsmCreateFromPduPerformance() {
+        measure("gsm createFromPdu", new Op() {
+            @Override
+            Object run(int i) {
+                return SmsMessage.createFromPdu(mGsmDeliver[i % mGsmDeliver.length]);
+            }
+        });
+        measure("gsm createFromPdu status report", new Op() {
+            @Override
+            Object run(int i) {
+                return SmsMessage.createFromPdu(mGsmStatusReport[i % mGsmStatusReport.length]);
+            }
+        });
+    }
+
+    @LargeTest
+    public void testGsmGetSubmitPduPerformance() {
+        measure("gsm getSubmitPdu 7bit", new Op() {
+            @Override
+            Object run(int i) {
+                return SmsMessage.getSubmitPdu(SC_ADDRESS, DEST_ADDRESS,
+                        SmsPduCorpus.TEXT_GSM_7BIT, false);
+            }
+        });
+        measure("gsm getSubmitPdu ucs2", new Op() {
+            @Override
+            Object run(int i) {
+                return SmsMessage.getSubmitPdu(SC_ADDRESS, DEST_ADDRESS,
+                        SmsPduCorpus.TEXT_UCS2, false);
+            }
+        });
+        measure("gsm getSubmitPdu national", new Op() {
+            @Override
+            Object run(int i) {
+                return SmsMessage.getSubmitPdu(SC_ADDRESS, DEST_ADDRESS,
+                        SmsPduCorpus.TEXT_NATIONAL, false, null,
+                        SmsConstants.ENCODING_7BIT,
+                        SmsPduCorpus.NATIONAL_LANGUAGE_TURKISH,
+                        SmsPduCorpus.NATIONAL_LANGUAGE_TURKISH);
+            }
+        });
+    }
+
+    @LargeTest
+    public void testCdmaBearerDataPerformance() {
+        final BearerData[] decoded = new BearerData[mCdmaBearerData.length];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = BearerData.decode(mCdmaBearerData[i]);
+        }
+        measure("cdma BearerData.decode", new Op() {
+            @Override
+            Object run(int i) {
+                return BearerData.decode(mCdmaBearerData[i % mCdmaBearerData.length]);
+            }
+        });
+        measure("cdma BearerData.encode", new Op() {
+            @Override
+            Object run(int i) {
+                return BearerData.encode(decoded[i % decoded.length]);
+            }
+        });
+    }
+
+    @LargeTest
+    public void testSmsHeaderPerformance() {
+        measure("SmsHeader.fromByteArray", new Op() {
+            @Override
+            Object run(int i) {
+                return SmsHeader.fromByteArray(mUserDataHeaders[i % mUserDataHeaders.length]);
+            }
+        });
+    }
+
+    @LargeTest
+    public void testCellBroadcastPerformance() {
+        final byte[][] gsmPages = new byte[][] {mCbGsm[0]};
+        final byte[][] umtsPages = new byte[][] {mCbUmts[0]};
+        measure("GsmSmsCbMessage.createSmsCbMessage gsm", new Op() {
+            @Override
+            Object run(int i) {
+                return GsmSmsCbMessage.createSmsCbMessage(sTestLocation, gsmPages);
+            }
+        });
+        measure("GsmSmsCbMessage.createSmsCbMessage umts", new Op() {
+            @Override
+            Object run(int i) {
+                return GsmSmsCbMessage.createSmsCbMessage(sTestLocation, umtsPages);
+            }
+        });
+    }
+
+    @LargeTest
+    public void testFragmentTextPerformance() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 600) {
+            sb.append(SmsPduCorpus.TEXT_GSM_7BIT).append(' ');
+        }
+        final String longText = sb.toString();
+        measure("fragmentText 7bit " + longText.length() + " chars", new Op() {
+            @Override
+            Object run(int i) {
+                return android.telephony.SmsMessage.fragmentText(longText);
+            }
+        });
+        measure("fragmentText ucs2", new Op() {
+            @Override
+            Object run(int i) {
+                return android.telephony.SmsMessage.fragmentText(SmsPduCorpus.TEXT_UCS2
+                        + SmsPduCorpus.TEXT_UCS2 + SmsPduCorpus.TEXT_UCS2);
+            }
+        });
+    }
+}
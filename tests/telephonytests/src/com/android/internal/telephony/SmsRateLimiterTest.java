@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Test cases for the per-package SMS send limit.
+ */
+public class SmsRateLimiterTest extends AndroidTestCase {
+    private static final String TAG = "SmsRateLimiterTest";
+
+    private static final long PERIOD = 60000;
+
+    @SmallTest
+    public void testLimitWithinWindow() {
+        SmsRateLimiter limiter = new SmsRateLimiter();
+        assertTrue(limiter.check("app", 3, 1000, 5, PERIOD));
+        assertTrue(limiter.check("app", 2, 2000, 5, PERIOD));
+        assertFalse(limiter.check("app", 1, 3000, 5, PERIOD));
+        assertEquals(5, limiter.getCount("app", 3000, PERIOD));
+    }
+
+    @SmallTest
+    public void testExpiry() {
+        SmsRateLimiter limiter = new SmsRateLimiter();
+        assertTrue(limiter.check("app", 3, 1000, 5, PERIOD));
+        assertTrue(limiter.check("app", 2, 2000, 5, PERIOD));
+        assertFalse(limiter.check("app", 1, 1000 + PERIOD - 1, 5, PERIOD));
+
+        // the first three leave the window, the last two stay
+        assertTrue(limiter.check("app", 3, 1000 + PERIOD + 1, 5, PERIOD));
+        assertEquals(5, limiter.getCount("app", 1000 + PERIOD + 1, PERIOD));
+        assertEquals(3, limiter.getCount("app", 2000 + PERIOD + 1, PERIOD));
+        assertEquals(0, limiter.getCount("app", 2000 + 3 * PERIOD, PERIOD));
+    }
+
+    @SmallTest
+    public void testRaisedLimit() {
+        SmsRateLimiter limiter = new SmsRateLimiter();
+        assertTrue(limiter.check("app", 2, 1000, 2, PERIOD));
+        assertFalse(limiter.check("app", 1, 1001, 2, PERIOD));
+
+        assertTrue(limiter.check("app", 3, 1002, 5, PERIOD));
+        assertEquals(5, limiter.getCount("app", 1002, PERIOD));
+        assertEquals(3, limiter.getCount("app", 1000 + PERIOD + 1, PERIOD));
+    }
+
+    @SmallTest
+    public void testGrowsPastInitialCapacity() {
+        SmsRateLimiter limiter = new SmsRateLimiter();
+        // wrap the small ring before it has to grow
+        assertTrue(limiter.check("app", 3, 1000, 100, PERIOD));
+        assertTrue(limiter.check("app", 1, 1000 + PERIOD + 1, 100, PERIOD));
+        for (int i = 0; i < 99; i++) {
+            assertTrue(limiter.check("app", 1, 2000 + PERIOD + i, 100, PERIOD));
+        }
+        assertFalse(limiter.check("app", 1, 2000 + PERIOD + 99, 100, PERIOD));
+        assertEquals(100, limiter.getCount("app", 2000 + PERIOD + 99, PERIOD));
+        assertEquals(99, limiter.getCount("app", 1000 + 2 * PERIOD + 2, PERIOD));
+    }
+
+    @SmallTest
+    public void testPackagesAreIndependent() {
+        SmsRateLimiter limiter = new SmsRateLimiter();
+        assertTrue(limiter.check("first", 5, 1000, 5, PERIOD));
+        assertFalse(limiter.check("first", 1, 1000, 5, PERIOD));
+        assertTrue(limiter.check("second", 5, 1000, 5, PERIOD));
+        assertEquals(5, limiter.getCount("first", 1000, PERIOD));
+        assertEquals(0, limiter.getCount("third", 1000, PERIOD));
+
+        limiter.clear();
+        assertEquals(0, limiter.getCount("first", 1000, PERIOD));
+    }
+
+    @SmallTest
+    public void testDump() {
+        SmsRateLimiter limiter = new SmsRateLimiter();
+        limiter.check("app", 2, 1000, 2, PERIOD);
+        limiter.check("app", 1, 1000, 2, PERIOD);
+
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        limiter.dump(pw, 1000, PERIOD);
+        pw.flush();
+        assertTrue(sw.toString().contains("app: inWindow=2 sent=2 denied=1"));
+    }
+
+    @LargeTest
+    public void testCheckPerformance() {
+        final int packages = 200;
+        final int iterations = 200000;
+        String[] names = new String[packages];
+        for (int i = 0; i < packages; i++) {
+            names[i] = "com.example.app" + i;
+        }
+
+        SmsRateLimiter limiter = new SmsRateLimiter();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            limiter.check(names[i % packages], 1, i, 30, PERIOD);
+        }
+        long elapsed = System.nanoTime() - start;
+        Rlog.d(TAG, "check: " + (elapsed / iterations) + " ns/op over " + packages
+                + " packages");
+    }
+}
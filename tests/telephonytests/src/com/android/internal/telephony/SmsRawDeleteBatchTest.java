@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+/**
+ * Test cases for combining raw table deletes.
+ */
+public class SmsRawDeleteBatchTest extends AndroidTestCase {
+
+    @SmallTest
+    public void testCombinesSelections() {
+        SmsRawDeleteBatch batch = new SmsRawDeleteBatch();
+        assertTrue(batch.isEmpty());
+
+        batch.add(InboundSmsHandler.SELECT_BY_ID, new String[] {"12"});
+        batch.add(InboundSmsHandler.SELECT_BY_REFERENCE, new String[] {"+1555", "7", "3"});
+        assertEquals(2, batch.size());
+        assertEquals("(" + InboundSmsHandler.SELECT_BY_ID + ") OR ("
+                + InboundSmsHandler.SELECT_BY_REFERENCE + ")", batch.getWhere());
+        assertTrue(Arrays.equals(new String[] {"12", "+1555", "7", "3"},
+                batch.getWhereArgs()));
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertEquals("", batch.getWhere());
+    }
+
+    @SmallTest
+    public void testFull() {
+        SmsRawDeleteBatch batch = new SmsRawDeleteBatch();
+        for (int i = 0; i < SmsRawDeleteBatch.MAX_MESSAGES - 1; i++) {
+            batch.add(InboundSmsHandler.SELECT_BY_ID, new String[] {Integer.toString(i)});
+        }
+        assertFalse(batch.isFull());
+        batch.add(InboundSmsHandler.SELECT_BY_ID, new String[] {"last"});
+        assertTrue(batch.isFull());
+    }
+}
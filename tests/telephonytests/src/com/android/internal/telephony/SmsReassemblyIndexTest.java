@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Test cases for the in-memory multi-part SMS reassembly index.
+ */
+public class SmsReassemblyIndexTest extends AndroidTestCase {
+    private static final String ADDRESS = "+15555550100";
+
+    private static InboundSmsTracker segment(int reference, int sequence, int count,
+            int destPort) {
+        byte[] pdu = new byte[] {(byte) reference, (byte) sequence, (byte) count};
+        return new InboundSmsTracker(pdu, 0, destPort, false, ADDRESS, reference, sequence,
+                count, false);
+    }
+
+    @SmallTest
+    public void testCompleteAfterAllSegments() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        assertTrue(index.add(segment(7, 2, 3, -1)));
+        assertTrue(index.add(segment(7, 1, 3, 2948)));
+        assertNull(index.getCompleteSegments(segment(7, 1, 3, -1)));
+
+        assertTrue(index.add(segment(7, 3, 3, -1)));
+        byte[][] pdus = index.getCompleteSegments(segment(7, 3, 3, -1));
+        assertNotNull(pdus);
+        assertEquals(3, pdus.length);
+        for (int i = 0; i < pdus.length; i++) {
+            assertEquals(i + 1, pdus[i][1]);
+        }
+        assertEquals(2948, index.getFirstDestPort(segment(7, 3, 3, -1)));
+    }
+
+    @SmallTest
+    public void testDuplicateSegment() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        InboundSmsTracker first = segment(9, 1, 2, -1);
+        assertNull(index.getSegment(first));
+        assertTrue(index.add(first));
+
+        assertNotNull(index.getSegment(segment(9, 1, 2, -1)));
+        assertFalse(index.add(segment(9, 1, 2, -1)));
+        assertNull(index.getSegment(segment(9, 2, 2, -1)));
+    }
+
+    @SmallTest
+    public void testKeyIncludesCount() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        assertTrue(index.add(segment(5, 1, 2, -1)));
+        assertTrue(index.add(segment(5, 1, 3, -1)));
+        assertEquals(2, index.size());
+    }
+
+    @SmallTest
+    public void testOutOfRangeSequenceRejected() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        assertFalse(index.add(segment(3, 0, 2, -1)));
+        assertFalse(index.add(segment(3, 3, 2, -1)));
+        assertEquals(0, index.size());
+    }
+
+    @SmallTest
+    public void testRemove() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        index.add(segment(4, 1, 2, -1));
+        index.add(segment(4, 2, 2, -1));
+        index.remove(ADDRESS, 4, 2);
+        assertEquals(0, index.size());
+        assertNull(index.getCompleteSegments(segment(4, 1, 2, -1)));
+    }
+
+    @SmallTest
+    public void testOnlyOneRebuilder() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        assertFalse(index.isReady());
+        assertTrue(index.beginRebuild());
+        assertFalse(index.beginRebuild());
+        index.finishRebuild(true);
+        assertTrue(index.isReady());
+        // Once ready, later phones must not reload and clear the shared index.
+        assertTrue(index.add(segment(3, 1, 2, -1)));
+        assertFalse(index.beginRebuild());
+        assertNotNull(index.getSegment(segment(3, 1, 2, -1)));
+    }
+
+    @SmallTest
+    public void testRebuildSkipsMessagesRemovedMeanwhile() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        assertTrue(index.beginRebuild());
+        assertTrue(index.addFromTable(segment(4, 1, 2, -1)));
+        // Another handler completes and deletes the message while the cursor is read.
+        index.remove(ADDRESS, 4, 2);
+        assertFalse(index.addFromTable(segment(4, 2, 2, -1)));
+        index.finishRebuild(true);
+        assertNull(index.getSegment(segment(4, 1, 2, -1)));
+        assertNull(index.getSegment(segment(4, 2, 2, -1)));
+
+        // A new message reusing the reference after the rebuild is tracked again.
+        assertTrue(index.add(segment(4, 1, 2, -1)));
+    }
+
+    @SmallTest
+    public void testFailedRebuildStaysDisabled() {
+        SmsReassemblyIndex index = new SmsReassemblyIndex();
+        assertTrue(index.beginRebuild());
+        index.addFromTable(segment(5, 1, 2, -1));
+        index.finishRebuild(false);
+        assertFalse(index.isReady());
+        assertEquals(0, index.size());
+        assertTrue(index.beginRebuild());
+    }
+}
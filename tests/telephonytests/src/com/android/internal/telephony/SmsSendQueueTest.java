@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for the outbound SMS scheduler.
+ */
+public class SmsSendQueueTest extends AndroidTestCase {
+    private static final long TIMEOUT = 1000;
+
+    private static final class RecordingCallback implements SmsSendQueue.Callback<String> {
+        final ArrayList<String> mSent = new ArrayList<String>();
+        final ArrayList<Boolean> mExpectMore = new ArrayList<Boolean>();
+        long mPumpDelay = -1;
+
+        @Override
+        public void send(String item, boolean expectMore) {
+            mSent.add(item);
+            mExpectMore.add(expectMore);
+        }
+
+        @Override
+        public void requestPump(long delayMillis) {
+            mPumpDelay = delayMillis;
+        }
+    }
+
+    @SmallTest
+    public void testWindowAndExpectMore() {
+        RecordingCallback callback = new RecordingCallback();
+        SmsSendQueue<String> queue = new SmsSendQueue<String>(callback, 2, TIMEOUT);
+        queue.enqueue("app", "a1");
+        queue.enqueue("app", "a2");
+        queue.enqueue("app", "a3");
+
+        queue.pump(0);
+        assertEquals(2, callback.mSent.size());
+        assertEquals(Boolean.TRUE, callback.mExpectMore.get(0));
+        assertEquals(Boolean.TRUE, callback.mExpectMore.get(1));
+        assertEquals(1, queue.getDepth());
+        assertEquals(2, queue.getInFlight());
+        assertEquals(TIMEOUT, callback.mPumpDelay);
+
+        queue.finish("a1");
+        assertEquals(0, callback.mPumpDelay);
+        queue.pump(10);
+        assertEquals(3, callback.mSent.size());
+        assertEquals("a3", callback.mSent.get(2));
+        assertEquals(Boolean.FALSE, callback.mExpectMore.get(2));
+    }
+
+    @SmallTest
+    public void testRoundRobinAcrossPackages() {
+        RecordingCallback callback = new RecordingCallback();
+        SmsSendQueue<String> queue = new SmsSendQueue<String>(callback, 10, TIMEOUT);
+        queue.enqueue("bulk", "b1");
+        queue.enqueue("bulk", "b2");
+        queue.enqueue("bulk", "b3");
+        queue.enqueue("chat", "c1");
+
+        queue.pump(0);
+        assertEquals("b1", callback.mSent.get(0));
+        assertEquals("c1", callback.mSent.get(1));
+        assertEquals("b2", callback.mSent.get(2));
+        assertEquals("b3", callback.mSent.get(3));
+    }
+
+    @SmallTest
+    public void testTimedOutSlotIsFreed() {
+        RecordingCallback callback = new RecordingCallback();
+        SmsSendQueue<String> queue = new SmsSendQueue<String>(callback, 1, TIMEOUT);
+        queue.enqueue("app", "a1");
+        queue.enqueue("app", "a2");
+
+        queue.pump(0);
+        queue.pump(TIMEOUT - 1);
+        assertEquals(1, callback.mSent.size());
+        assertEquals(1, callback.mPumpDelay);
+
+        queue.pump(TIMEOUT);
+        assertEquals(2, callback.mSent.size());
+        assertEquals(1, queue.getTimedOutCount());
+
+        // a late reply for the timed out message must not free the new one's slot
+        queue.finish("a1");
+        assertEquals(1, queue.getInFlight());
+    }
+
+    @SmallTest
+    public void testRequeueFreesSlot() {
+        RecordingCallback callback = new RecordingCallback();
+        SmsSendQueue<String> queue = new SmsSendQueue<String>(callback, 1, TIMEOUT);
+        queue.enqueue("app", "a1");
+        queue.pump(0);
+        assertEquals(1, queue.getInFlight());
+
+        queue.enqueue("app", "a1");
+        assertEquals(0, queue.getInFlight());
+        queue.pump(1);
+        assertEquals(2, callback.mSent.size());
+    }
+}
@@ -16,7 +16,9 @@
 
 package com.android.internal.telephony;
 
+import android.telephony.Rlog;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
 import static com.android.internal.telephony.SmsUsageMonitor.CATEGORY_FREE_SHORT_CODE;
@@ -29,6 +31,7 @@ import static com.android.internal.telephony.SmsUsageMonitor.CATEGORY_STANDARD_S
  * Test cases for SMS short code pattern matching in SmsUsageMonitor.
  */
 public class SmsUsageMonitorShortCodeTest extends AndroidTestCase {
+    private static final String TAG = "SmsUsageMonitorShortCodeTest";
 
     private static final class ShortCodeTest {
         final String countryIso;
@@ -463,4 +466,32 @@ public class SmsUsageMonitorShortCodeTest extends AndroidTestCase {
                     test.category, monitor.checkDestination(test.address, test.countryIso));
         }
     }
+
+    @SmallTest
+    public void testAlternatingCountries() {
+        SmsUsageMonitor monitor = new SmsUsageMonitor(getContext());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(CATEGORY_PREMIUM_SHORT_CODE, monitor.checkDestination("20433", "us"));
+            assertEquals(CATEGORY_NOT_SHORT_CODE, monitor.checkDestination("2000000", "zz"));
+            assertEquals(CATEGORY_POSSIBLE_PREMIUM_SHORT_CODE,
+                    monitor.checkDestination("54321", "zz"));
+        }
+    }
+
+    @LargeTest
+    public void testCheckDestinationPerformance() {
+        final int iterations = 20000;
+        final String[] countries = {"us", "gb", "de", "fr"};
+        SmsUsageMonitor monitor = new SmsUsageMonitor(getContext());
+        // load the patterns outside of the timed loop
+        monitor.checkDestination("20433", "us");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            monitor.checkDestination("20433", countries[i % countries.length]);
+        }
+        long elapsed = System.nanoTime() - start;
+        Rlog.d(TAG, "checkDestination alternating " + countries.length + " countries: "
+                + (elapsed / iterations) + " ns/op");
+    }
 }
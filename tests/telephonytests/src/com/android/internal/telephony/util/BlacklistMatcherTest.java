@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+/**
+ * Test cases and a lookup benchmark for the in-memory blacklist matcher.
+ */
+public class BlacklistMatcherTest extends AndroidTestCase {
+    private static final String TAG = "BlacklistMatcherTest";
+
+    private static final int BENCH_ENTRIES = 10000;
+    private static final int BENCH_REGEX_ENTRIES = 100;
+    private static final int BENCH_WILDCARD_HEAVY_ENTRIES = 10000;
+    private static final int BENCH_LOOKUPS = 100000;
+
+    private static final int CALLS = BlacklistUtils.BLOCK_CALLS;
+    private static final int MESSAGES = BlacklistUtils.BLOCK_MESSAGES;
+
+    @SmallTest
+    public void testExactNumbers() {
+        BlacklistMatcher matcher = new BlacklistMatcher();
+        matcher.addEntry("+15555550100", false, true, false);
+        matcher.addEntry("+15555550101", false, true, true);
+        matcher.compile();
+
+        assertEquals(BlacklistUtils.MATCH_LIST, matcher.match("+15555550100", CALLS, false));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+15555550100", MESSAGES, false));
+        assertEquals(BlacklistUtils.MATCH_LIST, matcher.match("+15555550101", MESSAGES, false));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+15555550102", CALLS, false));
+    }
+
+    @SmallTest
+    public void testWildcards() {
+        BlacklistMatcher matcher = new BlacklistMatcher();
+        matcher.addEntry("+1900%", true, true, true);
+        matcher.addEntry("+4412_4", true, false, true);
+        matcher.compile();
+
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("+19005551234", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+19005551234", CALLS, false));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+18005551234", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("+441234", MESSAGES, true));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+441234", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+4412345", MESSAGES, true));
+    }
+
+    @SmallTest
+    public void testExactEntryWhitelistsWildcard() {
+        BlacklistMatcher matcher = new BlacklistMatcher();
+        matcher.addEntry("+1900%", true, true, true);
+        matcher.addEntry("+19005550000", false, false, false);
+        matcher.compile();
+
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+19005550000", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("+19005550001", CALLS, true));
+    }
+
+    @SmallTest
+    public void testWildcardSemantics() {
+        BlacklistMatcher matcher = new BlacklistMatcher();
+        matcher.addEntry("+1_5", true, true, false);
+        matcher.addEntry("+2%", true, true, false);
+        matcher.addEntry("%%99", true, true, false);
+        matcher.addEntry("+3.5", true, true, false);
+        matcher.addEntry("A%b", true, true, false);
+        matcher.compile();
+
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("+1.5", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("x1.5", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+15", CALLS, true));
+        // '%' matches an empty run
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("+2", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("99", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("+1999", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+1990", CALLS, true));
+        // other characters are literals, compared ignoring case
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+305", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_REGEX, matcher.match("a12B", CALLS, true));
+        assertEquals(BlacklistUtils.MATCH_NONE, matcher.match("+1.5", MESSAGES, true));
+    }
+
+    @LargeTest
+    public void testLookupBenchmark() {
+        BlacklistMatcher matcher = new BlacklistMatcher();
+        for (int i = 0; i < BENCH_ENTRIES - BENCH_REGEX_ENTRIES; i++) {
+            matcher.addEntry("+1555" + (1000000 + i), false, true, true);
+        }
+        for (int i = 0; i < BENCH_REGEX_ENTRIES; i++) {
+            matcher.addEntry("+1" + (200 + i) + "%", true, true, true);
+        }
+        long buildStart = System.nanoTime();
+        matcher.compile();
+        long buildNanos = System.nanoTime() - buildStart;
+
+        String[] numbers = new String[1000];
+        for (int i = 0; i < numbers.length; i++) {
+            // mix of exact hits, wildcard hits and misses
+            switch (i % 3) {
+                case 0: numbers[i] = "+1555" + (1000000 + i); break;
+                case 1: numbers[i] = "+1" + (200 + i % BENCH_REGEX_ENTRIES) + "5550100"; break;
+                default: numbers[i] = "+1999555" + i; break;
+            }
+        }
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(i % 3 == 2 ? BlacklistUtils.MATCH_NONE
+                    : (i % 3 == 0 ? BlacklistUtils.MATCH_LIST : BlacklistUtils.MATCH_REGEX),
+                    matcher.match(numbers[i], MESSAGES, true));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCH_LOOKUPS; i++) {
+            matcher.match(numbers[i % numbers.length], MESSAGES, true);
+        }
+        long nanos = System.nanoTime() - start;
+        Log.d(TAG, "entries=" + BENCH_ENTRIES + " regexEntries=" + BENCH_REGEX_ENTRIES
+                + " compileMs=" + (buildNanos / 1000000)
+                + " nsPerLookup=" + (nanos / BENCH_LOOKUPS));
+    }
+
+    @LargeTest
+    public void testWildcardHeavyLookupBenchmark() {
+        // Every entry is a wildcard: half block a prefix, half a suffix
+        BlacklistMatcher matcher = new BlacklistMatcher();
+        for (int i = 0; i < BENCH_WILDCARD_HEAVY_ENTRIES / 2; i++) {
+            matcher.addEntry("+1" + (100000 + i) + "%", true, true, true);
+            matcher.addEntry("%" + (500000 + i), true, true, true);
+        }
+        long buildStart = System.nanoTime();
+        matcher.compile();
+        long buildNanos = System.nanoTime() - buildStart;
+
+        String[] numbers = new String[1000];
+        for (int i = 0; i < numbers.length; i++) {
+            // mix of prefix hits, suffix hits and misses
+            switch (i % 3) {
+                case 0: numbers[i] = "+1" + (100000 + i) + "5550"; break;
+                case 1: numbers[i] = "+4420" + (500000 + i); break;
+                default: numbers[i] = "+1999555" + (1000 + i); break;
+            }
+        }
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(i % 3 == 2 ? BlacklistUtils.MATCH_NONE : BlacklistUtils.MATCH_REGEX,
+                    matcher.match(numbers[i], MESSAGES, true));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCH_LOOKUPS; i++) {
+            matcher.match(numbers[i % numbers.length], MESSAGES, true);
+        }
+        long nanos = System.nanoTime() - start;
+        Log.d(TAG, "wildcardEntries=" + BENCH_WILDCARD_HEAVY_ENTRIES
+                + " compileMs=" + (buildNanos / 1000000)
+                + " nsPerLookup=" + (nanos / BENCH_LOOKUPS));
+    }
+}
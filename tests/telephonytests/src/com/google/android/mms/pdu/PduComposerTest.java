@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/**
+ * Checks that streaming a PDU gives the same bytes as composing it into an array.
+ */
+public class PduComposerTest extends AndroidTestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "PduComposerTest.jpg");
+        byte[] data = new byte[300000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private SendReq makeSendReq(Uri imageUri) {
+        SendReq req = new SendReq();
+        req.addTo(new EncodedStringValue("+16505550100"));
+        req.setSubject(new EncodedStringValue("subject"));
+
+        PduBody body = new PduBody();
+        PduPart text = new PduPart();
+        text.setContentType("text/plain".getBytes());
+        text.setContentLocation("text_0.txt".getBytes());
+        text.setData("hello world".getBytes());
+        body.addPart(text);
+
+        PduPart image = new PduPart();
+        image.setContentType("image/jpeg".getBytes());
+        image.setContentLocation("image_0.jpg".getBytes());
+        image.setDataUri(imageUri);
+        body.addPart(image);
+
+        req.setBody(body);
+        return req;
+    }
+
+    @SmallTest
+    public void testStreamMatchesArray() throws Exception {
+        SendReq req = makeSendReq(Uri.fromFile(mFile));
+        byte[] expected = new PduComposer(getContext(), req).make();
+        assertNotNull(expected);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = new PduComposer(getContext(), req).make(out);
+        assertEquals(expected.length, written);
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+    }
+
+    @SmallTest
+    public void testStreamParsedPartData() throws Exception {
+        byte[] pdu = new PduComposer(getContext(), makeSendReq(Uri.fromFile(mFile))).make();
+        SendReq parsed = (SendReq) new PduParser(pdu, true).parse();
+        assertNotNull(parsed);
+
+        // Re-compose from parts that are views into the parsed PDU.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = new PduComposer(getContext(), parsed).make(out);
+        assertEquals(out.size(), written);
+
+        SendReq reparsed = (SendReq) new PduParser(out.toByteArray(), true).parse();
+        assertNotNull(reparsed);
+        assertEquals(mFile.length(), reparsed.getBody().getPart(1).getDataLength());
+        assertTrue(Arrays.equals(parsed.getBody().getPart(1).getData(),
+                reparsed.getBody().getPart(1).getData()));
+    }
+
+    @SmallTest
+    public void testMissingUri() throws Exception {
+        SendReq req = makeSendReq(Uri.fromFile(new File(mFile.getPath() + ".missing")));
+        assertNull(new PduComposer(getContext(), req).make());
+        assertEquals(-1, new PduComposer(getContext(), req).make(new ByteArrayOutputStream()));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks that parsing from a ByteBuffer gives the same result as parsing the
+ * equivalent byte array.
+ */
+public class PduParserTest extends AndroidTestCase {
+    private static final String SMIL = "<smil><body><par dur=\"5000ms\">"
+            + "<text src=\"text_0.txt\"/><img src=\"image_0.jpg\"/></par></body></smil>";
+
+    private byte[] makeSendReq(int imageSize) throws Exception {
+        SendReq req = new SendReq();
+        req.addTo(new EncodedStringValue("+16505550100"));
+        req.setSubject(new EncodedStringValue("subject"));
+
+        PduBody body = new PduBody();
+        body.addPart(makePart("application/smil", "smil.xml", SMIL.getBytes()));
+        body.addPart(makePart("text/plain", "text_0.txt", "hello world".getBytes()));
+        byte[] image = new byte[imageSize];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 31);
+        }
+        body.addPart(makePart("image/jpeg", "image_0.jpg", image));
+        req.setBody(body);
+
+        byte[] pdu = new PduComposer(getContext(), req).make();
+        assertNotNull(pdu);
+        return pdu;
+    }
+
+    private static PduPart makePart(String contentType, String location, byte[] data) {
+        PduPart part = new PduPart();
+        part.setContentType(contentType.getBytes());
+        part.setContentLocation(location.getBytes());
+        part.setContentId(("<" + location + ">").getBytes());
+        part.setData(data);
+        return part;
+    }
+
+    private static void assertSameBody(PduBody expected, PduBody actual) {
+        assertEquals(expected.getPartsNum(), actual.getPartsNum());
+        for (int i = 0; i < expected.getPartsNum(); i++) {
+            PduPart e = expected.getPart(i);
+            PduPart a = actual.getPart(i);
+            assertTrue(Arrays.equals(e.getContentType(), a.getContentType()));
+            assertTrue(Arrays.equals(e.getContentLocation(), a.getContentLocation()));
+            assertTrue(Arrays.equals(e.getContentId(), a.getContentId()));
+            assertEquals(e.getCharset(), a.getCharset());
+            assertEquals(e.getDataLength(), a.getDataLength());
+            assertTrue(Arrays.equals(e.getData(), a.getData()));
+            assertEquals(a.getDataBuffer(), e.getDataBuffer());
+        }
+    }
+
+    @SmallTest
+    public void testHeapBufferMatchesArray() throws Exception {
+        byte[] pdu = makeSendReq(4096);
+        SendReq expected = (SendReq) new PduParser(pdu, true).parse();
+        SendReq actual = (SendReq) new PduParser(ByteBuffer.wrap(pdu), true).parse();
+        assertNotNull(expected);
+        assertNotNull(actual);
+        assertEquals(expected.getMessageType(), actual.getMessageType());
+        assertEquals(expected.getSubject().getString(), actual.getSubject().getString());
+        assertEquals(expected.getTo()[0].getString(), actual.getTo()[0].getString());
+        assertTrue(Arrays.equals(expected.getContentType(), actual.getContentType()));
+        assertSameBody(expected.getBody(), actual.getBody());
+    }
+
+    @SmallTest
+    public void testDirectBufferWithOffset() throws Exception {
+        byte[] pdu = makeSendReq(100000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pdu.length + 16);
+        buffer.position(8);
+        buffer.put(pdu);
+        buffer.position(8);
+        buffer.limit(8 + pdu.length);
+
+        SendReq expected = (SendReq) new PduParser(pdu, true).parse();
+        SendReq actual = (SendReq) new PduParser(buffer, true).parse();
+        assertNotNull(actual);
+        assertEquals(8, buffer.position());
+        assertSameBody(expected.getBody(), actual.getBody());
+    }
+
+    @SmallTest
+    public void testPartDataIsAView() throws Exception {
+        byte[] pdu = makeSendReq(16);
+        SendReq req = (SendReq) new PduParser(ByteBuffer.wrap(pdu), true).parse();
+        PduPart text = req.getBody().getPartByContentLocation("text_0.txt");
+        assertNotNull(text);
+
+        // Changing the backing array shows through until the data is materialized.
+        byte[] before = text.getData();
+        ByteBuffer view = text.getDataBuffer();
+        assertTrue(view.isReadOnly());
+        int offset = indexOf(pdu, "hello world".getBytes());
+        assertTrue(offset > 0);
+        pdu[offset] = 'j';
+        assertEquals('j', text.getDataBuffer().get(0));
+        assertEquals('h', before[0]);
+
+        text.setData("replaced".getBytes());
+        pdu[offset] = 'h';
+        assertEquals("replaced", new String(text.getData()));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/**
+ * Test cases for lazily loaded part data.
+ */
+public class PduPartTest extends AndroidTestCase {
+    private File mFile;
+    private byte[] mData;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "PduPartTest.vcf");
+        mData = new byte[20000];
+        for (int i = 0; i < mData.length; i++) {
+            mData[i] = (byte) (i * 13);
+        }
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mData);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testLazyDataLoadedOnDemand() throws Exception {
+        PduPart part = new PduPart();
+        Uri uri = Uri.fromFile(mFile);
+        part.setLazyDataUri(getContext().getContentResolver(), uri);
+
+        assertEquals(uri, part.getDataUri());
+        assertNull(part.getDataBuffer());
+
+        assertTrue(Arrays.equals(mData, part.getData()));
+        assertEquals(mData.length, part.getDataLength());
+        assertEquals(mData.length, part.getDataBuffer().remaining());
+
+        // Loaded once; later changes to the file are not seen.
+        mFile.delete();
+        assertTrue(Arrays.equals(mData, part.getData()));
+    }
+
+    @SmallTest
+    public void testPeekDataLengthDoesNotLoad() throws Exception {
+        PduPart part = new PduPart();
+        part.setLazyDataUri(getContext().getContentResolver(), Uri.fromFile(mFile));
+
+        assertEquals(mData.length, part.peekDataLength());
+        assertTrue(part.isDataPending());
+        assertNull(part.getDataBuffer());
+
+        part.setData("loaded".getBytes());
+        assertEquals(6, part.peekDataLength());
+    }
+
+    @SmallTest
+    public void testPeekDataLengthMissingFile() throws Exception {
+        PduPart part = new PduPart();
+        part.setLazyDataUri(getContext().getContentResolver(),
+                Uri.fromFile(new File(mFile.getPath() + ".missing")));
+        assertEquals(-1, part.peekDataLength());
+    }
+
+    @SmallTest
+    public void testLazyDataMissingFile() throws Exception {
+        PduPart part = new PduPart();
+        part.setLazyDataUri(getContext().getContentResolver(),
+                Uri.fromFile(new File(mFile.getPath() + ".missing")));
+        assertNull(part.getData());
+        assertEquals(0, part.getDataLength());
+    }
+
+    @SmallTest
+    public void testSetDataReplacesLazyData() throws Exception {
+        PduPart part = new PduPart();
+        part.setLazyDataUri(getContext().getContentResolver(), Uri.fromFile(mFile));
+        part.setData("replaced".getBytes());
+        assertEquals("replaced", new String(part.getData()));
+    }
+}
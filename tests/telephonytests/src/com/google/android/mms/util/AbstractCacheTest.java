@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+/**
+ * Test cases for the eviction policy of AbstractCache.
+ */
+public class AbstractCacheTest extends AndroidTestCase {
+
+    private static class TestCache extends AbstractCache<String, String> {
+        final ArrayList<String> mEvicted = new ArrayList<String>();
+
+        TestCache(int maxItems, long maxSize) {
+            super(maxItems, maxSize);
+        }
+
+        @Override
+        protected long sizeOf(String key, String value) {
+            return value.length();
+        }
+
+        @Override
+        protected void onEvicted(String key, String value) {
+            mEvicted.add(key);
+        }
+    }
+
+    @SmallTest
+    public void testEvictsLeastRecentlyUsed() {
+        TestCache cache = new TestCache(10, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cache.put("k" + i, "v"));
+        }
+        // Hit everything but k0 and k1, oldest first.
+        for (int i = 2; i < 10; i++) {
+            assertNotNull(cache.get("k" + i));
+        }
+
+        // Full: the new entry is kept and the cache trims to 90% of the limit.
+        assertTrue(cache.put("new", "v"));
+        assertEquals(9, cache.size());
+        assertEquals("v", cache.get("new"));
+        assertNull(cache.get("k0"));
+        assertNull(cache.get("k1"));
+        assertEquals(2, cache.mEvicted.size());
+
+        cache.put("a", "v");
+        cache.put("b", "v");
+        // "a" was never read so it goes first, then the least recently used k2.
+        assertNull(cache.get("a"));
+        assertNull(cache.get("k2"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("new"));
+    }
+
+    @SmallTest
+    public void testSizeBudget() {
+        TestCache cache = new TestCache(100, 100);
+        assertTrue(cache.put("a", new String(new char[40])));
+        assertTrue(cache.put("b", new String(new char[40])));
+        assertNotNull(cache.get("a"));
+        assertTrue(cache.put("c", new String(new char[40])));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+
+        // Larger than the whole budget: rejected without flushing the rest.
+        assertFalse(cache.put("huge", new String(new char[101])));
+        assertEquals(2, cache.size());
+
+        // Replacing an entry releases its old size.
+        assertTrue(cache.put("a", "x"));
+        assertTrue(cache.put("d", new String(new char[40])));
+        assertEquals(3, cache.size());
+    }
+
+    @SmallTest
+    public void testPurgeAndDump() {
+        TestCache cache = new TestCache(10, 100);
+        cache.put("a", "12345");
+        assertEquals("12345", cache.purge("a"));
+        assertNull(cache.purge("a"));
+        assertNull(cache.purge(null));
+        assertFalse(cache.put(null, "x"));
+        cache.put("b", "1");
+        cache.purgeAll();
+        assertEquals(0, cache.size());
+        assertTrue(cache.mEvicted.isEmpty());
+
+        StringWriter sw = new StringWriter();
+        cache.dump(new PrintWriter(sw));
+        String dump = sw.toString();
+        assertTrue(dump, dump.contains("items=0/10 size=0/100"));
+        assertTrue(dump, dump.contains("evictions=0"));
+    }
+
+    /** A cache of values that can grow after they were put. */
+    private static class GrowingCache extends AbstractCache<String, StringBuilder> {
+        final ArrayList<String> mEvicted = new ArrayList<String>();
+
+        GrowingCache(long maxSize) {
+            super(100, maxSize);
+        }
+
+        @Override
+        protected long sizeOf(String key, StringBuilder value) {
+            return value.length();
+        }
+
+        @Override
+        protected void onEvicted(String key, StringBuilder value) {
+            mEvicted.add(key);
+        }
+
+        void grow(String key, StringBuilder value, int chars) {
+            value.append(new char[chars]);
+            resize(key, value);
+        }
+    }
+
+    @SmallTest
+    public void testResizeCountsGrowth() {
+        GrowingCache cache = new GrowingCache(100);
+        StringBuilder a = new StringBuilder("0123456789");
+        StringBuilder b = new StringBuilder("0123456789");
+        assertTrue(cache.put("a", a));
+        assertTrue(cache.put("b", b));
+        assertNotNull(cache.get("b"));
+
+        cache.grow("b", b, 30);
+        assertTrue(cache.mEvicted.isEmpty());
+
+        // Over budget now: trimmed to 90, the never read "a" goes first.
+        cache.grow("a", a, 55);
+        assertEquals(1, cache.mEvicted.size());
+        assertEquals("a", cache.mEvicted.get(0));
+        assertNotNull(cache.get("b"));
+
+        // An entry that grew past the budget on its own is evicted too.
+        cache.grow("b", b, 100);
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.size());
+    }
+
+    @SmallTest
+    public void testResizeIgnoresReplacedValue() {
+        GrowingCache cache = new GrowingCache(100);
+        StringBuilder old = new StringBuilder("x");
+        cache.put("k", old);
+        cache.put("k", new StringBuilder("y"));
+        // A late notification for the replaced value must not change the accounting.
+        cache.grow("k", old, 200);
+        assertNotNull(cache.get("k"));
+        assertTrue(cache.mEvicted.isEmpty());
+    }
+}